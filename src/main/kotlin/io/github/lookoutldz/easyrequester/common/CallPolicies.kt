@@ -0,0 +1,255 @@
+package io.github.lookoutldz.easyrequester.common
+
+import com.fasterxml.jackson.core.JsonProcessingException
+import okhttp3.Call
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+
+/**
+ * 一次请求在执行引擎中生效的策略, 由 Builder 汇总后交给 [EasyHttpEngine]
+ * Kotlin 与 Java 两套请求器共用, 新增的执行阶段只需要在这里与 Builder 中增加配置
+ * @author looko
+ * @date 2025/7/1
+ */
+internal data class CallPolicies(
+    val retry: RetryPolicy? = null,
+    val circuitBreaker: CircuitBreakerPolicy? = null,
+    val concurrencyLimit: ConcurrencyLimitPolicy? = null,
+    val rateLimit: RateLimitPolicy? = null,
+    val hedge: HedgePolicy? = null,
+    val singleFlight: SingleFlightPolicy? = null,
+    /**
+     * 每次尝试的超时, 通过 Call.timeout() 设置
+     */
+    val timeout: Duration? = null,
+    /**
+     * 包括排队、重试与解析在内的总时限, 见 [Deadline]
+     */
+    val deadline: Duration? = null,
+    /**
+     * 反序列化结果的内存缓存, 只在使用默认成功处理器时由 Builder 生成
+     */
+    val cache: ResponseCaching? = null,
+) {
+    companion object {
+        val NONE = CallPolicies()
+    }
+}
+
+/**
+ * 一次请求各次尝试共享的执行阶段状态, 同步与异步执行共用:
+ * 每次尝试前调用 [beforeAttempt] 或 [beforeAttemptAsync], 得到响应或异常后调用 [afterResponse] / [afterException] 决定是否退避重试
+ */
+internal class CallStages(
+    policies: CallPolicies,
+    request: Request,
+    private val deadline: Deadline? = null,
+    /**
+     * 记录各阶段耗时的句柄
+     */
+    private val easyCall: EasyCall<*>? = null,
+) {
+
+    private val retry = policies.retry?.begin(request)
+    private val breaker = policies.circuitBreaker?.breakerFor(request.url.host, request.url.port)
+    private val limiter = policies.concurrencyLimit?.limiterFor(request.url.host, request.url.port)
+    private val rateLimit = policies.rateLimit
+    private val buckets = rateLimit?.bucketsFor(request.url).orEmpty()
+    private val hedging = policies.hedge?.begin(request)
+    private val timeoutNanos = policies.timeout?.toNanos()
+
+    private var permit = 0
+    private var startedAt = 0L
+
+    /**
+     * 同步执行: 依次通过熔断器、限流与并发限制, 在调用线程上等待令牌, 并发已满时阻塞排队
+     * 先等待令牌再占用并发许可, 避免等待期间占着许可
+     * @throws CircuitBreakerOpenException 熔断器拒绝本次尝试
+     * @throws RateLimitExceededException 需要等待令牌的时间过长
+     * @throws ConcurrencyLimitExceededException 排队已满或等待超时
+     * @throws DeadlineExceededException 已经到期, 或剩余时间不足以等待令牌、排队
+     */
+    fun beforeAttempt() {
+        val queuedAt = System.nanoTime()
+        try {
+            deadline?.check()
+            acquireBreaker()
+        } catch (e: Exception) {
+            easyCall?.record(EasyCall.Phase.QUEUEING, System.nanoTime() - queuedAt)
+            throw e
+        }
+        try {
+            val wait = reserveTokens()
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait)
+            }
+            limiter?.acquire(queueTimeoutNanos(limiter))
+        } catch (e: Exception) {
+            breaker?.release(permit)
+            easyCall?.record(EasyCall.Phase.QUEUEING, System.nanoTime() - queuedAt)
+            throw deadline?.failure(e) ?: e
+        }
+        started(queuedAt)
+    }
+
+    /**
+     * 异步执行: 与 [beforeAttempt] 相同, 但等待令牌与排队时不阻塞线程, 取得许可后调用 onReady
+     */
+    fun beforeAttemptAsync(onReady: () -> Unit, onRejected: (Throwable) -> Unit) {
+        val queuedAt = System.nanoTime()
+        beforeAttemptAsync(queuedAt, onReady) { e ->
+            easyCall?.record(EasyCall.Phase.QUEUEING, System.nanoTime() - queuedAt)
+            onRejected(e)
+        }
+    }
+
+    private fun beforeAttemptAsync(queuedAt: Long, onReady: () -> Unit, onRejected: (Throwable) -> Unit) {
+        if (deadline != null && deadline.expired) {
+            onRejected(deadline.exceeded())
+            return
+        }
+        val wait = try {
+            acquireBreaker()
+            reserveTokens()
+        } catch (e: RuntimeException) {
+            if (e is RateLimitExceededException || e is DeadlineExceededException) {
+                breaker?.release(permit)
+            }
+            onRejected(e)
+            return
+        }
+        if (wait > 0) {
+            CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS).execute { acquireLimiterAsync(queuedAt, onReady, onRejected) }
+        } else {
+            acquireLimiterAsync(queuedAt, onReady, onRejected)
+        }
+    }
+
+    private fun acquireLimiterAsync(queuedAt: Long, onReady: () -> Unit, onRejected: (Throwable) -> Unit) {
+        if (limiter == null) {
+            started(queuedAt)
+            onReady()
+            return
+        }
+        limiter.acquireAsync(
+            timeoutNanos = queueTimeoutNanos(limiter),
+            onPermit = {
+                started(queuedAt)
+                onReady()
+            },
+            onRejected = { e ->
+                breaker?.release(permit)
+                onRejected(deadline?.failure(e) ?: e)
+            },
+        )
+    }
+
+    /**
+     * 创建本次尝试的 Call, 配置了对冲时为一组对冲请求
+     * 配置了超时或总时限时以两者中较短的一个设置 Call.timeout(), 覆盖客户端的 callTimeout
+     */
+    fun newCall(okHttpClient: OkHttpClient, request: Request): Call {
+        val call = hedging?.newCall(okHttpClient, request) ?: okHttpClient.newCall(request)
+        val remaining = deadline?.remainingNanos()
+        val nanos = when {
+            remaining == null -> timeoutNanos
+            timeoutNanos == null -> remaining
+            else -> minOf(remaining, timeoutNanos)
+        }
+        if (nanos != null) {
+            call.timeout().timeout(maxOf(1L, nanos), TimeUnit.NANOSECONDS)
+        }
+        return call
+    }
+
+    /**
+     * 交给处理器的响应, 配置了总时限时响应体的读取与解析受时限约束
+     */
+    fun bind(response: Response): Response = deadline?.bind(response) ?: response
+
+    /**
+     * 最终交给 exceptionHandler 的异常, 到期后发生的异常转换为 [DeadlineExceededException]
+     */
+    fun failure(error: Throwable): Throwable = deadline?.failure(error) ?: error
+
+    private fun started(queuedAt: Long) {
+        startedAt = System.nanoTime()
+        easyCall?.record(EasyCall.Phase.QUEUEING, startedAt - queuedAt)
+        easyCall?.attempted()
+    }
+
+    private fun acquireBreaker() {
+        if (breaker != null) {
+            permit = breaker.acquire()
+        }
+    }
+
+    /**
+     * 预订令牌, 剩余时间不足以等到令牌时退还并以 [DeadlineExceededException] 失败
+     */
+    private fun reserveTokens(): Long {
+        if (rateLimit == null || buckets.isEmpty()) {
+            return 0
+        }
+        val reservations = rateLimit.reserve(buckets)
+        val wait = reservations.maxOf { it.waitNanos }
+        if (deadline != null && wait >= deadline.remainingNanos()) {
+            reservations.forEach { it.refund() }
+            throw deadline.exceeded()
+        }
+        return wait
+    }
+
+    private fun queueTimeoutNanos(limiter: ConcurrencyLimiter): Long {
+        val queueTimeout = limiter.policy.queueTimeout.toNanos()
+        return if (deadline == null) queueTimeout else minOf(queueTimeout, maxOf(0L, deadline.remainingNanos()))
+    }
+
+    /**
+     * 剩余时间不足以退避时放弃重试
+     */
+    private fun withinDeadline(delayMillis: Long?): Long? =
+        delayMillis?.takeIf { deadline == null || TimeUnit.MILLISECONDS.toNanos(it) < deadline.remainingNanos() }
+
+    /**
+     * 需要重试时返回退避毫秒数, 调用方负责关闭响应; 否则返回 null, 响应照常交给处理器
+     */
+    fun afterResponse(response: Response): Long? {
+        val elapsed = System.nanoTime() - startedAt
+        easyCall?.record(EasyCall.Phase.NETWORK, elapsed)
+        limiter?.release(elapsed, response.code in limiter.policy.dropStatuses)
+        breaker?.onResult(permit, response.code in breaker.policy.failureStatuses, elapsed)
+        rateLimit?.onResponse(buckets, response)
+        return withinDeadline(retry?.onResponse(response))
+    }
+
+    /**
+     * 需要重试时返回退避毫秒数, 否则返回 null
+     * @param canceled 主动取消的请求不计入熔断统计, 也不重试
+     * 请求体序列化失败 ([JsonProcessingException]) 与取消一样处理: 主机没有问题, 重试也只会再次失败
+     */
+    fun afterException(error: Throwable, canceled: Boolean): Long? {
+        if (canceled || generateSequence(error) { it.cause }.any { it is JsonProcessingException }) {
+            abandon()
+            return null
+        }
+        easyCall?.record(EasyCall.Phase.NETWORK, System.nanoTime() - startedAt)
+        val elapsed = System.nanoTime() - startedAt
+        limiter?.release(elapsed, true)
+        breaker?.onResult(permit, true, elapsed)
+        return withinDeadline(retry?.onException(error))
+    }
+
+    /**
+     * 本次尝试没有结果就结束 (主动取消、请求体序列化失败, 或拦截器等抛出了非 IOException 的异常): 归还许可, 不计入统计, 也不重试
+     */
+    fun abandon() {
+        easyCall?.record(EasyCall.Phase.NETWORK, System.nanoTime() - startedAt)
+        limiter?.release()
+        breaker?.release(permit)
+    }
+}
@@ -0,0 +1,287 @@
+package io.github.lookoutldz.easyrequester.common
+
+import java.time.Duration
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.logging.Level
+import java.util.logging.Logger
+
+/**
+ * 熔断策略, 按主机 (host:port) 维护熔断器, 下游故障时快速失败, 不再让每个请求都等满连接/读取超时
+ *  - CLOSED: 在最近 windowSize 次调用的滑动窗口中统计失败率与慢调用率, 调用数不少于 minimumCalls 且任一比例达到阈值时打开
+ *  - OPEN: 直接以 [CircuitBreakerOpenException] 失败, 该异常交给 exceptionHandler; openDuration 之后转为半开
+ *  - HALF_OPEN: 只放行 halfOpenCalls 个探测请求, 全部完成后按同样的阈值决定关闭或重新打开
+ * 状态变化以 [CircuitBreakerEvent] 通知 listeners, 监听器抛出的异常以 java.util.logging (WARNING) 连同堆栈记录
+ * 熔断器按策略与主机登记且不会移除; listeners 按实例比较, 请只构建一次策略并复用, 见 [breakerFor]
+ * @author looko
+ * @date 2025/7/2
+ */
+data class CircuitBreakerPolicy(
+    val failureRateThreshold: Double = 0.5,
+    val slowCallRateThreshold: Double = 1.0,
+    /**
+     * 从发起请求到收到响应头的耗时超过该值即为慢调用
+     */
+    val slowCallDuration: Duration = Duration.ofSeconds(5),
+    val windowSize: Int = 100,
+    val minimumCalls: Int = 20,
+    val openDuration: Duration = Duration.ofSeconds(30),
+    val halfOpenCalls: Int = 5,
+    /**
+     * 计为失败的响应状态码, 此外所有 IOException (主动取消除外) 都计为失败
+     */
+    val failureStatuses: Set<Int> = (500..599).toSet(),
+    val listeners: List<CircuitBreakerListener> = emptyList(),
+) {
+
+    init {
+        require(failureRateThreshold in 0.0..1.0 && slowCallRateThreshold in 0.0..1.0) { "Rate thresholds must be in [0, 1]" }
+        require(windowSize >= 1 && minimumCalls in 1..windowSize) { "minimumCalls must be in [1, windowSize]" }
+        require(halfOpenCalls >= 1) { "halfOpenCalls must be at least 1" }
+    }
+
+    companion object {
+        private val breakers = ConcurrentHashMap<Pair<CircuitBreakerPolicy, String>, CircuitBreaker>()
+
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    /**
+     * 获取主机的熔断器, 同一策略与主机始终返回同一实例
+     */
+    fun breakerFor(host: String, port: Int): CircuitBreaker =
+        breakers.computeIfAbsent(this to "$host:$port") { CircuitBreaker(this, host, port) }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var failureRateThreshold: Double = 0.5
+        private var slowCallRateThreshold: Double = 1.0
+        private var slowCallDuration: Duration = Duration.ofSeconds(5)
+        private var windowSize: Int = 100
+        private var minimumCalls: Int = 20
+        private var openDuration: Duration = Duration.ofSeconds(30)
+        private var halfOpenCalls: Int = 5
+        private var failureStatuses: Set<Int> = (500..599).toSet()
+        private val listeners = mutableListOf<CircuitBreakerListener>()
+
+        fun setFailureRateThreshold(threshold: Double): Builder = apply { this.failureRateThreshold = threshold }
+        fun setSlowCallRateThreshold(threshold: Double): Builder = apply { this.slowCallRateThreshold = threshold }
+        fun setSlowCallDuration(duration: Duration): Builder = apply { this.slowCallDuration = duration }
+        fun setWindowSize(windowSize: Int): Builder = apply { this.windowSize = windowSize }
+        fun setMinimumCalls(minimumCalls: Int): Builder = apply { this.minimumCalls = minimumCalls }
+        fun setOpenDuration(duration: Duration): Builder = apply { this.openDuration = duration }
+        fun setHalfOpenCalls(halfOpenCalls: Int): Builder = apply { this.halfOpenCalls = halfOpenCalls }
+        fun setFailureStatuses(vararg statuses: Int): Builder = apply { this.failureStatuses = statuses.toSet() }
+        fun addListener(listener: CircuitBreakerListener): Builder = apply { this.listeners += listener }
+
+        fun build() = CircuitBreakerPolicy(
+            failureRateThreshold = failureRateThreshold,
+            slowCallRateThreshold = slowCallRateThreshold,
+            slowCallDuration = slowCallDuration,
+            windowSize = windowSize,
+            minimumCalls = minimumCalls,
+            openDuration = openDuration,
+            halfOpenCalls = halfOpenCalls,
+            failureStatuses = failureStatuses,
+            listeners = listeners.toList(),
+        )
+    }
+}
+
+/**
+ * 单个主机的熔断器, 由 [CircuitBreakerPolicy.breakerFor] 获取
+ */
+class CircuitBreaker internal constructor(
+    val policy: CircuitBreakerPolicy,
+    val host: String,
+    val port: Int,
+) {
+
+    enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    private companion object {
+        private val logger = Logger.getLogger(CircuitBreaker::class.java.name)
+    }
+
+    /**
+     * 滑动窗口, 每次调用占一个字节: bit0 失败, bit1 慢调用
+     */
+    private val outcomes = ByteArray(policy.windowSize)
+    private var next = 0
+    private var calls = 0
+    private var failures = 0
+    private var slowCalls = 0
+
+    private var halfOpenPermits = 0
+    private var halfOpenCalls = 0
+    private var halfOpenFailures = 0
+    private var halfOpenSlowCalls = 0
+
+    private var openedAt = 0L
+    /**
+     * 每次状态变化加一, 状态变化之前放行的调用结果不再计入
+     */
+    private var generation = 0
+
+    @Volatile
+    var state: State = State.CLOSED
+        private set
+
+    val failureRate: Double
+        @Synchronized get() = if (calls == 0) 0.0 else failures.toDouble() / calls
+
+    val slowCallRate: Double
+        @Synchronized get() = if (calls == 0) 0.0 else slowCalls.toDouble() / calls
+
+    /**
+     * 申请发起一次调用, 返回的许可在调用结束时交给 [onResult] 或 [release]
+     * @throws CircuitBreakerOpenException 熔断器打开, 或半开状态下探测请求已满
+     */
+    internal fun acquire(): Int {
+        var event: CircuitBreakerEvent? = null
+        val permit = synchronized(this) {
+            if (state == State.OPEN && System.nanoTime() - openedAt >= policy.openDuration.toNanos()) {
+                event = transition(State.HALF_OPEN)
+            }
+            when (state) {
+                State.CLOSED -> generation
+                State.OPEN -> null
+                State.HALF_OPEN -> if (halfOpenPermits < policy.halfOpenCalls) {
+                    halfOpenPermits++
+                    generation
+                } else null
+            }
+        }
+        event?.let { publish(it) }
+        return permit ?: throw CircuitBreakerOpenException(host, port, state)
+    }
+
+    /**
+     * 记录调用结果
+     * @param durationNanos 从发起请求到收到响应头 (或失败) 的耗时
+     */
+    internal fun onResult(permit: Int, failed: Boolean, durationNanos: Long) {
+        val slow = durationNanos >= policy.slowCallDuration.toNanos()
+        val event = synchronized(this) {
+            if (permit != generation) {
+                return
+            }
+            when (state) {
+                State.CLOSED -> {
+                    record(failed, slow)
+                    if (calls >= policy.minimumCalls && exceeded(failures, slowCalls, calls)) transition(State.OPEN) else null
+                }
+                State.HALF_OPEN -> {
+                    halfOpenCalls++
+                    if (failed) halfOpenFailures++
+                    if (slow) halfOpenSlowCalls++
+                    if (halfOpenCalls < policy.halfOpenCalls) {
+                        null
+                    } else if (exceeded(halfOpenFailures, halfOpenSlowCalls, halfOpenCalls)) {
+                        transition(State.OPEN)
+                    } else {
+                        transition(State.CLOSED)
+                    }
+                }
+                State.OPEN -> null
+            }
+        }
+        event?.let { publish(it) }
+    }
+
+    /**
+     * 调用被取消, 归还半开状态下的探测名额, 不计入统计
+     */
+    @Synchronized
+    internal fun release(permit: Int) {
+        if (permit == generation && state == State.HALF_OPEN) {
+            halfOpenPermits--
+        }
+    }
+
+    private fun exceeded(failed: Int, slow: Int, total: Int): Boolean =
+        failed >= policy.failureRateThreshold * total || slow >= policy.slowCallRateThreshold * total
+
+    private fun record(failed: Boolean, slow: Boolean) {
+        if (calls == outcomes.size) {
+            val old = outcomes[next].toInt()
+            failures -= old and 1
+            slowCalls -= (old shr 1) and 1
+        } else {
+            calls++
+        }
+        outcomes[next] = ((if (failed) 1 else 0) or (if (slow) 2 else 0)).toByte()
+        next = (next + 1) % outcomes.size
+        if (failed) failures++
+        if (slow) slowCalls++
+    }
+
+    /**
+     * 在锁内切换状态并重置统计, 返回的事件在锁外发布
+     */
+    private fun transition(to: State): CircuitBreakerEvent {
+        val event = if (state == State.HALF_OPEN && halfOpenCalls > 0) {
+            CircuitBreakerEvent(host, port, state, to, halfOpenFailures.toDouble() / halfOpenCalls, halfOpenSlowCalls.toDouble() / halfOpenCalls, Instant.now())
+        } else {
+            CircuitBreakerEvent(host, port, state, to, failureRate, slowCallRate, Instant.now())
+        }
+        state = to
+        generation++
+        halfOpenPermits = 0
+        halfOpenCalls = 0
+        halfOpenFailures = 0
+        halfOpenSlowCalls = 0
+        if (to == State.OPEN) {
+            openedAt = System.nanoTime()
+        }
+        if (to == State.CLOSED) {
+            next = 0
+            calls = 0
+            failures = 0
+            slowCalls = 0
+        }
+        return event
+    }
+
+    private fun publish(event: CircuitBreakerEvent) {
+        policy.listeners.forEach { listener ->
+            try {
+                listener.onStateTransition(event)
+            } catch (e: Exception) {
+                // 监听器的异常不影响熔断器本身与触发状态变化的请求, 记录后继续通知其余监听器
+                logger.log(Level.WARNING, e) { "Circuit breaker listener failed on $event" }
+            }
+        }
+    }
+
+    override fun toString(): String = "CircuitBreaker($host:$port, $state)"
+}
+
+/**
+ * 熔断器状态变化事件, failureRate / slowCallRate 为变化前滑动窗口 (半开状态下为探测请求) 中的比例
+ */
+data class CircuitBreakerEvent(
+    val host: String,
+    val port: Int,
+    val from: CircuitBreaker.State,
+    val to: CircuitBreaker.State,
+    val failureRate: Double,
+    val slowCallRate: Double,
+    val time: Instant,
+)
+
+fun interface CircuitBreakerListener {
+    fun onStateTransition(event: CircuitBreakerEvent)
+}
+
+/**
+ * 熔断器处于 OPEN, 或 HALF_OPEN 的探测名额已用完, 请求没有发出
+ */
+class CircuitBreakerOpenException(
+    val host: String,
+    val port: Int,
+    val state: CircuitBreaker.State,
+) : RuntimeException("Circuit breaker for $host:$port is $state, call not permitted", null, false, false)
@@ -0,0 +1,81 @@
+package io.github.lookoutldz.easyrequester.common
+
+import okhttp3.Interceptor
+import java.net.Proxy
+import java.time.Duration
+
+/**
+ * 客户端配置画像, 作为 [EasyHttpClients] 的缓存键
+ * 相同画像的请求共用同一个派生客户端, 所有派生客户端共用同一个连接池和调度器
+ * 注意: 拦截器按实例比较, 请复用同一个拦截器实例, 否则每次都会派生出新的客户端
+ * @author looko
+ * @date 2025/6/20
+ */
+data class ClientProfile(
+    val connectTimeout: Duration? = null,
+    val readTimeout: Duration? = null,
+    val writeTimeout: Duration? = null,
+    val callTimeout: Duration? = null,
+    val proxy: Proxy? = null,
+    val interceptors: List<Interceptor> = emptyList(),
+    val networkInterceptors: List<Interceptor> = emptyList(),
+    /**
+     * 虚拟线程模式: 使用以虚拟线程执行任务的共享调度器, 见 [EasyHttpClients.virtualThreadDispatcher]
+     * 异步请求由该调度器在虚拟线程上执行; 同步 execute() 也转到调度器背后的虚拟线程执行器上运行
+     */
+    val virtualThreads: Boolean = false,
+    /**
+     * 磁盘 HTTP 缓存, 见 [DiskCacheProfile]
+     */
+    val diskCache: DiskCacheProfile? = null,
+    /**
+     * 堆外响应体缓存, 见 [OffHeapCachePolicy]
+     */
+    val offHeapCache: OffHeapCachePolicy? = null,
+) {
+
+    companion object {
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var connectTimeout: Duration? = null
+        private var readTimeout: Duration? = null
+        private var writeTimeout: Duration? = null
+        private var callTimeout: Duration? = null
+        private var proxy: Proxy? = null
+        private val interceptors = mutableListOf<Interceptor>()
+        private val networkInterceptors = mutableListOf<Interceptor>()
+        private var virtualThreads: Boolean = false
+        private var diskCache: DiskCacheProfile? = null
+        private var offHeapCache: OffHeapCachePolicy? = null
+
+        fun setConnectTimeout(timeout: Duration?): Builder = apply { this.connectTimeout = timeout }
+        fun setReadTimeout(timeout: Duration?): Builder = apply { this.readTimeout = timeout }
+        fun setWriteTimeout(timeout: Duration?): Builder = apply { this.writeTimeout = timeout }
+        fun setCallTimeout(timeout: Duration?): Builder = apply { this.callTimeout = timeout }
+        fun setProxy(proxy: Proxy?): Builder = apply { this.proxy = proxy }
+        fun addInterceptor(interceptor: Interceptor): Builder = apply { this.interceptors += interceptor }
+        fun addNetworkInterceptor(interceptor: Interceptor): Builder = apply { this.networkInterceptors += interceptor }
+        fun setVirtualThreads(virtualThreads: Boolean): Builder = apply { this.virtualThreads = virtualThreads }
+        fun setDiskCache(diskCache: DiskCacheProfile?): Builder = apply { this.diskCache = diskCache }
+        fun setOffHeapCache(offHeapCache: OffHeapCachePolicy?): Builder = apply { this.offHeapCache = offHeapCache }
+
+        fun build() = ClientProfile(
+            connectTimeout = connectTimeout,
+            readTimeout = readTimeout,
+            writeTimeout = writeTimeout,
+            callTimeout = callTimeout,
+            proxy = proxy,
+            interceptors = interceptors.toList(),
+            networkInterceptors = networkInterceptors.toList(),
+            virtualThreads = virtualThreads,
+            diskCache = diskCache,
+            offHeapCache = offHeapCache,
+        )
+    }
+}
@@ -0,0 +1,278 @@
+package io.github.lookoutldz.easyrequester.common
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import kotlin.math.sqrt
+
+/**
+ * 自适应并发限制策略, 按主机 (host:port) 根据观测到的延迟调整允许同时在途的请求数
+ * OkHttp 的 Dispatcher 只有静态的 maxRequests/maxRequestsPerHost, 且同步 execute() 完全不受其限制;
+ * 该限制在 newCall 之前生效, 同步、异步与挂起执行都受约束
+ *  - AIMD: 失败 (I/O 异常、dropStatuses) 或延迟超过 latencyThreshold 时乘以 backoffRatio, 否则在接近上限时加一
+ *  - GRADIENT: 比较长期平均延迟与本次延迟, 延迟上升时按比例收缩, 平稳时以 sqrt(limit) 的余量缓慢增长
+ * 超出限制的请求最多排队 maxQueue 个, 等待超过 queueTimeout 或队列已满时以 [ConcurrencyLimitExceededException] 失败
+ * 限制器保存在进程级的表中, 以策略与主机为键, 见 [limiterFor]
+ * @author looko
+ * @date 2025/7/3
+ */
+data class ConcurrencyLimitPolicy(
+    val algorithm: Algorithm = Algorithm.GRADIENT,
+    val initialLimit: Int = 20,
+    val minLimit: Int = 1,
+    val maxLimit: Int = 200,
+    val maxQueue: Int = 100,
+    val queueTimeout: Duration = Duration.ofSeconds(1),
+    /**
+     * 计为拥塞信号的响应状态码
+     */
+    val dropStatuses: Set<Int> = setOf(429, 503),
+    /**
+     * AIMD: 收缩比例
+     */
+    val backoffRatio: Double = 0.9,
+    /**
+     * AIMD: 延迟超过该值视为拥塞
+     */
+    val latencyThreshold: Duration = Duration.ofSeconds(2),
+    /**
+     * GRADIENT: 允许延迟高出长期平均的倍数
+     */
+    val tolerance: Double = 1.5,
+    /**
+     * GRADIENT: 每次调整的平滑系数
+     */
+    val smoothing: Double = 0.2,
+    /**
+     * GRADIENT: 长期平均延迟的样本窗口
+     */
+    val longWindow: Int = 600,
+) {
+
+    enum class Algorithm { AIMD, GRADIENT }
+
+    init {
+        require(minLimit in 1..maxLimit && initialLimit in minLimit..maxLimit) { "Invalid limits: $minLimit <= $initialLimit <= $maxLimit" }
+        require(maxQueue >= 0) { "maxQueue must not be negative" }
+        require(backoffRatio > 0 && backoffRatio < 1) { "backoffRatio must be in (0, 1)" }
+        require(smoothing > 0 && smoothing <= 1 && tolerance >= 1 && longWindow >= 1) { "Invalid gradient parameters" }
+    }
+
+    companion object {
+        private val limiters = ConcurrentHashMap<Pair<ConcurrencyLimitPolicy, String>, ConcurrencyLimiter>()
+
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    /**
+     * 获取主机的限制器, 同一策略与主机始终返回同一实例; 限制器不会移除, 每个请求构建不同配置的策略会不断新增限制器
+     */
+    fun limiterFor(host: String, port: Int): ConcurrencyLimiter =
+        limiters.computeIfAbsent(this to "$host:$port") { ConcurrencyLimiter(this, host, port) }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var policy = ConcurrencyLimitPolicy()
+
+        fun setAlgorithm(algorithm: Algorithm): Builder = apply { policy = policy.copy(algorithm = algorithm) }
+        fun setInitialLimit(limit: Int): Builder = apply { policy = policy.copy(initialLimit = limit) }
+        fun setMinLimit(limit: Int): Builder = apply { policy = policy.copy(minLimit = limit) }
+        fun setMaxLimit(limit: Int): Builder = apply { policy = policy.copy(maxLimit = limit) }
+        fun setMaxQueue(maxQueue: Int): Builder = apply { policy = policy.copy(maxQueue = maxQueue) }
+        fun setQueueTimeout(timeout: Duration): Builder = apply { policy = policy.copy(queueTimeout = timeout) }
+        fun setDropStatuses(vararg statuses: Int): Builder = apply { policy = policy.copy(dropStatuses = statuses.toSet()) }
+        fun setBackoffRatio(ratio: Double): Builder = apply { policy = policy.copy(backoffRatio = ratio) }
+        fun setLatencyThreshold(threshold: Duration): Builder = apply { policy = policy.copy(latencyThreshold = threshold) }
+        fun setTolerance(tolerance: Double): Builder = apply { policy = policy.copy(tolerance = tolerance) }
+        fun setSmoothing(smoothing: Double): Builder = apply { policy = policy.copy(smoothing = smoothing) }
+        fun setLongWindow(window: Int): Builder = apply { policy = policy.copy(longWindow = window) }
+
+        fun build(): ConcurrencyLimitPolicy = policy
+    }
+}
+
+/**
+ * 单个主机的并发限制器, 由 [ConcurrencyLimitPolicy.limiterFor] 获取
+ */
+class ConcurrencyLimiter internal constructor(
+    val policy: ConcurrencyLimitPolicy,
+    val host: String,
+    val port: Int,
+) {
+
+    private var estimatedLimit = policy.initialLimit.toDouble()
+    private var longRttNanos = 0.0
+    private var samples = 0
+
+    private var inFlightCount = 0
+    private val waiters = ArrayDeque<CompletableFuture<Unit>>()
+
+    /**
+     * 当前允许同时在途的请求数
+     */
+    val limit: Int
+        @Synchronized get() = estimatedLimit.toInt()
+
+    val inFlight: Int
+        @Synchronized get() = inFlightCount
+
+    val queued: Int
+        @Synchronized get() = waiters.size
+
+    /**
+     * 阻塞获取许可, 供同步执行使用
+     * @param timeoutNanos 最长排队时间, 默认为 queueTimeout, 配置了请求总时限时不超过剩余时间
+     * @throws ConcurrencyLimitExceededException 队列已满或等待超时
+     */
+    internal fun acquire(timeoutNanos: Long = policy.queueTimeout.toNanos()) {
+        val waiter = tryAcquireOrEnqueue() ?: return
+        try {
+            waiter.get(timeoutNanos, TimeUnit.NANOSECONDS)
+        } catch (e: TimeoutException) {
+            abandon(waiter)
+            throw rejected()
+        } catch (e: InterruptedException) {
+            abandon(waiter)
+            throw e
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        }
+    }
+
+    /**
+     * 非阻塞获取许可, 供异步执行使用: 取得许可后在释放许可的线程上调用 onPermit, 失败时调用 onRejected
+     */
+    internal fun acquireAsync(
+        timeoutNanos: Long = policy.queueTimeout.toNanos(),
+        onPermit: () -> Unit,
+        onRejected: (Throwable) -> Unit,
+    ) {
+        val waiter = try {
+            tryAcquireOrEnqueue()
+        } catch (e: ConcurrencyLimitExceededException) {
+            onRejected(e)
+            return
+        }
+        if (waiter == null) {
+            onPermit()
+            return
+        }
+        CompletableFuture.delayedExecutor(timeoutNanos, TimeUnit.NANOSECONDS).execute {
+            if (waiter.completeExceptionally(rejected())) {
+                synchronized(this) { waiters.remove(waiter) }
+            }
+        }
+        waiter.whenComplete { _, error -> if (error == null) onPermit() else onRejected(error) }
+    }
+
+    /**
+     * 归还许可并以本次调用的结果调整限制
+     * @param rttNanos 从取得许可到收到响应头 (或失败) 的耗时
+     * @param dropped 是否为拥塞信号
+     */
+    internal fun release(rttNanos: Long, dropped: Boolean) {
+        synchronized(this) {
+            adjust(rttNanos, inFlightCount, dropped)
+            inFlightCount--
+        }
+        drain()
+    }
+
+    /**
+     * 归还许可, 不调整限制, 用于取消的调用
+     */
+    internal fun release() {
+        synchronized(this) { inFlightCount-- }
+        drain()
+    }
+
+    private fun tryAcquireOrEnqueue(): CompletableFuture<Unit>? = synchronized(this) {
+        if (inFlightCount < estimatedLimit.toInt() && waiters.isEmpty()) {
+            inFlightCount++
+            return null
+        }
+        if (waiters.size >= policy.maxQueue) {
+            throw rejected()
+        }
+        CompletableFuture<Unit>().also { waiters.addLast(it) }
+    }
+
+    /**
+     * 放弃排队; 若恰好在放弃的同时取得了许可, 则归还许可
+     */
+    private fun abandon(waiter: CompletableFuture<Unit>) {
+        if (waiter.completeExceptionally(rejected())) {
+            synchronized(this) { waiters.remove(waiter) }
+        } else {
+            release()
+        }
+    }
+
+    /**
+     * 有空闲许可时唤醒排队的请求, 在锁外完成 future, 避免在锁内发起请求
+     */
+    private fun drain() {
+        while (true) {
+            val waiter = synchronized(this) {
+                if (waiters.isEmpty() || inFlightCount >= estimatedLimit.toInt()) {
+                    return
+                }
+                inFlightCount++
+                waiters.removeFirst()
+            }
+            if (!waiter.complete(Unit)) {
+                // 已经超时放弃
+                synchronized(this) { inFlightCount-- }
+            }
+        }
+    }
+
+    private fun adjust(rttNanos: Long, inFlight: Int, dropped: Boolean) {
+        val limit = estimatedLimit
+        val next = when (policy.algorithm) {
+            ConcurrencyLimitPolicy.Algorithm.AIMD -> when {
+                dropped || rttNanos > policy.latencyThreshold.toNanos() -> limit * policy.backoffRatio
+                // 远低于上限时说明流量本身不足, 不据此放大
+                inFlight * 2 >= limit -> limit + 1
+                else -> limit
+            }
+            ConcurrencyLimitPolicy.Algorithm.GRADIENT -> gradient(limit, rttNanos.toDouble(), inFlight, dropped)
+        }
+        estimatedLimit = next.coerceIn(policy.minLimit.toDouble(), policy.maxLimit.toDouble())
+    }
+
+    private fun gradient(limit: Double, rtt: Double, inFlight: Int, dropped: Boolean): Double {
+        samples++
+        val window = minOf(samples, policy.longWindow)
+        longRttNanos = if (samples == 1) rtt else longRttNanos + (rtt - longRttNanos) / window
+        // 延迟长期偏高后 (例如后端扩容前), 让长期平均更快地回落
+        if (longRttNanos / rtt > 2) {
+            longRttNanos *= 0.95
+        }
+        if (!dropped && inFlight * 2 < limit) {
+            return limit
+        }
+        val gradient = if (dropped) 0.5 else (policy.tolerance * longRttNanos / rtt).coerceIn(0.5, 1.0)
+        val target = limit * gradient + sqrt(limit)
+        return limit * (1 - policy.smoothing) + target * policy.smoothing
+    }
+
+    private fun rejected() = ConcurrencyLimitExceededException(host, port, limit)
+
+    override fun toString(): String = "ConcurrencyLimiter($host:$port, limit=$limit, inFlight=$inFlight, queued=$queued)"
+}
+
+/**
+ * 在途请求已达 [limit] 且排队已满或等待超过 queueTimeout, 请求没有发出
+ */
+class ConcurrencyLimitExceededException(
+    val host: String,
+    val port: Int,
+    val limit: Int,
+) : RuntimeException("Concurrency limit $limit for $host:$port exceeded", null, false, false)
@@ -0,0 +1,116 @@
+package io.github.lookoutldz.easyrequester.common
+
+import okhttp3.MediaType
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okio.Buffer
+import okio.BufferedSource
+import okio.ForwardingSource
+import okio.buffer
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.time.Duration
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.ScheduledThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * 一次请求的总时限, 从开始执行时计时, 覆盖排队、等待令牌、各次尝试、重试退避与响应体解析:
+ *  - 每次尝试通过 Call.timeout() 设置剩余时间, 超时后 OkHttp 取消该请求
+ *  - 等待令牌、并发排队与重试退避不会超过剩余时间, 剩余时间不足以退避时不再重试, 以最后一次尝试的结果结束
+ *  - 交给处理器的响应体每次读取前检查时限, Jackson 解析到期时以 [DeadlineExceededException] 中断
+ *  - 异步执行到期时取消在途的 Call 并立即以 [DeadlineExceededException] 结束, 不再等待
+ * @author looko
+ * @date 2025/7/7
+ */
+internal class Deadline(val timeout: Duration) {
+
+    private val expiresAt = System.nanoTime() + timeout.toNanos()
+
+    fun remainingNanos(): Long = expiresAt - System.nanoTime()
+
+    val expired: Boolean
+        get() = remainingNanos() <= 0
+
+    /**
+     * @throws DeadlineExceededException 已经到期
+     */
+    fun check() {
+        if (expired) {
+            throw exceeded()
+        }
+    }
+
+    fun exceeded(cause: Throwable? = null) = DeadlineExceededException(timeout, cause)
+
+    /**
+     * 到期时在公共线程池上运行 task, 与 CompletableFuture.delayedExecutor 相同;
+     * 请求提前结束时应取消返回的 future, 任务随即从调度队列中移除, 不再持有已结束的请求
+     */
+    fun onExpiry(task: Runnable): ScheduledFuture<*> =
+        scheduler.schedule({ ForkJoinPool.commonPool().execute(task) }, maxOf(0L, remainingNanos()), TimeUnit.NANOSECONDS)
+
+    /**
+     * 到期后发生的异常 (例如 OkHttp 超时取消请求) 统一转换为 [DeadlineExceededException], 原异常作为 cause
+     */
+    fun failure(error: Throwable): Throwable =
+        if (error !is DeadlineExceededException && expired) exceeded(error) else error
+
+    /**
+     * 为交给处理器的响应套上受时限约束的响应体
+     */
+    fun bind(response: Response): Response {
+        val body = response.body ?: return response
+        return response.newBuilder().body(DeadlineBody(body, this)).build()
+    }
+
+    companion object {
+        /**
+         * 到期任务的调度线程, 只负责计时, 到期后转交公共线程池运行; 取消的任务立即移出队列
+         */
+        private val scheduler = ScheduledThreadPoolExecutor(1) { runnable ->
+            Thread(runnable, "easy-requester-deadline").apply { isDaemon = true }
+        }.apply { removeOnCancelPolicy = true }
+
+        /**
+         * OkHttp 的 Call.timeout() 到期时抛出的异常, 请求此时已被取消, 但不是调用方主动取消的
+         */
+        fun isCallTimeout(error: Throwable): Boolean = error is InterruptedIOException && error.message == "timeout"
+    }
+}
+
+/**
+ * 每次读取前检查时限, Jackson 按块读取, 因此解析耗时也受时限约束
+ */
+private class DeadlineBody(private val delegate: ResponseBody, private val deadline: Deadline) : ResponseBody() {
+
+    private val source: BufferedSource by lazy {
+        object : ForwardingSource(delegate.source()) {
+            override fun read(sink: Buffer, byteCount: Long): Long {
+                deadline.check()
+                return try {
+                    super.read(sink, byteCount)
+                } catch (e: IOException) {
+                    throw deadline.failure(e)
+                }
+            }
+        }.buffer()
+    }
+
+    override fun contentType(): MediaType? = delegate.contentType()
+
+    override fun contentLength(): Long = delegate.contentLength()
+
+    override fun source(): BufferedSource = source
+
+    override fun close() = delegate.close()
+}
+
+/**
+ * 请求超过了 setDeadline 设置的总时限, cause 为到期时正在进行的操作抛出的异常 (如果有)
+ */
+class DeadlineExceededException(
+    val deadline: Duration,
+    cause: Throwable? = null,
+) : RuntimeException("Deadline of ${deadline.toMillis()} ms exceeded", cause, false, false)
@@ -0,0 +1,134 @@
+package io.github.lookoutldz.easyrequester.common
+
+import okhttp3.Cache
+import okhttp3.Interceptor
+import okhttp3.Response
+import java.io.File
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 磁盘 HTTP 缓存画像, 通过 [ClientProfile.diskCache] 或 [EasyHttpClients.setDiskCache] 为客户端接入 OkHttp 的 Cache:
+ *  - 按 HTTP 缓存语义 (Cache-Control / Expires / ETag / Last-Modified) 缓存响应, 过期后由 OkHttp 自动发出条件请求
+ *  - 缓存写在 directory 下, 进程重启后仍然有效, 冷启动时不必重新向上游下载
+ *  - forcedRoutes 为路径前缀到缓存时间的映射, 按最长前缀匹配: 匹配的 GET 成功响应没有任何缓存相关的响应头时, 按给定时间缓存
+ * 同一目录只打开一个 Cache, 目录相同的画像共用它, 容量以先打开时的 maxSize 为准
+ * 与 [ResponseCachePolicy] 不同, 这里缓存的是响应字节, 命中后处理器照常读取与解析响应体
+ * @author looko
+ * @date 2025/7/10
+ */
+data class DiskCacheProfile(
+    val directory: File,
+    val maxSize: Long = 64L * 1024 * 1024,
+    /**
+     * 路径前缀 (例如 "/api/config") 到缓存时间的映射, 只对没有缓存响应头的响应生效
+     */
+    val forcedRoutes: Map<String, Duration> = emptyMap(),
+) {
+
+    init {
+        require(maxSize > 0) { "maxSize must be positive" }
+        require(forcedRoutes.keys.all { it.startsWith("/") }) { "Route prefixes must start with '/'" }
+        require(forcedRoutes.values.none { it.isNegative }) { "Forced max-age must not be negative" }
+    }
+
+    companion object {
+        private val caches = ConcurrentHashMap<File, Cache>()
+
+        @JvmStatic
+        fun builder(directory: File) = Builder(directory)
+    }
+
+    private val canonicalDirectory = directory.absoluteFile.normalize()
+
+    /**
+     * 强制缓存指定路由的网络拦截器, 没有配置路由时为 null
+     */
+    internal val forcingInterceptor: Interceptor? = if (forcedRoutes.isEmpty()) null else ForcedCacheInterceptor(forcedRoutes)
+
+    /**
+     * 该目录的 OkHttp Cache, 首次使用时打开
+     */
+    fun cache(): Cache = caches.computeIfAbsent(canonicalDirectory) { Cache(it, maxSize) }
+
+    /**
+     * 进程内累计的统计, 重新打开缓存后从 0 开始
+     */
+    fun stats(): DiskCacheStats {
+        val cache = cache()
+        val requests = cache.requestCount()
+        val network = cache.networkCount()
+        val hits = cache.hitCount()
+        // OkHttp 把条件请求得到 304 同时计入 networkCount 与 hitCount
+        val conditionalHits = (hits + network - requests).coerceAtLeast(0)
+        return DiskCacheStats(
+            requests = requests,
+            hits = hits - conditionalHits,
+            conditionalHits = conditionalHits,
+            misses = network - conditionalHits,
+            size = runCatching { cache.size() }.getOrDefault(-1L),
+            maxSize = cache.maxSize(),
+        )
+    }
+
+    /**
+     * 关闭缓存并释放文件句柄, 之后再使用该目录时重新打开
+     * 使用该缓存的派生客户端随之丢弃, 共享客户端不再使用磁盘缓存; 已经构建的请求仍然引用旧的客户端, 请只在停止使用前调用
+     */
+    fun close() {
+        EasyHttpClients.forgetDiskCache(this)
+        caches.remove(canonicalDirectory)?.close()
+    }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder(private val directory: File) {
+        private var maxSize: Long = 64L * 1024 * 1024
+        private val forcedRoutes = mutableMapOf<String, Duration>()
+
+        fun setMaxSize(maxSize: Long): Builder = apply { this.maxSize = maxSize }
+        fun forceCache(pathPrefix: String, maxAge: Duration): Builder = apply { this.forcedRoutes[pathPrefix] = maxAge }
+
+        fun build() = DiskCacheProfile(directory = directory, maxSize = maxSize, forcedRoutes = forcedRoutes.toMap())
+    }
+}
+
+/**
+ * 磁盘缓存的统计
+ * @param requests 经过缓存的请求数
+ * @param hits 直接由缓存响应、没有发出请求的次数
+ * @param conditionalHits 条件请求得到 304 而使用缓存的次数
+ * @param misses 从网络得到完整响应的次数, 包括不可缓存的请求
+ * @param size 缓存当前占用的字节数, 读取失败时为 -1
+ */
+data class DiskCacheStats(
+    val requests: Int,
+    val hits: Int,
+    val conditionalHits: Int,
+    val misses: Int,
+    val size: Long,
+    val maxSize: Long,
+)
+
+/**
+ * 网络拦截器: 为匹配路由的 GET 成功响应补上 Cache-Control: max-age, 使 OkHttp 的 Cache 写入它们
+ * 响应已经带有 Cache-Control / Expires / Pragma 时以服务端为准
+ */
+private class ForcedCacheInterceptor(routes: Map<String, Duration>) : Interceptor {
+
+    private val routesByLength = routes.entries.sortedByDescending { it.key.length }
+
+    override fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        val response = chain.proceed(request)
+        if (request.method != "GET" || !response.isSuccessful) {
+            return response
+        }
+        val maxAge = routesByLength.firstOrNull { request.url.encodedPath.startsWith(it.key) }?.value ?: return response
+        if (response.header("Cache-Control") != null || response.header("Expires") != null || response.header("Pragma") != null) {
+            return response
+        }
+        return response.newBuilder().header("Cache-Control", "max-age=${maxAge.seconds}").build()
+    }
+}
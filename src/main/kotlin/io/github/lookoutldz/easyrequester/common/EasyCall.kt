@@ -0,0 +1,110 @@
+package io.github.lookoutldz.easyrequester.common
+
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 一次请求的句柄, 由 execute() / executeAsync() 返回
+ * 本身是以 onSuccess 收到的结果完成的 future, 语义与原先 executeAsync() 返回的 future 相同, 另外提供:
+ *  - [cancel]: 取消在途的 Call 与尚未开始的重试, 释放连接、并发许可与线程; 之后不再回调处理器
+ *  - [elapsed]: 各阶段的耗时, 用于判断时间花在了哪里 (排队、网络、退避还是处理)
+ * 句柄只由请求自身完成: complete / completeExceptionally / obtrude* 会抛出 UnsupportedOperationException,
+ * orTimeout / completeOnTimeout 作用于句柄的副本, 不会改写请求的结果
+ * 同步执行返回时请求已经结束, 句柄只用于读取结果与耗时; 需要中途取消的请求请使用 executeAsync()
+ * @author looko
+ * @date 2025/7/8
+ */
+class EasyCall<T> internal constructor() : CompletableFuture<T?>() {
+
+    /**
+     * 请求的执行阶段, 多次尝试时各阶段的耗时累加
+     */
+    enum class Phase {
+        /**
+         * 发出请求前的等待: 熔断器、限流令牌、并发许可, 以及等待合并请求的 leader
+         */
+        QUEUEING,
+        /**
+         * 从发出请求到收到响应头或失败
+         */
+        NETWORK,
+        /**
+         * 重试前的退避
+         */
+        BACKOFF,
+        /**
+         * 运行处理器, 包括读取与解析响应体
+         */
+        PROCESSING,
+    }
+
+    private val startedAt = System.nanoTime()
+    private val phaseNanos = AtomicLongArray(Phase.entries.size)
+    private val attemptCount = AtomicInteger()
+
+    @Volatile
+    private var finishedAt = 0L
+
+    init {
+        whenComplete { _, _ -> finishedAt = System.nanoTime() }
+    }
+
+    /**
+     * 取消请求, 已经结束时返回 false; 同步 execute() 返回的句柄总是已经结束, 调用无效
+     */
+    fun cancel(): Boolean = cancel(true)
+
+    /**
+     * 某个阶段累计的耗时
+     */
+    fun elapsed(phase: Phase): Duration = Duration.ofNanos(phaseNanos[phase.ordinal])
+
+    /**
+     * 从开始执行到结束的总耗时, 尚未结束时为到目前为止的耗时
+     */
+    val elapsed: Duration
+        get() = Duration.ofNanos((finishedAt.takeIf { it != 0L } ?: System.nanoTime()) - startedAt)
+
+    /**
+     * 实际发出请求的次数, 合并请求的等待者为 0
+     */
+    val attempts: Int
+        get() = attemptCount.get()
+
+    internal fun record(phase: Phase, nanos: Long) {
+        if (nanos > 0) {
+            phaseNanos.addAndGet(phase.ordinal, nanos)
+        }
+    }
+
+    internal fun attempted() {
+        attemptCount.incrementAndGet()
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    internal fun completeWith(result: Any?): Boolean = super.complete(result as T?)
+
+    internal fun failWith(error: Throwable): Boolean = super.completeExceptionally(error)
+
+    override fun complete(value: T?): Boolean = throw readOnly()
+
+    override fun completeExceptionally(ex: Throwable): Boolean = throw readOnly()
+
+    override fun obtrudeValue(value: T?): Unit = throw readOnly()
+
+    override fun obtrudeException(ex: Throwable): Unit = throw readOnly()
+
+    override fun orTimeout(timeout: Long, unit: TimeUnit): CompletableFuture<T?> = copy().orTimeout(timeout, unit)
+
+    override fun completeOnTimeout(value: T?, timeout: Long, unit: TimeUnit): CompletableFuture<T?> =
+        copy().completeOnTimeout(value, timeout, unit)
+
+    private fun readOnly() = UnsupportedOperationException("EasyCall is completed by the request itself")
+
+    override fun toString(): String =
+        "EasyCall(done=$isDone, elapsed=${elapsed.toMillis()} ms, attempts=$attempts, " +
+            Phase.entries.joinToString { "${it.name.lowercase()}=${elapsed(it).toMillis()} ms" } + ")"
+}
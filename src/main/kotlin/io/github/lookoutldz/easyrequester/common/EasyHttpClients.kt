@@ -0,0 +1,176 @@
+package io.github.lookoutldz.easyrequester.common
+
+import okhttp3.Dispatcher
+import okhttp3.OkHttpClient
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * 进程级的 OkHttpClient 注册表, Kotlin 与 Java 两套请求器共用
+ * 未指定 OkHttpClient 时统一使用这里的共享客户端, 避免每次请求都新建连接池/调度器/线程池,
+ * 保证 keep-alive 连接可以被复用
+ * 不同的超时/代理/拦截器需求通过 [ClientProfile] 用 newBuilder() 从共享客户端派生, 派生结果按画像缓存;
+ * Builder 同时指定了客户端与画像时, 派生结果按 (客户端实例, 画像) 缓存
+ * @author looko
+ * @date 2025/6/20
+ */
+object EasyHttpClients {
+
+    @Volatile
+    private var sharedClient: OkHttpClient? = null
+
+    private val profileClients = ConcurrentHashMap<ClientProfile, OkHttpClient>()
+
+    /**
+     * 用户指定的客户端按画像派生的结果, 以客户端实例为弱键, 用户丢弃客户端后一并回收
+     * 派生出的客户端不引用原客户端实例, 不会使弱键失效
+     */
+    private val derivedClients = WeakHashMap<OkHttpClient, MutableMap<ClientProfile, OkHttpClient>>()
+
+    /**
+     * 共享客户端当前使用的磁盘缓存
+     */
+    @Volatile
+    private var sharedDiskCache: DiskCacheProfile? = null
+
+    /**
+     * 虚拟线程调度器, 每个异步请求在独立的虚拟线程上执行
+     * 虚拟线程足够廉价, 因此放开 OkHttp 默认的 64 / 每主机 5 的并发上限, 由调用方自行控制并发
+     */
+    private val virtualThreadDispatcherLazy = lazy {
+        Dispatcher(Executors.newVirtualThreadPerTaskExecutor()).apply {
+            maxRequests = Int.MAX_VALUE
+            maxRequestsPerHost = Int.MAX_VALUE
+        }
+    }
+
+    private val virtualThreadDispatcher by virtualThreadDispatcherLazy
+
+    /**
+     * 获取共享客户端
+     */
+    @JvmStatic
+    fun shared(): OkHttpClient {
+        return sharedClient ?: synchronized(this) {
+            sharedClient ?: OkHttpClient().also { sharedClient = it }
+        }
+    }
+
+    /**
+     * 替换共享客户端, 例如需要调整连接池大小时
+     * 已派生的客户端会被丢弃, 之后按新的共享客户端重新派生
+     */
+    @JvmStatic
+    fun setShared(okHttpClient: OkHttpClient) {
+        synchronized(this) {
+            sharedClient = okHttpClient
+            sharedDiskCache = null
+            profileClients.clear()
+        }
+    }
+
+    /**
+     * 为共享客户端启用磁盘 HTTP 缓存, 未指定客户端的请求 (包括 doRequest* 系列方法) 都会使用它; 为 null 时停用
+     * 与 [setShared] 相同, 已派生的客户端会被丢弃
+     */
+    @JvmStatic
+    fun setDiskCache(diskCache: DiskCacheProfile?) {
+        synchronized(this) {
+            val builder = shared().newBuilder().cache(diskCache?.cache())
+            sharedDiskCache?.forcingInterceptor?.let { builder.networkInterceptors().remove(it) }
+            diskCache?.forcingInterceptor?.let { builder.addNetworkInterceptor(it) }
+            setShared(builder.build())
+            sharedDiskCache = diskCache
+        }
+    }
+
+    /**
+     * 获取指定画像的客户端, 同一画像始终返回同一实例
+     */
+    @JvmStatic
+    fun get(profile: ClientProfile?): OkHttpClient {
+        if (profile == null) {
+            return shared()
+        }
+        return profileClients.computeIfAbsent(profile) { derive(shared(), it) }
+    }
+
+    /**
+     * 获取共享的虚拟线程调度器, 所有开启虚拟线程模式的客户端共用
+     */
+    @JvmStatic
+    fun virtualThreadDispatcher(): Dispatcher = virtualThreadDispatcher
+
+    /**
+     * 客户端开启了虚拟线程模式时返回调度器背后的虚拟线程执行器, 供同步执行使用; 否则返回 null
+     * 调度器尚未创建时不会为此创建
+     */
+    internal fun virtualThreadExecutor(okHttpClient: OkHttpClient): ExecutorService? {
+        if (!virtualThreadDispatcherLazy.isInitialized()) return null
+        return virtualThreadDispatcher.takeIf { okHttpClient.dispatcher === it }?.executorService
+    }
+
+    /**
+     * 在给定客户端的基础上应用画像, 派生出的客户端与原客户端共用连接池和调度器
+     * 该方法不做缓存
+     */
+    @JvmStatic
+    fun derive(okHttpClient: OkHttpClient, profile: ClientProfile): OkHttpClient {
+        val builder = okHttpClient.newBuilder()
+        profile.connectTimeout?.let { builder.connectTimeout(it) }
+        profile.readTimeout?.let { builder.readTimeout(it) }
+        profile.writeTimeout?.let { builder.writeTimeout(it) }
+        profile.callTimeout?.let { builder.callTimeout(it) }
+        profile.proxy?.let { builder.proxy(it) }
+        profile.interceptors.forEach { builder.addInterceptor(it) }
+        profile.networkInterceptors.forEach { builder.addNetworkInterceptor(it) }
+        if (profile.virtualThreads) {
+            builder.dispatcher(virtualThreadDispatcher)
+        }
+        profile.diskCache?.let { diskCache ->
+            builder.cache(diskCache.cache())
+            diskCache.forcingInterceptor?.let { builder.addNetworkInterceptor(it) }
+        }
+        profile.offHeapCache?.let { builder.addInterceptor(it.cache().interceptor) }
+        return builder.build()
+    }
+
+    /**
+     * 磁盘缓存关闭时调用: 丢弃使用它的派生客户端, 共享客户端停用磁盘缓存
+     */
+    internal fun forgetDiskCache(diskCache: DiskCacheProfile) {
+        synchronized(this) {
+            profileClients.keys.removeIf { it.diskCache == diskCache }
+            synchronized(derivedClients) {
+                derivedClients.values.forEach { clients -> clients.keys.removeIf { it.diskCache == diskCache } }
+            }
+            if (sharedDiskCache == diskCache) {
+                setDiskCache(null)
+            }
+        }
+    }
+
+    /**
+     * Builder 使用: 用户指定的客户端优先, 否则使用注册表中的客户端
+     */
+    internal fun resolve(okHttpClient: OkHttpClient?, profile: ClientProfile?): OkHttpClient {
+        return when {
+            okHttpClient == null -> get(profile)
+            profile == null -> okHttpClient
+            else -> derived(okHttpClient, profile)
+        }
+    }
+
+    /**
+     * 在锁外派生, 并发时可能重复派生, 以先放入的为准
+     */
+    private fun derived(okHttpClient: OkHttpClient, profile: ClientProfile): OkHttpClient {
+        synchronized(derivedClients) { derivedClients[okHttpClient]?.get(profile) }?.let { return it }
+        val client = derive(okHttpClient, profile)
+        return synchronized(derivedClients) {
+            derivedClients.getOrPut(okHttpClient) { HashMap() }.putIfAbsent(profile, client) ?: client
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package io.github.lookoutldz.easyrequester.common
+
+import kotlinx.coroutines.suspendCancellableCoroutine
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ScheduledFuture
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.TimeoutException
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.coroutines.resume
+import kotlin.coroutines.resumeWithException
+
+/**
+ * 请求执行引擎, Kotlin 与 Java 两套请求器共用
+ * 同步执行在调用线程上完成 (虚拟线程模式下转到虚拟线程上); 异步与挂起执行基于 OkHttp 的 enqueue, 回调在 Dispatcher 线程上运行
+ * 重试、熔断、对冲等执行阶段由 [CallPolicies] 配置, 见 [CallStages]
+ * @author looko
+ * @date 2025/6/21
+ */
+internal object EasyHttpEngine {
+
+    /**
+     * 同步执行, 与原先各请求类中的 execute() 行为一致
+     * 配置了重试策略时, 可重试的失败在调用线程上退避后重试, 只有最后一次尝试的结果交给处理器
+     * 熔断器、限流或并发限制拒绝时不发出请求, [CircuitBreakerOpenException] / [RateLimitExceededException] / [ConcurrencyLimitExceededException] 交给 exceptionHandler
+     * 超过总时限时 [DeadlineExceededException] 交给 exceptionHandler
+     * 命中响应缓存时不发出请求, 缓存的结果直接交给成功处理器, 处于 stale-while-revalidate 期间时另外在后台刷新;
+     * 缓存过期但带有验证器时发出条件请求, 见 [ResponseCachePolicy]
+     * 返回已经结束的 [EasyCall], 以默认成功处理器解析出的结果完成, 记录了各阶段的耗时; exceptionHandler 抛出的异常照常抛出
+     * 客户端开启了虚拟线程模式时, 整个执行过程 (含处理器) 转到虚拟线程执行器上运行, 调用线程阻塞等待;
+     * 调用线程本身已是虚拟线程时直接在其上执行
+     */
+    fun <T> execute(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        responseHandler: (Response) -> Unit,
+        exceptionHandler: (Throwable, Request) -> Unit,
+        policies: CallPolicies = CallPolicies.NONE,
+    ): EasyCall<T> {
+        val easyCall = EasyCall<T>()
+        val deadline = policies.deadline?.let { Deadline(it) }
+        val executor = EasyHttpClients.virtualThreadExecutor(okHttpClient)
+        if (executor == null || Thread.currentThread().isVirtual) {
+            execute(okHttpClient, request, responseHandler, exceptionHandler, policies, deadline, easyCall)
+            return easyCall
+        }
+        val task = executor.submit { execute(okHttpClient, request, responseHandler, exceptionHandler, policies, deadline, easyCall) }
+        try {
+            task.get()
+        } catch (e: ExecutionException) {
+            throw e.cause ?: e
+        } catch (e: InterruptedException) {
+            task.cancel(true)
+            throw e
+        }
+        return easyCall
+    }
+
+    private fun execute(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        responseHandler: (Response) -> Unit,
+        exceptionHandler: (Throwable, Request) -> Unit,
+        policies: CallPolicies,
+        deadline: Deadline?,
+        easyCall: EasyCall<*>,
+    ) {
+        val lookup = policies.cache?.lookup(request)
+        if (lookup?.usable == true) {
+            if (lookup.refresh) {
+                refresh(okHttpClient, lookup, policies)
+            }
+            val result = try {
+                process(easyCall) { lookup.serve() }
+            } catch (e: Exception) {
+                handleFailure(e, request, exceptionHandler, easyCall)
+                return
+            }
+            easyCall.completeWith(result)
+            return
+        }
+        send(okHttpClient, lookup?.request ?: request, responseHandler, exceptionHandler, policies, deadline, easyCall, lookup)
+    }
+
+    /**
+     * 未命中缓存时发出请求, 配置了合并时先加入相同请求的在途调用
+     */
+    private fun send(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        responseHandler: (Response) -> Unit,
+        exceptionHandler: (Throwable, Request) -> Unit,
+        policies: CallPolicies,
+        deadline: Deadline?,
+        easyCall: EasyCall<*>,
+        lookup: ResponseCaching.CacheLookup?,
+    ) {
+        val membership = policies.singleFlight?.join(okHttpClient, request)
+        if (membership != null && !membership.leader) {
+            follow(okHttpClient, request, responseHandler, exceptionHandler, policies, membership.flight, deadline, easyCall, lookup)
+            return
+        }
+        val flight = membership?.flight
+        val stages = CallStages(policies, request, deadline, easyCall)
+        try {
+            while (true) {
+                stages.beforeAttempt()
+                val call = stages.newCall(okHttpClient, request)
+                val response = try {
+                    call.execute()
+                } catch (e: IOException) {
+                    // Call.timeout() 到期也会取消请求, 但它是一次失败的尝试, 计入熔断统计并可以重试
+                    val delay = stages.afterException(e, call.isCanceled() && !Deadline.isCallTimeout(e)) ?: throw e
+                    backoff(delay, easyCall)
+                    continue
+                } catch (e: Throwable) {
+                    // 拦截器或 EventListener 抛出的 RuntimeException 等: 不是请求的失败, 归还许可后照常交给 exceptionHandler
+                    stages.abandon()
+                    throw e
+                }
+                val delay = stages.afterResponse(response)
+                if (delay != null) {
+                    response.close()
+                    backoff(delay, easyCall)
+                    continue
+                }
+                // 使用 use 安全管理资源
+                val result = response.use {
+                    val handled = flight?.share(it) ?: it
+                    process(easyCall) { SingleFlights.within(flight) { respond(stages.bind(handled), responseHandler, lookup) } }
+                        .also { result -> lookup?.store(it, result) }
+                }
+                easyCall.completeWith(result)
+                return
+            }
+        } catch (e: Exception) {
+            if (e is InterruptedException) {
+                Thread.currentThread().interrupt()
+            }
+            val error = stages.failure(e)
+            flight?.fail(error)
+            handleFailure(error, request, exceptionHandler, easyCall)
+        } finally {
+            flight?.abandon()
+        }
+    }
+
+    /**
+     * 同步执行的等待者: 阻塞等待 leader 的结果, 无法共享时自行发出请求; 等待时间不超过自己的总时限
+     */
+    private fun follow(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        responseHandler: (Response) -> Unit,
+        exceptionHandler: (Throwable, Request) -> Unit,
+        policies: CallPolicies,
+        flight: Flight,
+        deadline: Deadline?,
+        easyCall: EasyCall<*>,
+        lookup: ResponseCaching.CacheLookup?,
+    ) {
+        val waitingAt = System.nanoTime()
+        val outcome = try {
+            if (deadline == null) flight.outcome.get() else flight.outcome.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS)
+        } catch (e: TimeoutException) {
+            handleFailure(deadline!!.exceeded(), request, exceptionHandler, easyCall)
+            return
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            handleFailure(e, request, exceptionHandler, easyCall)
+            return
+        } finally {
+            easyCall.record(EasyCall.Phase.QUEUEING, System.nanoTime() - waitingAt)
+        }
+        when (outcome) {
+            is FlightOutcome.Shared -> {
+                val result = try {
+                    flight.replay(outcome).use { replayed ->
+                        process(easyCall) { SingleFlights.within(flight) { respond(deadline?.bind(replayed) ?: replayed, responseHandler, lookup) } }
+                            .also { result -> lookup?.store(replayed, result) }
+                    }
+                } catch (e: Exception) {
+                    handleFailure(deadline?.failure(e) ?: e, request, exceptionHandler, easyCall)
+                    return
+                }
+                easyCall.completeWith(result)
+            }
+            is FlightOutcome.Failed -> handleFailure(outcome.error, request, exceptionHandler, easyCall)
+            FlightOutcome.Unshared ->
+                send(okHttpClient, request, responseHandler, exceptionHandler, policies.copy(singleFlight = null), deadline, easyCall, lookup)
+        }
+    }
+
+    /**
+     * 在后台刷新处于 stale-while-revalidate 期间的缓存条目, 不回调处理器, 也不参与合并与对冲; 重试、熔断、限流与超时照常生效
+     */
+    private fun refresh(okHttpClient: OkHttpClient, lookup: ResponseCaching.CacheLookup, policies: CallPolicies) {
+        val background = policies.copy(cache = null, singleFlight = null, hedge = null)
+        lookup.refresh { request ->
+            execute<Any?>(okHttpClient, request, lookup::refreshed, { _, _ -> lookup.refreshFinished() }, background)
+        }
+    }
+
+    /**
+     * 把响应交给处理器, 配置了缓存时由 lookup 处理 304 并统计响应体大小
+     */
+    private fun respond(response: Response, responseHandler: (Response) -> Unit, lookup: ResponseCaching.CacheLookup?) {
+        if (lookup == null) responseHandler(response) else lookup.respond(response, responseHandler)
+    }
+
+    private fun backoff(delayMillis: Long, easyCall: EasyCall<*>) {
+        val sleepingAt = System.nanoTime()
+        try {
+            Thread.sleep(delayMillis)
+        } finally {
+            easyCall.record(EasyCall.Phase.BACKOFF, System.nanoTime() - sleepingAt)
+        }
+    }
+
+    /**
+     * 运行处理器, 返回默认成功处理器解析出的结果, 耗时计入处理阶段
+     */
+    private fun process(easyCall: EasyCall<*>?, block: () -> Unit): Any? {
+        val processingAt = System.nanoTime()
+        try {
+            return DecodedResults.capture(block)
+        } finally {
+            easyCall?.record(EasyCall.Phase.PROCESSING, System.nanoTime() - processingAt)
+        }
+    }
+
+    /**
+     * 同步执行的异常交给 exceptionHandler, 处理完毕后以 null 完成句柄; exceptionHandler 抛出的异常照常抛出
+     */
+    private fun handleFailure(
+        error: Throwable,
+        request: Request,
+        exceptionHandler: (Throwable, Request) -> Unit,
+        easyCall: EasyCall<*>,
+    ) {
+        try {
+            exceptionHandler(error, request)
+        } catch (e: Throwable) {
+            easyCall.failWith(e)
+            throw e
+        }
+        easyCall.completeWith(null)
+    }
+
+    /**
+     * 异步执行, 处理器在 OkHttp 回调线程上运行
+     * future 以默认成功处理器解析出的结果完成, 自定义了 onResponse 或响应失败时以 null 完成
+     * 异常交给 exceptionHandler, 若其抛出异常则 future 异常完成
+     * 取消 future 会取消底层的 Call, 包括退避等待中的重试; 超过总时限时同样取消, future 以处理器对 [DeadlineExceededException] 的处理结果完成
+     * 返回的 [EasyCall] 即该 future, 另外记录了各阶段的耗时
+     * 命中响应缓存时不发出请求, 处理器在调用线程上运行, 返回时 future 已经完成
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> enqueue(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        responseHandler: (Response) -> Unit,
+        exceptionHandler: (Throwable, Request) -> Unit,
+        policies: CallPolicies = CallPolicies.NONE,
+    ): EasyCall<T> {
+        val future = EasyCall<T>()
+        val callback = HandlerCallback(
+            request = request,
+            responseHandler = responseHandler,
+            exceptionHandler = exceptionHandler,
+            onResult = { result -> future.completeWith(result) },
+            onError = { error -> future.failWith(error) },
+            easyCall = future,
+        )
+        start(okHttpClient, request, policies, callback, policies.deadline?.let { Deadline(it) }) { call ->
+            future.whenComplete { _, error ->
+                if (error is CancellationException) {
+                    call.cancel()
+                }
+            }
+        }
+        return future
+    }
+
+    /**
+     * 挂起执行, 语义与 [enqueue] 相同, 协程被取消时取消底层的 Call
+     */
+    @Suppress("UNCHECKED_CAST")
+    suspend fun <T> await(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        responseHandler: (Response) -> Unit,
+        exceptionHandler: (Throwable, Request) -> Unit,
+        policies: CallPolicies = CallPolicies.NONE,
+    ): T? = suspendCancellableCoroutine { continuation ->
+        val callback = HandlerCallback(
+            request = request,
+            responseHandler = responseHandler,
+            exceptionHandler = exceptionHandler,
+            onResult = { result -> continuation.resume(result as T?) },
+            onError = { error -> continuation.resumeWithException(error) }
+        )
+        start(okHttpClient, request, policies, callback, policies.deadline?.let { Deadline(it) }) { call ->
+            continuation.invokeOnCancellation { call.cancel() }
+        }
+    }
+
+    /**
+     * 发起异步请求, 配置了合并时先加入相同请求的在途调用
+     * 等待者不占用线程, leader 完成后在客户端的 Dispatcher 线程上各自运行处理器, 无法共享时自行发出请求
+     * 等待者的等待时间不超过自己的总时限
+     * 先查询响应缓存, 命中时在当前线程上把缓存的结果交给处理器
+     * @param onCall 注册取消回调, 只对自行发出的请求生效; 等待者被取消时不影响 leader
+     */
+    private fun start(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        policies: CallPolicies,
+        callback: HandlerCallback,
+        deadline: Deadline?,
+        onCall: (AsyncCall) -> Unit,
+    ) {
+        val lookup = policies.cache?.lookup(request)
+        if (lookup?.usable == true) {
+            if (lookup.refresh) {
+                refresh(okHttpClient, lookup, policies)
+            }
+            callback.serve(lookup)
+            return
+        }
+        dispatch(okHttpClient, lookup?.request ?: request, policies, callback, deadline, lookup, onCall)
+    }
+
+    private fun dispatch(
+        okHttpClient: OkHttpClient,
+        request: Request,
+        policies: CallPolicies,
+        callback: HandlerCallback,
+        deadline: Deadline?,
+        lookup: ResponseCaching.CacheLookup?,
+        onCall: (AsyncCall) -> Unit,
+    ) {
+        val membership = policies.singleFlight?.join(okHttpClient, request)
+        if (membership == null || membership.leader) {
+            val call = AsyncCall(okHttpClient, request, policies, callback, deadline, membership?.flight, lookup)
+            onCall(call)
+            call.start()
+            return
+        }
+        val flight = membership.flight
+        // 只为自己的副本设置超时, 不影响 leader 与其他等待者
+        val waiting = deadline?.let { flight.outcome.copy().orTimeout(it.remainingNanos(), TimeUnit.NANOSECONDS) } ?: flight.outcome
+        val waitingAt = System.nanoTime()
+        waiting.whenComplete { outcome, _ ->
+            callback.easyCall?.record(EasyCall.Phase.QUEUEING, System.nanoTime() - waitingAt)
+            when (outcome) {
+                null -> okHttpClient.dispatcher.executorService.execute { callback.fail(deadline!!.exceeded()) }
+                is FlightOutcome.Shared -> okHttpClient.dispatcher.executorService.execute {
+                    val replayed = flight.replay(outcome)
+                    callback.handle(deadline?.bind(replayed) ?: replayed, flight, lookup)
+                }
+                is FlightOutcome.Failed -> okHttpClient.dispatcher.executorService.execute { callback.fail(outcome.error) }
+                FlightOutcome.Unshared -> dispatch(okHttpClient, request, policies.copy(singleFlight = null), callback, deadline, lookup, onCall)
+            }
+        }
+    }
+
+    /**
+     * 一次异步请求的全部尝试: 可重试的失败在退避后重新 enqueue, 退避、等待令牌与并发排队期间都不占用线程
+     * 只有最后一次尝试的响应或异常交给 callback; 超过总时限时取消在途的 Call, 立即以 [DeadlineExceededException] 结束
+     */
+    private class AsyncCall(
+        private val okHttpClient: OkHttpClient,
+        private val request: Request,
+        policies: CallPolicies,
+        private val callback: HandlerCallback,
+        private val deadline: Deadline? = null,
+        private val flight: Flight? = null,
+        private val lookup: ResponseCaching.CacheLookup? = null,
+    ) : Callback {
+
+        private val stages = CallStages(policies, request, deadline, callback.easyCall)
+
+        /**
+         * 结果只交给 callback 一次, 到期与请求结束同时发生时以先到者为准
+         */
+        private val finished = AtomicBoolean()
+
+        @Volatile
+        private var current: Call? = null
+        @Volatile
+        private var canceled = false
+
+        /**
+         * 到期任务, 请求结束或被取消时取消, 不再让已结束的请求 (处理器与解析结果) 一直可达到时限到期
+         */
+        private val expiry: ScheduledFuture<*>? = deadline?.onExpiry(::expire)
+
+        fun start() {
+            stages.beforeAttemptAsync(onReady = ::send, onRejected = ::fail)
+        }
+
+        private fun send() {
+            val call = stages.newCall(okHttpClient, request)
+            current = call
+            if (canceled) {
+                call.cancel()
+            }
+            call.enqueue(this)
+        }
+
+        fun cancel() {
+            canceled = true
+            current?.cancel()
+            expiry?.cancel(false)
+            // 退避期间被取消时不会再回调, 等待者改为各自发出请求
+            flight?.abandon()
+        }
+
+        /**
+         * 到期: 不再重试, 取消在途的请求 (其回调负责归还许可), 等待者各自发出请求
+         */
+        private fun expire() {
+            if (finished.get()) {
+                return
+            }
+            canceled = true
+            current?.cancel()
+            fail(deadline!!.exceeded())
+        }
+
+        /**
+         * 标记结束并取消到期任务, 只有第一次调用返回 true
+         */
+        private fun finish(): Boolean {
+            if (!finished.compareAndSet(false, true)) {
+                return false
+            }
+            expiry?.cancel(false)
+            return true
+        }
+
+        private fun fail(error: Throwable) {
+            if (!finish()) {
+                return
+            }
+            val failure = stages.failure(error)
+            flight?.fail(failure)
+            callback.fail(failure)
+        }
+
+        override fun onFailure(call: Call, e: IOException) {
+            val abandoned = canceled || call.isCanceled() && !Deadline.isCallTimeout(e)
+            val delay = stages.afterException(e, abandoned)
+            if (delay != null) {
+                retryAfter(delay)
+            } else if (!abandoned) {
+                fail(e)
+            } else if (finish()) {
+                flight?.abandon()
+                callback.onFailure(call, e)
+            }
+        }
+
+        override fun onResponse(call: Call, response: Response) {
+            val delay = stages.afterResponse(response).takeUnless { canceled }
+            if (delay != null) {
+                response.close()
+                retryAfter(delay)
+                return
+            }
+            val shared = try {
+                flight?.share(response) ?: response
+            } catch (e: IOException) {
+                response.close()
+                fail(e)
+                return
+            }
+            if (finish()) {
+                callback.handle(stages.bind(shared), flight, lookup)
+            }
+            response.close()
+        }
+
+        private fun retryAfter(delayMillis: Long) {
+            val sleepingAt = System.nanoTime()
+            CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute {
+                callback.easyCall?.record(EasyCall.Phase.BACKOFF, System.nanoTime() - sleepingAt)
+                // 退避期间被取消时, future / 协程已经以取消结束, 不再发起请求
+                if (!canceled) {
+                    start()
+                }
+            }
+        }
+    }
+
+    /**
+     * 在回调线程上运行处理器, 再把结果或异常交给 onResult / onError
+     */
+    private class HandlerCallback(
+        private val request: Request,
+        private val responseHandler: (Response) -> Unit,
+        private val exceptionHandler: (Throwable, Request) -> Unit,
+        private val onResult: (Any?) -> Unit,
+        private val onError: (Throwable) -> Unit,
+        /**
+         * 异步执行返回的句柄, 挂起执行时为 null
+         */
+        val easyCall: EasyCall<*>? = null,
+    ) : Callback {
+
+        override fun onFailure(call: Call, e: IOException) {
+            // 主动取消的请求不再回调处理器
+            if (call.isCanceled()) {
+                onError(CancellationException("Call canceled").apply { initCause(e) })
+                return
+            }
+            fail(e)
+        }
+
+        override fun onResponse(call: Call, response: Response) = handle(response, null)
+
+        /**
+         * 运行处理器并关闭响应, flight 不为 null 时处理的是合并请求共享的响应副本
+         * lookup 不为 null 时处理条件请求的 304, 并把解析出的结果写入响应缓存
+         */
+        fun handle(response: Response, flight: Flight?, lookup: ResponseCaching.CacheLookup? = null) {
+            val result = try {
+                response.use {
+                    process(easyCall) { SingleFlights.within(flight) { respond(it, responseHandler, lookup) } }
+                        .also { result -> lookup?.store(it, result) }
+                }
+            } catch (e: Exception) {
+                fail(e)
+                return
+            }
+            onResult(result)
+        }
+
+        /**
+         * 命中响应缓存, 把缓存的结果交给成功处理器
+         */
+        fun serve(lookup: ResponseCaching.CacheLookup) {
+            val result = try {
+                process(easyCall) { lookup.serve() }
+            } catch (e: Exception) {
+                fail(e)
+                return
+            }
+            onResult(result)
+        }
+
+        fun fail(error: Throwable) {
+            try {
+                exceptionHandler(error, request)
+            } catch (e: Throwable) {
+                onError(e)
+                return
+            }
+            onResult(null)
+        }
+    }
+}
+
+/**
+ * 在处理器调用链中传递解析结果
+ * 默认的成功处理器解析出结果后调用 [offer], 执行方通过 [capture] 在同一线程上取回结果, 用于完成 future 等场景
+ */
+internal object DecodedResults {
+
+    private val slot = ThreadLocal<Array<Any?>>()
+
+    fun offer(value: Any?) {
+        slot.get()?.set(0, value)
+    }
+
+    fun capture(block: () -> Unit): Any? {
+        val holder = arrayOfNulls<Any>(1)
+        val previous = slot.get()
+        slot.set(holder)
+        try {
+            block()
+        } finally {
+            if (previous == null) slot.remove() else slot.set(previous)
+        }
+        return holder[0]
+    }
+}
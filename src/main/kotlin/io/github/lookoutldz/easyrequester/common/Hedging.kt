@@ -0,0 +1,272 @@
+package io.github.lookoutldz.easyrequester.common
+
+import io.github.lookoutldz.easyrequester.entity.HttpMethod
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okio.Timeout
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 对冲请求策略, 降低少数慢副本造成的尾延迟:
+ * 发出请求后 delay 内没有收到响应时再发出一个相同的请求, 采用先到的响应并取消其余的 Call
+ *  - delay 为 null 时使用该主机观测到的 percentile 分位延迟 (最近 sampleWindow 个响应), 样本不足 minSamples 时使用 initialDelay
+ *  - 只对冲 hedgeMethods 中的方法, 默认只有 GET; 确认 PUT/DELETE 幂等时可以加入
+ *  - 每次对冲从 budget 中消耗一个令牌, 预算与 [RetryPolicy] 使用同一种 [RetryBudget], 默认额外请求不超过流量的 5%
+ * 对冲请求通过 OkHttp 的 enqueue 发出, 同步执行时也受 Dispatcher 的 maxRequestsPerHost 限制
+ * 熔断、限流与并发限制把一组对冲请求视为一次尝试
+ * @author looko
+ * @date 2025/7/5
+ */
+data class HedgePolicy(
+    /**
+     * 固定的对冲延迟, 为 null 时按观测到的延迟分位数
+     */
+    val delay: Duration? = null,
+    val percentile: Double = 0.95,
+    val minDelay: Duration = Duration.ofMillis(5),
+    val initialDelay: Duration = Duration.ofMillis(100),
+    val minSamples: Int = 20,
+    val sampleWindow: Int = 200,
+    /**
+     * 每个请求最多额外发出的请求数, 依次间隔 delay 发出
+     */
+    val maxHedges: Int = 1,
+    val hedgeMethods: Set<HttpMethod> = setOf(HttpMethod.GET),
+    /**
+     * 为 null 时不限制对冲比例
+     */
+    val budget: RetryBudget? = RetryBudget(ratio = 0.05, minRetriesPerSecond = 0.5),
+) {
+
+    init {
+        require(percentile > 0 && percentile < 1) { "percentile must be in (0, 1)" }
+        require(maxHedges >= 1) { "maxHedges must be at least 1" }
+        require(minSamples in 1..sampleWindow) { "minSamples must be in [1, sampleWindow]" }
+        require(delay == null || !delay.isNegative) { "delay must not be negative" }
+    }
+
+    companion object {
+        private val trackers = ConcurrentHashMap<Pair<HedgePolicy, String>, LatencyTracker>()
+
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    /**
+     * 主机当前使用的对冲延迟
+     */
+    fun delayFor(host: String, port: Int): Duration =
+        delay ?: trackerFor(host, port).percentile(percentile)?.let { maxOf(Duration.ofNanos(it), minDelay) } ?: initialDelay
+
+    private fun trackerFor(host: String, port: Int): LatencyTracker =
+        trackers.computeIfAbsent(this to "$host:$port") { LatencyTracker(sampleWindow, minSamples) }
+
+    /**
+     * 开始一次请求的对冲, 请求方法不可对冲时返回 null
+     * 每次可对冲的请求都会向主机的对冲预算存入额度
+     */
+    internal fun begin(request: Request): Hedging? {
+        if (hedgeMethods.none { it.name == request.method }) {
+            return null
+        }
+        val tokens = budget?.tokensFor(request.url.host, request.url.port)
+        tokens?.deposit()
+        return Hedging(this, trackerFor(request.url.host, request.url.port), tokens)
+    }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var policy = HedgePolicy()
+
+        fun setDelay(delay: Duration?): Builder = apply { policy = policy.copy(delay = delay) }
+        fun setPercentile(percentile: Double): Builder = apply { policy = policy.copy(percentile = percentile) }
+        fun setMinDelay(minDelay: Duration): Builder = apply { policy = policy.copy(minDelay = minDelay) }
+        fun setInitialDelay(initialDelay: Duration): Builder = apply { policy = policy.copy(initialDelay = initialDelay) }
+        fun setMinSamples(minSamples: Int): Builder = apply { policy = policy.copy(minSamples = minSamples) }
+        fun setSampleWindow(sampleWindow: Int): Builder = apply { policy = policy.copy(sampleWindow = sampleWindow) }
+        fun setMaxHedges(maxHedges: Int): Builder = apply { policy = policy.copy(maxHedges = maxHedges) }
+        fun setHedgeMethods(vararg methods: HttpMethod): Builder = apply { policy = policy.copy(hedgeMethods = methods.toSet()) }
+        fun addHedgeMethod(method: HttpMethod): Builder = apply { policy = policy.copy(hedgeMethods = policy.hedgeMethods + method) }
+        fun setBudget(budget: RetryBudget?): Builder = apply { policy = policy.copy(budget = budget) }
+
+        fun build(): HedgePolicy = policy
+    }
+}
+
+/**
+ * 一次请求的对冲配置, 由执行引擎在同一请求的各次尝试间共享, 每次尝试创建一个 [HedgedCall]
+ */
+internal class Hedging(
+    private val policy: HedgePolicy,
+    private val tracker: LatencyTracker,
+    private val tokens: RetryTokens?,
+) {
+    fun newCall(okHttpClient: OkHttpClient, request: Request): Call = HedgedCall(okHttpClient, request, policy, tracker, tokens)
+}
+
+/**
+ * 最近 window 个响应的延迟, 分位数每记录 window / 20 个样本重新计算一次
+ */
+internal class LatencyTracker(window: Int, private val minSamples: Int) {
+
+    private val samples = LongArray(window)
+    private var next = 0
+    private var count = 0
+    private var sinceSorted = 0
+    private var sorted = LongArray(0)
+    private val resortEvery = maxOf(1, window / 20)
+
+    @Synchronized
+    fun record(nanos: Long) {
+        samples[next] = nanos
+        next = (next + 1) % samples.size
+        if (count < samples.size) count++
+        sinceSorted++
+    }
+
+    @Synchronized
+    fun percentile(p: Double): Long? {
+        if (count < minSamples) {
+            return null
+        }
+        if (sorted.size != count || sinceSorted >= resortEvery) {
+            sorted = samples.copyOf(count).also { it.sort() }
+            sinceSorted = 0
+        }
+        return sorted[minOf(count - 1, (p * count).toInt())]
+    }
+}
+
+/**
+ * 一组对冲请求, 对执行引擎而言与普通的 Call 相同:
+ * 第一个响应交给 callback 并取消其余请求; 失败时若仍有请求在途则等待它们, 否则立即交出最后一个异常
+ */
+internal class HedgedCall(
+    private val okHttpClient: OkHttpClient,
+    private val request: Request,
+    private val policy: HedgePolicy,
+    private val tracker: LatencyTracker,
+    private val tokens: RetryTokens?,
+) : Call {
+
+    private val calls = CopyOnWriteArrayList<Call>()
+    private val executed = AtomicBoolean()
+    private val done = AtomicBoolean()
+    private val inFlight = AtomicInteger()
+    private val delay = policy.delayFor(request.url.host, request.url.port)
+    private val timeout = Timeout()
+
+    @Volatile
+    private var enqueuedAt = 0L
+
+    @Volatile
+    private var canceled = false
+
+    override fun request(): Request = request
+
+    override fun execute(): Response {
+        val future = CompletableFuture<Response>()
+        enqueue(object : Callback {
+            override fun onResponse(call: Call, response: Response) {
+                future.complete(response)
+            }
+
+            override fun onFailure(call: Call, e: IOException) {
+                future.completeExceptionally(e)
+            }
+        })
+        try {
+            return future.get()
+        } catch (e: ExecutionException) {
+            throw e.cause as? IOException ?: IOException(e.cause)
+        } catch (e: InterruptedException) {
+            cancel()
+            future.thenAccept { it.close() }
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException("Hedged call interrupted")
+        }
+    }
+
+    override fun enqueue(responseCallback: Callback) {
+        check(executed.compareAndSet(false, true)) { "Already Executed" }
+        enqueuedAt = System.nanoTime()
+        launch(responseCallback)
+        scheduleHedge(responseCallback, policy.maxHedges)
+    }
+
+    private fun scheduleHedge(responseCallback: Callback, remaining: Int) {
+        CompletableFuture.delayedExecutor(delay.toNanos(), TimeUnit.NANOSECONDS).execute {
+            if (done.get() || canceled || tokens?.tryWithdraw() == false) {
+                return@execute
+            }
+            launch(responseCallback)
+            if (remaining > 1) {
+                scheduleHedge(responseCallback, remaining - 1)
+            }
+        }
+    }
+
+    private fun launch(responseCallback: Callback) {
+        val call = okHttpClient.newCall(request)
+        // 超时从整组请求开始时计算, 后发出的对冲请求只得到剩余的时间
+        val timeoutNanos = timeout.timeoutNanos()
+        if (timeoutNanos > 0) {
+            call.timeout().timeout(maxOf(1L, timeoutNanos - (System.nanoTime() - enqueuedAt)), TimeUnit.NANOSECONDS)
+        }
+        inFlight.incrementAndGet()
+        calls += call
+        if (done.get() || canceled) {
+            call.cancel()
+        }
+        val startedAt = System.nanoTime()
+        call.enqueue(object : Callback {
+            override fun onResponse(call: Call, response: Response) {
+                tracker.record(System.nanoTime() - startedAt)
+                inFlight.decrementAndGet()
+                if (done.compareAndSet(false, true)) {
+                    calls.forEach { if (it !== call) it.cancel() }
+                    responseCallback.onResponse(this@HedgedCall, response)
+                } else {
+                    response.close()
+                }
+            }
+
+            override fun onFailure(call: Call, e: IOException) {
+                // 还有请求在途时等待它们; 被取消的落后请求也在这里结束
+                if (inFlight.decrementAndGet() == 0 && done.compareAndSet(false, true)) {
+                    responseCallback.onFailure(this@HedgedCall, e)
+                }
+            }
+        })
+    }
+
+    override fun cancel() {
+        canceled = true
+        calls.forEach { it.cancel() }
+    }
+
+    override fun isExecuted(): Boolean = executed.get()
+
+    override fun isCanceled(): Boolean = canceled
+
+    /**
+     * 整组请求的超时, 应用到每个对冲请求的 Call.timeout()
+     */
+    override fun timeout(): Timeout = timeout
+
+    override fun clone(): Call = HedgedCall(okHttpClient, request, policy, tracker, tokens)
+}
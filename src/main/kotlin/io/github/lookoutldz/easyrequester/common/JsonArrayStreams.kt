@@ -0,0 +1,83 @@
+package io.github.lookoutldz.easyrequester.common
+
+import com.fasterxml.jackson.core.JsonParseException
+import com.fasterxml.jackson.core.JsonParser
+import com.fasterxml.jackson.core.JsonPointer
+import com.fasterxml.jackson.core.JsonToken
+import com.fasterxml.jackson.databind.ObjectReader
+import java.io.InputStream
+
+/**
+ * 逐个元素解析 JSON 数组, Kotlin 与 Java 两套请求器的 onEach 共用
+ * 用 JsonParser 从响应流中边读边解析, 每解析出一个元素就交给处理器, 不会把整个数组读进内存,
+ * 内存占用只与单个元素的大小有关
+ * @author looko
+ * @date 2025/6/27
+ */
+internal object JsonArrayStreams {
+
+    /**
+     * 解析 pointer 指向的数组 (为空时为根节点), 返回元素个数
+     * pointer 为 JSON Pointer 格式, 例如 "/data/items"; 到达数组前的兄弟节点会被跳过而不会被解析
+     */
+    fun <E> forEach(input: InputStream, reader: ObjectReader, pointer: String?, handler: (E) -> Unit): Long {
+        reader.createParser(input).use { parser ->
+            val target = JsonPointer.compile(pointer.orEmpty())
+            if (!moveTo(parser, target) || parser.currentToken() != JsonToken.START_ARRAY) {
+                throw JsonParseException(parser, "No JSON array at pointer '$target'")
+            }
+            var count = 0L
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                handler(reader.readValue(parser))
+                count++
+            }
+            return count
+        }
+    }
+
+    /**
+     * 把 parser 移动到 pointer 指向的值的起始 token 上, 找不到时返回 false
+     */
+    private fun moveTo(parser: JsonParser, pointer: JsonPointer): Boolean {
+        var token = parser.nextToken()
+        var remaining = pointer
+        while (!remaining.matches()) {
+            token = when (token) {
+                JsonToken.START_OBJECT -> moveToField(parser, remaining.matchingProperty)
+                JsonToken.START_ARRAY -> moveToIndex(parser, remaining.matchingIndex)
+                else -> null
+            } ?: return false
+            remaining = remaining.tail()
+        }
+        return true
+    }
+
+    private fun moveToField(parser: JsonParser, name: String): JsonToken? {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val field = parser.currentName()
+            val value = parser.nextToken()
+            if (field == name) {
+                return value
+            }
+            parser.skipChildren()
+        }
+        return null
+    }
+
+    private fun moveToIndex(parser: JsonParser, index: Int): JsonToken? {
+        if (index < 0) {
+            return null
+        }
+        var current = 0
+        while (true) {
+            val value = parser.nextToken()
+            if (value == null || value == JsonToken.END_ARRAY) {
+                return null
+            }
+            if (current++ == index) {
+                return value
+            }
+            parser.skipChildren()
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package io.github.lookoutldz.easyrequester.common
+
+import com.fasterxml.jackson.databind.ObjectWriter
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.Buffer
+import okio.BufferedSink
+import java.io.IOException
+import java.io.OutputStream
+
+/**
+ * 流式 JSON 请求体, Kotlin 与 Java 两套请求器共用
+ * 原先的 writeValueAsString(body).toRequestBody() 会把对象依次转成 UTF-16 字符串、UTF-8 字节数组再写出,
+ * 大对象在内存中约占三份; 这里由 Jackson 直接把 UTF-8 字节写进 OkHttp 的 BufferedSink
+ *
+ * - 序列化结果不超过 [BUFFER_LIMIT] 时只序列化一次并缓存字节, 带 Content-Length 发送, 与原先的行为一致
+ * - 超过时不再缓存, 在 writeTo 中边序列化边写出, 默认以 chunked 编码发送;
+ *   exactLength 为 true 时先做一次只计数不保存的预序列化得到 Content-Length, 兼容不接受 chunked 的服务端, 代价是序列化两次
+ * - chunked 为 true 时不做任何预先序列化, 无论大小都以 chunked 编码边序列化边发送
+ * 请求体可以重复写出 (重试/重定向), 每次都重新序列化, 要求 body 在请求期间不被修改
+ * 边写出边序列化时的失败是 OkHttp 中的 [com.fasterxml.jackson.core.JsonProcessingException], 执行引擎不把它当作网络失败, 见 [CallStages.afterException]
+ * @author looko
+ * @date 2025/6/26
+ */
+internal class JsonRequestBody(
+    private val value: Any,
+    private val writer: ObjectWriter,
+    private val contentType: MediaType?,
+    private val chunked: Boolean = false,
+    private val exactLength: Boolean = false,
+) : RequestBody() {
+
+    companion object {
+        /**
+         * 小于该大小的请求体直接缓存序列化结果
+         */
+        const val BUFFER_LIMIT = 256 * 1024L
+    }
+
+    /**
+     * 小请求体的序列化结果, 超过上限或以 chunked 发送时为 null
+     * 在生成请求时立即序列化, 序列化失败在发出请求之前抛出, 不经过重试、熔断与并发限制
+     */
+    private val buffered: Buffer? = if (chunked) null else serializeBounded()
+
+    private val contentLength: Long by lazy {
+        buffered?.size ?: if (chunked || !exactLength) -1L else CountingOutputStream().also { writer.writeValue(it, value) }.count
+    }
+
+    override fun contentType(): MediaType? = contentType
+
+    override fun contentLength(): Long = contentLength
+
+    override fun writeTo(sink: BufferedSink) {
+        val bytes = buffered
+        if (bytes != null) {
+            // copy() 共享底层分段, 不会复制数据, 保证请求体可以重复写出
+            sink.writeAll(bytes.copy())
+        } else {
+            writer.writeValue(NonClosingOutputStream(sink.outputStream()), value)
+        }
+    }
+
+    private fun serializeBounded(): Buffer? {
+        val buffer = Buffer()
+        return try {
+            writer.writeValue(BoundedBufferOutputStream(buffer, BUFFER_LIMIT), value)
+            buffer
+        } catch (e: IOException) {
+            if (generateSequence<Throwable>(e) { it.cause }.none { it is BufferLimitExceeded }) throw e
+            buffer.clear()
+            null
+        }
+    }
+
+    /**
+     * Jackson 写完后会关闭输出流, 而 sink 由 OkHttp 管理, 这里只刷出不关闭
+     */
+    private class NonClosingOutputStream(private val out: OutputStream) : OutputStream() {
+        override fun write(b: Int) = out.write(b)
+        override fun write(b: ByteArray, off: Int, len: Int) = out.write(b, off, len)
+        override fun flush() = out.flush()
+        override fun close() = out.flush()
+    }
+
+    private class CountingOutputStream : OutputStream() {
+        var count = 0L
+        override fun write(b: Int) { count++ }
+        override fun write(b: ByteArray, off: Int, len: Int) { count += len }
+    }
+
+    private class BoundedBufferOutputStream(private val buffer: Buffer, private val limit: Long) : OutputStream() {
+        override fun write(b: Int) {
+            check(1)
+            buffer.writeByte(b)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            check(len)
+            buffer.write(b, off, len)
+        }
+
+        private fun check(len: Int) {
+            if (buffer.size + len > limit) throw BufferLimitExceeded()
+        }
+    }
+
+    /**
+     * 超过缓存上限时中断序列化, 只用于控制流程, 不需要堆栈
+     */
+    private class BufferLimitExceeded : IOException("request body exceeds buffer limit") {
+        override fun fillInStackTrace(): Throwable = this
+    }
+}
@@ -0,0 +1,83 @@
+package io.github.lookoutldz.easyrequester.common
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.databind.ObjectReader
+import com.fasterxml.jackson.databind.ObjectWriter
+import io.github.lookoutldz.easyrequester.util.defaultObjectMapper
+import io.github.lookoutldz.easyrequester.util.kotlinObjectMapper
+import java.lang.reflect.Type
+
+/**
+ * 按 (ObjectMapper, 类型) 缓存预先构建好的 ObjectReader / ObjectWriter, Kotlin 与 Java 两套请求器共用
+ * objectMapper.readValue(stream, clazz) 每次都要重新解析类型并查找根反序列化器,
+ * 而 ObjectReader 构建时已经确定了类型, 复用同一个 reader 可以省去这部分开销
+ *
+ * 缓存结构:
+ *  - 只缓存库内共享的两个 ObjectMapper (defaultObjectMapper / kotlinObjectMapper), 它们与进程同生命周期
+ *  - 用户自定义的 ObjectMapper 不进缓存, 每次直接构建 reader / writer, 根反序列化器仍由 ObjectMapper 自身缓存
+ *    reader / writer 的配置经由已注册的模块 (如 KotlinModule) 引用回 ObjectMapper,
+ *    任何全局缓存持有它们都会使用户丢弃的 ObjectMapper 无法回收
+ *  - 每个 ObjectMapper 的 reader / writer 放在有界的 LRU 缓存中, 避免运行时拼出的类型无限增长
+ * @author looko
+ * @date 2025/6/25
+ */
+internal object ObjectCodecs {
+
+    /**
+     * 每个 ObjectMapper 最多缓存的 reader / writer 类型数量
+     */
+    private const val MAX_TYPES = 512
+
+    private val kotlinCodecs = MapperCodecs()
+
+    private val defaultCodecs = MapperCodecs()
+
+    fun <T> reader(objectMapper: ObjectMapper, clazz: Class<T>): ObjectReader {
+        val codecs = codecs(objectMapper) ?: return objectMapper.readerFor(clazz)
+        return codecs.readers.getOrPut(clazz) { objectMapper.readerFor(clazz) }
+    }
+
+    fun <T> reader(objectMapper: ObjectMapper, typeReference: TypeReference<T>): ObjectReader {
+        val codecs = codecs(objectMapper) ?: return objectMapper.readerFor(typeReference)
+        return codecs.readers.getOrPut(typeReference.type) { objectMapper.readerFor(typeReference) }
+    }
+
+    fun writer(objectMapper: ObjectMapper, clazz: Class<*>): ObjectWriter {
+        val codecs = codecs(objectMapper) ?: return objectMapper.writerFor(clazz)
+        return codecs.writers.getOrPut(clazz) { objectMapper.writerFor(clazz) }
+    }
+
+    private fun codecs(objectMapper: ObjectMapper): MapperCodecs? = when {
+        objectMapper === kotlinObjectMapper -> kotlinCodecs
+        objectMapper === defaultObjectMapper -> defaultCodecs
+        else -> null
+    }
+
+    /**
+     * 单个共享 ObjectMapper 的 reader / writer 缓存
+     */
+    private class MapperCodecs {
+
+        val readers = LruCache<Type, ObjectReader>(MAX_TYPES)
+
+        val writers = LruCache<Class<*>, ObjectWriter>(MAX_TYPES)
+    }
+
+    /**
+     * 线程安全的有界 LRU 缓存
+     */
+    private class LruCache<K : Any, V : Any>(private val maxSize: Int) {
+
+        private val map = object : LinkedHashMap<K, V>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>?): Boolean = size > maxSize
+        }
+
+        fun getOrPut(key: K, compute: () -> V): V {
+            synchronized(map) { map[key] }?.let { return it }
+            // 在锁外构建, 并发时可能重复构建, 结果等价, 以先放入的为准
+            val value = compute()
+            return synchronized(map) { map.putIfAbsent(key, value) ?: value }
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package io.github.lookoutldz.easyrequester.common
+
+import okhttp3.Interceptor
+import okhttp3.MediaType
+import okhttp3.MediaType.Companion.toMediaTypeOrNull
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okio.Buffer
+import okio.BufferedSource
+import okio.ForwardingSource
+import okio.Source
+import okio.Timeout
+import okio.buffer
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 堆外响应体缓存策略: 原始响应字节存放在堆外 (direct ByteBuffer 或内存映射文件), 堆上只保留索引与响应头,
+ * 大量、较大的缓存响应不进入老年代, 不增加 GC 停顿
+ *  - 以 OkHttp 应用拦截器的形式接入客户端, 见 [ClientProfile.offHeapCache]; onResponse 等所有处理器都能使用
+ *  - 键为 URL (含查询参数) 与 varyHeaders 中各请求头的取值, 只缓存 GET 的 200 响应; 写入 ttl 后过期
+ *  - 响应体在处理器读取的同时写入堆外, 读到末尾后才可以命中; 处理器没有读完的响应不缓存
+ *  - 命中时不发出请求, 响应体直接从堆外分块读取, 不在堆上组装完整的字节数组; 默认的成功处理器照常按需解析
+ *  - 空间按 blockSize 分块管理, 容量满时淘汰最久未使用的条目; 正在被读取的条目在读取结束后才释放空间
+ *  - 请求带有 no-cache / no-store 或条件请求头, 以及响应带有 no-store 时不使用缓存
+ * mappedFile 不为 null 时使用该文件的内存映射作为存储, 打开时清空, 进程重启后不保留 (索引只在内存中); 否则使用 direct ByteBuffer,
+ * 受 -XX:MaxDirectMemorySize 限制. 两种方式都在首次用到时按区域 (最大 1 GiB) 分配
+ * 不再使用时调用 [close] 释放堆外空间
+ * @author looko
+ * @date 2025/7/11
+ */
+data class OffHeapCachePolicy(
+    val capacity: Long = 256L * 1024 * 1024,
+    val blockSize: Int = 64 * 1024,
+    /**
+     * 单个响应体的上限, 超过时不缓存
+     */
+    val maxEntryBytes: Long = capacity / 4,
+    val ttl: Duration = Duration.ofMinutes(5),
+    /**
+     * 取值参与缓存键的请求头, 不区分大小写
+     */
+    val varyHeaders: Set<String> = setOf("Accept", "Accept-Language", "Authorization", "Cookie"),
+    val mappedFile: File? = null,
+) {
+
+    init {
+        require(blockSize >= 1024) { "blockSize must be at least 1024" }
+        require(capacity >= blockSize) { "capacity must be at least one block" }
+        require(capacity / blockSize <= Int.MAX_VALUE) { "capacity has too many blocks, use a larger blockSize" }
+        require(maxEntryBytes in 1..capacity) { "maxEntryBytes must be in 1..capacity" }
+        require(!ttl.isNegative && !ttl.isZero) { "ttl must be positive" }
+    }
+
+    companion object {
+        private val caches = ConcurrentHashMap<OffHeapCachePolicy, OffHeapBodyCache>()
+
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    internal val varyNames = varyHeaders.map { it.lowercase() }.distinct().sorted()
+
+    /**
+     * 获取该策略的缓存, 用于查看统计或清空
+     */
+    fun cache(): OffHeapBodyCache = caches.computeIfAbsent(this) { OffHeapBodyCache(it) }
+
+    /**
+     * 关闭该策略的缓存并从共享的缓存中移除, 释放堆外空间, 见 [OffHeapBodyCache.close]
+     * 之后再调用 [cache] 会得到新的缓存, 但已经接入旧缓存的客户端不再缓存
+     */
+    fun close() {
+        caches.remove(this)?.close()
+    }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var policy = OffHeapCachePolicy()
+
+        fun setCapacity(capacity: Long): Builder = apply { policy = policy.copy(capacity = capacity, maxEntryBytes = minOf(policy.maxEntryBytes, capacity)) }
+        fun setBlockSize(blockSize: Int): Builder = apply { policy = policy.copy(blockSize = blockSize) }
+        fun setMaxEntryBytes(maxEntryBytes: Long): Builder = apply { policy = policy.copy(maxEntryBytes = maxEntryBytes) }
+        fun setTtl(ttl: Duration): Builder = apply { policy = policy.copy(ttl = ttl) }
+        fun setVaryHeaders(vararg names: String): Builder = apply { policy = policy.copy(varyHeaders = names.toSet()) }
+        fun setMappedFile(mappedFile: File?): Builder = apply { policy = policy.copy(mappedFile = mappedFile) }
+
+        fun build(): OffHeapCachePolicy = policy
+    }
+}
+
+/**
+ * 堆外响应体缓存, 由 [OffHeapCachePolicy.cache] 获取
+ * 索引与空闲块列表在同一把锁内维护, 块内容的读写在锁外进行: 条目被读取时固定 (pin), 淘汰后等读取结束再归还它的块
+ */
+class OffHeapBodyCache internal constructor(val policy: OffHeapCachePolicy) : Closeable {
+
+    private class Key(val url: String, val vary: List<String?>) {
+        override fun equals(other: Any?) = other is Key && other.url == url && other.vary == vary
+        override fun hashCode() = url.hashCode() * 31 + vary.hashCode()
+    }
+
+    private class Entry(val key: Key, val blocks: IntArray, val length: Long, val template: Response, val expiresAt: Long) {
+        var pins = 0
+        var removed = false
+    }
+
+    private val blockSize = policy.blockSize
+    private val blockCount = (policy.capacity / blockSize).toInt()
+    private val blocksPerRegion = (REGION_BYTES / blockSize).toInt()
+    private val regions = arrayOfNulls<ByteBuffer>((blockCount + blocksPerRegion - 1) / blocksPerRegion)
+    private val channel: FileChannel? = policy.mappedFile?.let {
+        FileChannel.open(it.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)
+    }
+
+    private val freeBlocks = ArrayDeque<Int>()
+    // 从未使用过的块从 highWater 开始, 用到时才分配所在的区域
+    private var highWater = 0
+    private var usedBlocks = 0
+    // 访问顺序, 头部最久未使用
+    private val index = LinkedHashMap<Key, Entry>(16, 0.75f, true)
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+    private var closed = false
+
+    val hitCount: Long
+        @Synchronized get() = hits
+
+    val missCount: Long
+        @Synchronized get() = misses
+
+    val evictionCount: Long
+        @Synchronized get() = evictions
+
+    val size: Int
+        @Synchronized get() = index.size
+
+    /**
+     * 已占用的堆外字节数, 包括正在写入与等待读取结束的块
+     */
+    val usedBytes: Long
+        @Synchronized get() = usedBlocks.toLong() * blockSize
+
+    /**
+     * 清空缓存, 正在被读取的条目在读取结束后释放
+     */
+    @Synchronized
+    fun invalidateAll() {
+        index.values.toList().forEach { retire(it) }
+    }
+
+    /**
+     * 关闭缓存: 清空条目, 之后的请求直接发出且不再缓存; 所有块归还后 (正在读取与写入的条目结束后) 丢弃堆外区域并关闭映射文件
+     */
+    @Synchronized
+    override fun close() {
+        if (closed) {
+            return
+        }
+        closed = true
+        invalidateAll()
+        releaseRegions()
+    }
+
+    /**
+     * 接入客户端的应用拦截器
+     */
+    internal val interceptor = Interceptor { chain -> intercept(chain) }
+
+    private fun intercept(chain: Interceptor.Chain): Response {
+        val request = chain.request()
+        if (closed || !cacheable(request)) {
+            return chain.proceed(request)
+        }
+        val key = Key(request.url.toString(), policy.varyNames.map { request.header(it) })
+        lookup(key)?.let { entry ->
+            return entry.template.newBuilder().request(request).body(BlockBody(entry)).build()
+        }
+        val response = chain.proceed(request)
+        val body = response.body
+        if (body == null || response.code != 200 || response.cacheControl.noStore || body.contentLength() > policy.maxEntryBytes) {
+            return response
+        }
+        val writer = BlockWriter(key, response.newBuilder().body(null).build())
+        return response.newBuilder().body(TeeBody(body, writer)).build()
+    }
+
+    private fun cacheable(request: Request): Boolean =
+        request.method == "GET" &&
+            !request.cacheControl.noCache &&
+            !request.cacheControl.noStore &&
+            request.header("If-None-Match") == null &&
+            request.header("If-Modified-Since") == null
+
+    @Synchronized
+    private fun lookup(key: Key): Entry? {
+        val entry = index[key]
+        if (entry == null || entry.expiresAt - System.nanoTime() <= 0) {
+            entry?.let { retire(it) }
+            misses++
+            return null
+        }
+        hits++
+        entry.pins++
+        return entry
+    }
+
+    @Synchronized
+    private fun release(entry: Entry) {
+        entry.pins--
+        if (entry.pins == 0 && entry.removed) {
+            free(entry.blocks)
+        }
+    }
+
+    /**
+     * 分配一个块, 没有空闲块时淘汰最久未使用的条目; 空间都被固定的条目占用时返回 -1
+     */
+    @Synchronized
+    private fun allocate(): Int {
+        if (closed) {
+            return -1
+        }
+        while (true) {
+            freeBlocks.removeFirstOrNull()?.let {
+                usedBlocks++
+                return it
+            }
+            if (highWater < blockCount) {
+                val block = highWater++
+                val region = block / blocksPerRegion
+                if (regions[region] == null) {
+                    regions[region] = allocateRegion(region)
+                }
+                usedBlocks++
+                return block
+            }
+            val eldest = index.values.firstOrNull() ?: return -1
+            retire(eldest)
+            evictions++
+        }
+    }
+
+    private fun allocateRegion(region: Int): ByteBuffer {
+        val bytes = minOf(blocksPerRegion, blockCount - region * blocksPerRegion) * blockSize
+        val position = region.toLong() * blocksPerRegion * blockSize
+        return channel?.map(FileChannel.MapMode.READ_WRITE, position, bytes.toLong()) ?: ByteBuffer.allocateDirect(bytes)
+    }
+
+    @Synchronized
+    private fun commit(entry: Entry) {
+        if (closed) {
+            free(entry.blocks)
+            return
+        }
+        index.remove(entry.key)?.let { retire(it) }
+        index[entry.key] = entry
+    }
+
+    @Synchronized
+    private fun free(blocks: IntArray) {
+        blocks.forEach { freeBlocks.addLast(it) }
+        usedBlocks -= blocks.size
+        if (closed) {
+            releaseRegions()
+        }
+    }
+
+    /**
+     * 关闭后没有块在使用时丢弃区域, direct ByteBuffer 与映射随 GC 释放
+     */
+    private fun releaseRegions() {
+        if (usedBlocks == 0) {
+            regions.fill(null)
+            freeBlocks.clear()
+            channel?.close()
+        }
+    }
+
+    private fun retire(entry: Entry) {
+        index.remove(entry.key, entry)
+        entry.removed = true
+        if (entry.pins == 0) {
+            free(entry.blocks)
+        }
+    }
+
+    /**
+     * 块的视图, 调用方通过锁取得块号之后在锁外读写
+     */
+    private fun block(block: Int, offset: Int, length: Int): ByteBuffer =
+        regions[block / blocksPerRegion]!!.slice((block % blocksPerRegion) * blockSize + offset, length)
+
+    override fun toString(): String =
+        "OffHeapBodyCache(size=$size, used=$usedBytes/${policy.capacity}, hits=$hitCount, misses=$missCount, evictions=$evictionCount)"
+
+    /**
+     * 把处理器读到的字节写入堆外的块, 读到末尾时提交
+     */
+    private inner class BlockWriter(private val key: Key, private val template: Response) {
+
+        private var blocks = IntArray(4)
+        private var blockUsed = 0
+        private var length = 0L
+        private var finished = false
+        private val scratch = Buffer()
+
+        fun write(buffer: Buffer, offset: Long, byteCount: Long) {
+            if (finished) {
+                return
+            }
+            if (length + byteCount > policy.maxEntryBytes) {
+                abort()
+                return
+            }
+            var position = offset
+            var remaining = byteCount
+            while (remaining > 0) {
+                val inBlock = (length % blockSize).toInt()
+                if (inBlock == 0) {
+                    val block = allocate()
+                    if (block < 0) {
+                        abort()
+                        return
+                    }
+                    if (blockUsed == blocks.size) {
+                        blocks = blocks.copyOf(blocks.size * 2)
+                    }
+                    blocks[blockUsed++] = block
+                }
+                val count = minOf(remaining, (blockSize - inBlock).toLong()).toInt()
+                // 共享 okio 的段而不复制, 再写入堆外
+                buffer.copyTo(scratch, position, count.toLong())
+                val target = block(blocks[blockUsed - 1], inBlock, count)
+                while (target.hasRemaining()) {
+                    scratch.read(target)
+                }
+                position += count
+                remaining -= count
+                length += count
+            }
+        }
+
+        fun commit() {
+            if (finished) {
+                return
+            }
+            finished = true
+            commit(Entry(key, blocks.copyOf(blockUsed), length, template, System.nanoTime() + policy.ttl.toNanos()))
+        }
+
+        fun abort() {
+            if (finished) {
+                return
+            }
+            finished = true
+            scratch.clear()
+            free(blocks.copyOf(blockUsed))
+        }
+    }
+
+    /**
+     * 网络响应体: 处理器读取的同时写入堆外; 没有读到末尾就关闭时, 最多再读取一个块的剩余字节 (例如 JSON 之后的结束分块), 仍未结束则放弃缓存
+     */
+    private inner class TeeBody(private val delegate: ResponseBody, private val writer: BlockWriter) : ResponseBody() {
+
+        private var done = false
+
+        private val source: BufferedSource by lazy {
+            object : ForwardingSource(delegate.source()) {
+                override fun read(sink: Buffer, byteCount: Long): Long {
+                    val read = try {
+                        super.read(sink, byteCount)
+                    } catch (e: IOException) {
+                        finish(false)
+                        throw e
+                    }
+                    if (read == -1L) {
+                        finish(true)
+                    } else if (!done) {
+                        writer.write(sink, sink.size - read, read)
+                    }
+                    return read
+                }
+
+                override fun close() {
+                    if (!done) {
+                        val drain = Buffer()
+                        var drained = 0L
+                        try {
+                            while (!done && drained < blockSize && read(drain, blockSize.toLong()) != -1L) {
+                                drained += drain.size
+                                drain.clear()
+                            }
+                        } catch (e: IOException) {
+                            // 放弃缓存, 不影响处理器
+                        }
+                        finish(false)
+                    }
+                    super.close()
+                }
+            }.buffer()
+        }
+
+        private fun finish(complete: Boolean) {
+            if (done) {
+                return
+            }
+            done = true
+            if (complete) writer.commit() else writer.abort()
+        }
+
+        override fun contentType(): MediaType? = delegate.contentType()
+
+        override fun contentLength(): Long = delegate.contentLength()
+
+        override fun source(): BufferedSource = source
+
+        override fun close() = source.close()
+    }
+
+    /**
+     * 命中的响应体, 按块从堆外读取; 关闭时解除固定
+     */
+    private inner class BlockBody(private val entry: Entry) : ResponseBody() {
+
+        private val source: BufferedSource by lazy { BlockSource(entry).buffer() }
+
+        private var closed = false
+
+        override fun contentType(): MediaType? = entry.template.header("Content-Type")?.toMediaTypeOrNull()
+
+        override fun contentLength(): Long = entry.length
+
+        override fun source(): BufferedSource = source
+
+        @Synchronized
+        override fun close() {
+            if (!closed) {
+                closed = true
+                release(entry)
+            }
+        }
+    }
+
+    private inner class BlockSource(private val entry: Entry) : Source {
+
+        private var position = 0L
+
+        override fun read(sink: Buffer, byteCount: Long): Long {
+            if (position >= entry.length) {
+                return -1
+            }
+            val inBlock = (position % blockSize).toInt()
+            val count = minOf(byteCount, (blockSize - inBlock).toLong(), entry.length - position).toInt()
+            sink.write(block(entry.blocks[(position / blockSize).toInt()], inBlock, count))
+            position += count
+            return count.toLong()
+        }
+
+        override fun timeout(): Timeout = Timeout.NONE
+
+        override fun close() {}
+    }
+
+    private companion object {
+        const val REGION_BYTES = 1L shl 30
+    }
+}
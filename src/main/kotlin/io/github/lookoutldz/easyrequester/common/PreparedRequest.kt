@@ -0,0 +1,148 @@
+package io.github.lookoutldz.easyrequester.common
+
+import okhttp3.Headers
+import okhttp3.HttpUrl
+import okhttp3.HttpUrl.Companion.toHttpUrl
+import okhttp3.Request
+
+/**
+ * 预处理好的请求模板, Kotlin 与 Java 两套请求器共用
+ * 解析后的 HttpUrl、不可变的 Headers (含默认 User-Agent、Content-Type 与拼接好的 Cookie) 只生成一次,
+ * 每次请求只处理变化的部分: 路径变量与查询参数
+ *
+ * 路径变量以 {name} 表示, 必须占据完整的路径段, 例如 https://api.example.com/users/{id}/orders
+ * 同一个模板可以在多个 Builder 间共享, 见 Builder.setPreparedRequest
+ * 请求器只在调用方显式使用模板 (setPreparedRequest / setPathVariables) 时解析路径变量, 仅 setUrl 的 URL 原样发送
+ * @author looko
+ * @date 2025/6/28
+ */
+class PreparedRequest private constructor(
+    val url: String,
+    val httpUrl: HttpUrl,
+    val headers: Headers,
+    /**
+     * 路径变量名 -> 路径段下标
+     */
+    private val pathVariableIndexes: Map<String, Int>,
+) {
+
+    companion object {
+        private const val USER_AGENT_KEY = "User-Agent"
+        private const val USER_AGENT_DEFAULT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/129.0.0.0 Safari/537.36"
+        private const val CONTENT_TYPE_KEY = "Content-Type"
+        private const val COOKIE_KEY = "Cookie"
+
+        private val pathVariablePattern = Regex("""\{([^{}/]+)}""")
+
+        /**
+         * 生成模板, 头信息与 Cookie 中键或值为空白的条目会被忽略
+         * @param contentType 头信息中没有 Content-Type 时使用的默认值, 为 null 时不添加
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun of(
+            url: String,
+            headers: Map<String, String>? = null,
+            cookies: Map<String, String>? = null,
+            contentType: String? = null,
+        ): PreparedRequest {
+            val httpUrl = url.toHttpUrl()
+            return PreparedRequest(url, httpUrl, buildHeaders(headers, cookies, contentType), pathVariableIndexes(httpUrl))
+        }
+
+        /**
+         * 生成不解析路径变量的模板, URL 原样使用, 其中的 {...} 按普通字符编码
+         * 请求器在调用方没有显式使用模板 (setPreparedRequest / setPathVariables) 时使用, 与原先直接拼接 URL 的行为一致
+         */
+        internal fun literal(
+            url: String,
+            headers: Map<String, String>? = null,
+            cookies: Map<String, String>? = null,
+            contentType: String? = null,
+        ): PreparedRequest {
+            return PreparedRequest(url, url.toHttpUrl(), buildHeaders(headers, cookies, contentType), emptyMap())
+        }
+
+        private fun buildHeaders(headers: Map<String, String>?, cookies: Map<String, String>?, contentType: String?): Headers {
+            val builder = Headers.Builder()
+            var hasUserAgent = false
+            var hasContentType = false
+            headers?.forEach { (key, value) ->
+                // 与空白值无关, 只要指定了同名的头就不再使用默认值
+                hasUserAgent = hasUserAgent || key.equals(USER_AGENT_KEY, true)
+                hasContentType = hasContentType || key.equals(CONTENT_TYPE_KEY, true)
+                if (key.isNotBlank() && value.isNotBlank()) {
+                    builder[key] = value
+                }
+            }
+            if (contentType != null && !hasContentType) {
+                builder[CONTENT_TYPE_KEY] = contentType
+            }
+            if (!hasUserAgent) {
+                builder.add(USER_AGENT_KEY, USER_AGENT_DEFAULT)
+            }
+            if (cookies != null) {
+                val cookieString = StringBuilder()
+                cookies.forEach { (key, value) ->
+                    if (key.isNotBlank() && value.isNotBlank()) {
+                        if (cookieString.isNotEmpty()) cookieString.append("; ")
+                        cookieString.append(key).append('=').append(value)
+                    }
+                }
+                if (cookieString.isNotEmpty()) {
+                    builder.add(COOKIE_KEY, cookieString.toString())
+                }
+            }
+            return builder.build()
+        }
+
+        private fun pathVariableIndexes(httpUrl: HttpUrl): Map<String, Int> {
+            val indexes = LinkedHashMap<String, Int>()
+            httpUrl.pathSegments.forEachIndexed { index, segment ->
+                val match = pathVariablePattern.matchEntire(segment)
+                if (match != null) {
+                    indexes[match.groupValues[1]] = index
+                } else {
+                    require(!pathVariablePattern.containsMatchIn(segment)) {
+                        "Path variable must occupy a whole path segment: $segment"
+                    }
+                }
+            }
+            return indexes
+        }
+    }
+
+    /**
+     * 模板中的路径变量名
+     */
+    val pathVariableNames: Set<String>
+        get() = pathVariableIndexes.keys
+
+    /**
+     * 生成本次请求的 Request.Builder
+     * 没有路径变量与查询参数时直接复用解析好的 HttpUrl, 不再解析 URL
+     * @param pathVariables 路径变量的值, 会按路径段编码; 模板中的变量必须全部提供
+     * @param params 查询参数, 键为空白的条目会被忽略
+     */
+    @JvmOverloads
+    fun newRequestBuilder(pathVariables: Map<String, String>? = null, params: Map<String, String>? = null): Request.Builder {
+        val requestUrl = if (pathVariableIndexes.isEmpty() && params.isNullOrEmpty()) {
+            httpUrl
+        } else {
+            val urlBuilder = httpUrl.newBuilder()
+            pathVariableIndexes.forEach { (name, index) ->
+                val value = pathVariables?.get(name) ?: throw IllegalArgumentException("Missing path variable '$name' for $url")
+                urlBuilder.setPathSegment(index, value)
+            }
+            params?.forEach { (key, value) ->
+                if (key.isNotBlank()) {
+                    urlBuilder.addQueryParameter(key, value)
+                }
+            }
+            urlBuilder.build()
+        }
+        return Request.Builder().url(requestUrl).headers(headers)
+    }
+
+    override fun toString(): String = "PreparedRequest($url)"
+}
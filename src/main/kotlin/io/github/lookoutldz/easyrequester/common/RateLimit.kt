@@ -0,0 +1,287 @@
+package io.github.lookoutldz.easyrequester.common
+
+import okhttp3.HttpUrl
+import okhttp3.Response
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.ceil
+
+/**
+ * 客户端限流策略, 按主机 (host:port) 与路径前缀分别配置令牌桶配额, 在请求发出前等待令牌
+ * 一个请求需要同时取得主机配额与匹配到的最长路径前缀配额的令牌; 需要等待的时间超过 maxWait 时以 [RateLimitExceededException] 失败
+ * 同步执行在调用线程上等待, 异步与挂起执行延迟调度, 等待期间不占用线程
+ * honorResponseHeaders 为 true 时根据响应头调整令牌桶 (调整请求所用的最具体的那个桶):
+ *  - 429/503 携带的 Retry-After (秒数或 HTTP 日期): 在此之前暂停发放令牌
+ *  - RateLimit-Remaining / RateLimit-Reset (或 X-RateLimit-*, 或合并的 RateLimit 头): 剩余为 0 时暂停到重置, 否则在重置前把速率降到 remaining / reset
+ * 主机与每个路径前缀各有一个令牌桶, 见 [bucketFor]
+ * @author looko
+ * @date 2025/7/4
+ */
+data class RateLimitPolicy(
+    /**
+     * 每个主机的配额, 为 null 时只按路径前缀限流
+     */
+    val hostQuota: RateQuota? = RateQuota(10.0),
+    /**
+     * 路径前缀 (例如 "/api/search") 到配额的映射, 按最长前缀匹配
+     */
+    val routeQuotas: Map<String, RateQuota> = emptyMap(),
+    val maxWait: Duration = Duration.ofSeconds(5),
+    val honorResponseHeaders: Boolean = true,
+) {
+
+    init {
+        require(!maxWait.isNegative) { "maxWait must not be negative" }
+        require(routeQuotas.keys.all { it.startsWith("/") }) { "Route prefixes must start with '/'" }
+    }
+
+    companion object {
+        private val buckets = ConcurrentHashMap<Pair<RateLimitPolicy, String>, RateLimiter>()
+
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    private val routesByLength = routeQuotas.entries.sortedByDescending { it.key.length }
+
+    /**
+     * 获取主机的令牌桶, prefix 不为 null 时获取该路径前缀的令牌桶; 未配置对应配额时返回 null
+     */
+    @JvmOverloads
+    fun bucketFor(host: String, port: Int, prefix: String? = null): RateLimiter? {
+        val quota = (if (prefix == null) hostQuota else routeQuotas[prefix]) ?: return null
+        return buckets.computeIfAbsent(this to "$host:$port${prefix ?: ""}") { RateLimiter(quota, host, port, prefix) }
+    }
+
+    /**
+     * 请求需要取得令牌的桶, 主机在前, 路径前缀在后
+     */
+    internal fun bucketsFor(url: HttpUrl): List<RateLimiter> {
+        val prefix = routesByLength.firstOrNull { url.encodedPath.startsWith(it.key) }?.key
+        return listOfNotNull(bucketFor(url.host, url.port), prefix?.let { bucketFor(url.host, url.port, it) })
+    }
+
+    /**
+     * 依次从各个桶预订一个令牌, 需要等待的时间取各预订中最长的; 任一桶需要等待过久时退还已预订的令牌
+     * @throws RateLimitExceededException 需要等待的时间超过 maxWait
+     */
+    internal fun reserve(buckets: List<RateLimiter>): List<RateLimiter.Reservation> {
+        val reservations = ArrayList<RateLimiter.Reservation>(buckets.size)
+        buckets.forEach { bucket ->
+            try {
+                reservations += bucket.reserve(maxWait.toNanos())
+            } catch (e: RateLimitExceededException) {
+                reservations.forEach { it.refund() }
+                throw e
+            }
+        }
+        return reservations
+    }
+
+    /**
+     * 根据响应头调整请求所用的最具体的桶
+     */
+    internal fun onResponse(buckets: List<RateLimiter>, response: Response) {
+        if (honorResponseHeaders) {
+            buckets.lastOrNull()?.let { RateLimitHeaders.apply(it, response) }
+        }
+    }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var hostQuota: RateQuota? = RateQuota(10.0)
+        private val routeQuotas = linkedMapOf<String, RateQuota>()
+        private var maxWait: Duration = Duration.ofSeconds(5)
+        private var honorResponseHeaders: Boolean = true
+
+        @JvmOverloads
+        fun setHostQuota(permitsPerSecond: Double, burst: Int = RateQuota.defaultBurst(permitsPerSecond)): Builder =
+            apply { this.hostQuota = RateQuota(permitsPerSecond, burst) }
+        fun noHostQuota(): Builder = apply { this.hostQuota = null }
+        @JvmOverloads
+        fun addRouteQuota(prefix: String, permitsPerSecond: Double, burst: Int = RateQuota.defaultBurst(permitsPerSecond)): Builder =
+            apply { this.routeQuotas[prefix] = RateQuota(permitsPerSecond, burst) }
+        fun setMaxWait(maxWait: Duration): Builder = apply { this.maxWait = maxWait }
+        fun setHonorResponseHeaders(honor: Boolean): Builder = apply { this.honorResponseHeaders = honor }
+
+        fun build() = RateLimitPolicy(
+            hostQuota = hostQuota,
+            routeQuotas = routeQuotas.toMap(),
+            maxWait = maxWait,
+            honorResponseHeaders = honorResponseHeaders,
+        )
+    }
+}
+
+/**
+ * 令牌桶配额: 每秒补充 permitsPerSecond 个令牌, 最多积攒 burst 个
+ */
+data class RateQuota(
+    val permitsPerSecond: Double,
+    val burst: Int = defaultBurst(permitsPerSecond),
+) {
+    init {
+        require(permitsPerSecond > 0) { "permitsPerSecond must be positive" }
+        require(burst >= 1) { "burst must be at least 1" }
+    }
+
+    companion object {
+        internal fun defaultBurst(permitsPerSecond: Double) = maxOf(1, ceil(permitsPerSecond).toInt())
+    }
+}
+
+/**
+ * 单个令牌桶, 由 [RateLimitPolicy.bucketFor] 获取
+ * 以 GCRA 的方式实现: 只维护下一个令牌的理论到达时间, 预订令牌是一次 CAS, 不加锁
+ */
+class RateLimiter internal constructor(
+    val quota: RateQuota,
+    val host: String,
+    val port: Int,
+    /**
+     * 路径前缀, 主机级别的桶为 null
+     */
+    val route: String?,
+) {
+
+    private val intervalNanos = (1_000_000_000 / quota.permitsPerSecond).toLong()
+    private val toleranceNanos = intervalNanos * (quota.burst - 1)
+
+    /**
+     * 理论到达时间, 不早于它减去 toleranceNanos 的请求可以立即发出
+     */
+    private val arrival = AtomicLong(System.nanoTime())
+
+    /**
+     * 服务端通过 RateLimit-* 头要求的发放间隔及其截止时间
+     */
+    @Volatile
+    private var serverIntervalNanos = 0L
+    @Volatile
+    private var serverIntervalUntil = 0L
+
+    /**
+     * 当前可以立即取得的令牌数
+     */
+    val availablePermits: Int
+        get() {
+            val now = System.nanoTime()
+            val permits = Math.floorDiv(now - arrival.get() + toleranceNanos, currentInterval(now)) + 1
+            return permits.coerceIn(0, quota.burst.toLong()).toInt()
+        }
+
+    /**
+     * 一次预订: 取得令牌前需要等待的纳秒数, 以及预订时推进的间隔, 退还时原样扣回
+     */
+    internal inner class Reservation(val waitNanos: Long, private val intervalNanos: Long) {
+        /**
+         * 退还已预订但没有使用的令牌
+         */
+        fun refund() {
+            arrival.addAndGet(-intervalNanos)
+        }
+    }
+
+    /**
+     * 预订一个令牌
+     * @throws RateLimitExceededException 需要等待的时间超过 maxWaitNanos, 此时不预订
+     */
+    internal fun reserve(maxWaitNanos: Long): Reservation {
+        while (true) {
+            val now = System.nanoTime()
+            val stored = arrival.get()
+            val base = if (stored - now > 0) stored else now
+            val wait = maxOf(0L, base - toleranceNanos - now)
+            if (wait > maxWaitNanos) {
+                throw RateLimitExceededException(host, port, route, Duration.ofNanos(wait))
+            }
+            val interval = currentInterval(now)
+            if (arrival.compareAndSet(stored, base + interval)) {
+                return Reservation(wait, interval)
+            }
+        }
+    }
+
+    /**
+     * 在 deadlineNanos (System.nanoTime 时间) 之前不再发放令牌
+     */
+    internal fun pauseUntil(deadlineNanos: Long) {
+        val arrivalAfterPause = deadlineNanos + toleranceNanos
+        arrival.accumulateAndGet(arrivalAfterPause) { current, paused -> if (paused - current > 0) paused else current }
+    }
+
+    /**
+     * 服务端告知重置前还剩 remaining 次, 剩余为 0 时暂停到重置, 否则在重置前按服务端的余量放慢发放
+     */
+    internal fun throttle(remaining: Long, resetNanos: Long) {
+        val now = System.nanoTime()
+        if (remaining <= 0) {
+            pauseUntil(now + resetNanos)
+            return
+        }
+        serverIntervalNanos = resetNanos / remaining
+        serverIntervalUntil = now + resetNanos
+    }
+
+    private fun currentInterval(now: Long): Long =
+        if (serverIntervalUntil - now > 0) maxOf(intervalNanos, serverIntervalNanos) else intervalNanos
+
+    override fun toString(): String = "RateLimiter($host:$port${route ?: ""}, ${quota.permitsPerSecond}/s, burst=${quota.burst})"
+}
+
+/**
+ * 解析服务端的限流响应头
+ */
+internal object RateLimitHeaders {
+
+    private val combinedRemaining = Regex("""\b(?:remaining|r)=(\d+)""")
+    private val combinedReset = Regex("""\b(?:reset|t)=(\d+)""")
+
+    /**
+     * 大于该值的重置时间视为 epoch 秒 (GitHub 等服务的 X-RateLimit-Reset), 否则为剩余秒数
+     */
+    private const val EPOCH_SECONDS_THRESHOLD = 1_000_000_000L
+
+    fun apply(bucket: RateLimiter, response: Response) {
+        if (response.code == 429 || response.code == 503) {
+            retryAfterNanos(response)?.let {
+                bucket.pauseUntil(System.nanoTime() + it)
+                return
+            }
+        }
+        val combined = response.header("RateLimit")
+        val remaining = (response.header("RateLimit-Remaining") ?: response.header("X-RateLimit-Remaining"))?.trim()?.toLongOrNull()
+            ?: combined?.let { combinedRemaining.find(it)?.groupValues?.get(1)?.toLongOrNull() }
+            ?: return
+        val reset = (response.header("RateLimit-Reset") ?: response.header("X-RateLimit-Reset"))?.trim()?.toLongOrNull()
+            ?: combined?.let { combinedReset.find(it)?.groupValues?.get(1)?.toLongOrNull() }
+            ?: return
+        val resetSeconds = if (reset > EPOCH_SECONDS_THRESHOLD) reset - System.currentTimeMillis() / 1000 else reset
+        if (resetSeconds > 0) {
+            bucket.throttle(remaining, Duration.ofSeconds(resetSeconds).toNanos())
+        }
+    }
+
+    private fun retryAfterNanos(response: Response): Long? {
+        val value = response.header("Retry-After")?.trim() ?: return null
+        value.toLongOrNull()?.let { return Duration.ofSeconds(it).toNanos().takeIf { nanos -> nanos > 0 } }
+        val date = response.headers.getDate("Retry-After") ?: return null
+        return Duration.ofMillis(date.time - System.currentTimeMillis()).toNanos().takeIf { it > 0 }
+    }
+}
+
+/**
+ * 取得令牌需要等待的时间超过 maxWait, 请求没有发出
+ */
+class RateLimitExceededException(
+    val host: String,
+    val port: Int,
+    /**
+     * 触发限流的路径前缀, 主机级别的限流为 null
+     */
+    val route: String?,
+    val requiredWait: Duration,
+) : RuntimeException("Rate limit for $host:$port${route ?: ""} exceeded, would wait ${requiredWait.toMillis()} ms", null, false, false)
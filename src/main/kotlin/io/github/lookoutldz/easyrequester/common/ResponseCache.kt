@@ -0,0 +1,724 @@
+package io.github.lookoutldz.easyrequester.common
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import okhttp3.MediaType
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okio.Buffer
+import okio.BufferedSource
+import okio.ForwardingSource
+import okio.buffer
+import java.lang.ref.WeakReference
+import java.net.HttpURLConnection
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+/**
+ * 反序列化结果的内存缓存策略: 缓存默认成功处理器解析出的 T, 命中时直接交给 onSuccess, 不经过 OkHttpClient 与 ObjectMapper
+ *  - 键为请求方法、URL (含查询参数)、varyHeaders 中各请求头的取值, 以及解析的目标类型与 ObjectMapper
+ *  - 只缓存 GET 的 2xx 响应, 响应带有 Cache-Control: no-store 时不缓存; 写入 ttl 后过期, 响应带有 max-age 时以其为准
+ *  - staleWhileRevalidate 大于 0 时, 过期后的这段时间内仍然立即使用旧的结果, 同时在后台发出一次刷新请求 (同一条目只有一个),
+ *    刷新的结果供之后的请求使用; 响应的 stale-while-revalidate 指令优先, no-cache / must-revalidate 时不使用旧的结果
+ *  - revalidate 为 true 时记录响应的 ETag / Last-Modified, 过期的条目不删除, 下次请求附加 If-None-Match / If-Modified-Since,
+ *    服务端返回 304 时刷新过期时间并把缓存的 T 交给 onSuccess, 不再下载与解析响应体;
+ *    ttl 为 0 或响应带有 Cache-Control: no-cache 时每次都发出条件请求, 后台刷新同样使用条件请求
+ *  - 按权重限制容量, 权重由 weigher 根据响应体字节数计算; 容量满时按 W-TinyLFU 淘汰, 见 [ResponseCache]
+ *  - 自定义了 onResponse / onResponseSuccess 或 onEach 时不使用缓存
+ * 命中时交给 onSuccess 的 T 与之前的请求共享同一实例, 请把它视为只读
+ * 等值的策略取得同一个 [cache], 直到 [close]; weigher 按实例比较
+ * @author looko
+ * @date 2025/7/9
+ */
+data class ResponseCachePolicy(
+    /**
+     * 所有条目的权重之和的上限, 默认权重为响应体字节数
+     */
+    val maximumWeight: Long = 16L * 1024 * 1024,
+    /**
+     * 条目写入或重新验证后保持新鲜的时间, 新鲜的条目不发出请求
+     */
+    val ttl: Duration = Duration.ofMinutes(5),
+    /**
+     * 取值参与缓存键的请求头, 不区分大小写
+     */
+    val varyHeaders: Set<String> = setOf("Accept", "Accept-Language", "Authorization", "Cookie"),
+    val weigher: CacheWeigher = CacheWeigher.BODY_SIZE,
+    /**
+     * 过期后是否用 ETag / Last-Modified 发出条件请求
+     */
+    val revalidate: Boolean = true,
+    /**
+     * 过期后仍然可以先使用旧的结果、同时在后台刷新的时间, 为 0 时过期后的请求等待网络
+     */
+    val staleWhileRevalidate: Duration = Duration.ZERO,
+) {
+
+    init {
+        require(maximumWeight >= 100) { "maximumWeight must be at least 100" }
+        require(!ttl.isNegative) { "ttl must not be negative" }
+        require(!staleWhileRevalidate.isNegative) { "staleWhileRevalidate must not be negative" }
+    }
+
+    companion object {
+        private val caches = ConcurrentHashMap<ResponseCachePolicy, ResponseCache>()
+
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    private val varyNames = varyHeaders.map { it.lowercase() }.distinct().sorted()
+
+    /**
+     * 获取该策略的缓存, 用于查看统计或失效条目
+     */
+    fun cache(): ResponseCache = caches.computeIfAbsent(this) { ResponseCache(it) }
+
+    /**
+     * 清空该策略的缓存并从共享的缓存中移除, 之后再调用 [cache] 会得到新的缓存
+     */
+    fun close() {
+        caches.remove(this)?.invalidateAll()
+    }
+
+    internal fun keyFor(request: Request, type: Any): CacheKey =
+        CacheKey(request.method, request.url.toString(), varyNames.map { request.header(it) }, type)
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var policy = ResponseCachePolicy()
+
+        fun setMaximumWeight(maximumWeight: Long): Builder = apply { policy = policy.copy(maximumWeight = maximumWeight) }
+        fun setTtl(ttl: Duration): Builder = apply { policy = policy.copy(ttl = ttl) }
+        fun setVaryHeaders(vararg names: String): Builder = apply { policy = policy.copy(varyHeaders = names.toSet()) }
+        fun addVaryHeader(name: String): Builder = apply { policy = policy.copy(varyHeaders = policy.varyHeaders + name) }
+        fun setWeigher(weigher: CacheWeigher): Builder = apply { policy = policy.copy(weigher = weigher) }
+        fun setRevalidate(revalidate: Boolean): Builder = apply { policy = policy.copy(revalidate = revalidate) }
+        fun setStaleWhileRevalidate(staleWhileRevalidate: Duration): Builder = apply { policy = policy.copy(staleWhileRevalidate = staleWhileRevalidate) }
+
+        fun build(): ResponseCachePolicy = policy
+    }
+}
+
+/**
+ * 计算缓存条目的权重
+ */
+fun interface CacheWeigher {
+
+    /**
+     * @param bodyBytes 响应体的字节数
+     * @param value 解析出的结果
+     */
+    fun weigh(bodyBytes: Long, value: Any): Long
+
+    companion object {
+        /**
+         * 以响应体字节数作为权重, 近似反映解析结果占用的内存
+         */
+        @JvmField
+        val BODY_SIZE = CacheWeigher { bodyBytes, _ -> bodyBytes }
+    }
+}
+
+internal data class CacheKey(val method: String, val url: String, val vary: List<String?>, val type: Any)
+
+/**
+ * 缓存键中的目标类型与 ObjectMapper: ObjectMapper 按实例比较且只被弱引用, 缓存的条目不会阻止它被回收;
+ * 回收之后条目不再命中, 随淘汰或过期删除
+ */
+internal class CacheType(objectMapper: ObjectMapper, private val type: Any) {
+
+    private val objectMapper = WeakReference(objectMapper)
+
+    private val hash = System.identityHashCode(objectMapper) * 31 + type.hashCode()
+
+    override fun equals(other: Any?): Boolean {
+        if (other === this) {
+            return true
+        }
+        if (other !is CacheType || other.hash != hash || other.type != type) {
+            return false
+        }
+        val mapper = objectMapper.get()
+        return mapper != null && mapper === other.objectMapper.get()
+    }
+
+    override fun hashCode(): Int = hash
+}
+
+/**
+ * 响应的验证器, 条目过期后用于发出条件请求
+ */
+internal class CacheValidators(val etag: String?, val lastModified: String?) {
+
+    /**
+     * 附加条件请求头, 调用方自己设置的条件请求头保持不变
+     */
+    fun conditional(request: Request): Request {
+        if (request.header("If-None-Match") != null || request.header("If-Modified-Since") != null) {
+            return request
+        }
+        val builder = request.newBuilder()
+        etag?.let { builder.header("If-None-Match", it) }
+        lastModified?.let { builder.header("If-Modified-Since", it) }
+        return builder.build()
+    }
+
+    companion object {
+        fun of(response: Response): CacheValidators? {
+            val etag = response.header("ETag")
+            val lastModified = response.header("Last-Modified")
+            return if (etag == null && lastModified == null) null else CacheValidators(etag, lastModified)
+        }
+    }
+}
+
+/**
+ * 条目保持新鲜的时间, 以及过期后仍然可以先使用、同时在后台刷新的时间, 由响应的 Cache-Control 与策略决定
+ */
+internal class CacheFreshness(val ttlNanos: Long, val staleNanos: Long) {
+
+    companion object {
+        fun of(response: Response, policy: ResponseCachePolicy): CacheFreshness {
+            val cacheControl = response.cacheControl
+            val ttl = when {
+                cacheControl.noCache -> 0L
+                cacheControl.maxAgeSeconds >= 0 -> TimeUnit.SECONDS.toNanos(cacheControl.maxAgeSeconds.toLong())
+                else -> policy.ttl.toNanos()
+            }
+            val stale = when {
+                cacheControl.noCache || cacheControl.mustRevalidate -> 0L
+                else -> staleWhileRevalidateSeconds(response)?.let { TimeUnit.SECONDS.toNanos(it) } ?: policy.staleWhileRevalidate.toNanos()
+            }
+            return CacheFreshness(ttl, stale)
+        }
+
+        /**
+         * OkHttp 的 CacheControl 不解析 stale-while-revalidate (RFC 5861), 这里直接读取响应头
+         */
+        private fun staleWhileRevalidateSeconds(response: Response): Long? =
+            response.headers("Cache-Control")
+                .flatMap { it.split(',') }
+                .map { it.trim() }
+                .firstOrNull { it.startsWith("stale-while-revalidate=", ignoreCase = true) }
+                ?.substringAfter('=')
+                ?.trim('"')
+                ?.toLongOrNull()
+                ?.takeIf { it >= 0 }
+    }
+}
+
+/**
+ * 查询到的条目
+ * @param refresh 条目处于 stale-while-revalidate 期间, 且由本次查询负责后台刷新
+ */
+internal class CacheEntry(val value: Any, val validators: CacheValidators?, val state: State, val refresh: Boolean) {
+
+    enum class State {
+        FRESH,
+        /**
+         * 已过期, 但仍然可以先使用再后台刷新
+         */
+        STALE,
+        /**
+         * 已过期且带有验证器, 需要发出条件请求
+         */
+        EXPIRED,
+    }
+}
+
+/**
+ * 按权重限制容量的 W-TinyLFU 缓存, 由 [ResponseCachePolicy.cache] 获取:
+ *  - 新条目进入占容量 1% 的窗口区 (LRU), 吸收突发的新请求
+ *  - 离开窗口区的条目与主区的淘汰候选比较近期访问频率, 频率更高者留下, 因此一次性的请求不会冲掉常用的条目
+ *  - 主区为分段 LRU: 再次命中的条目从试用区进入保护区 (占主区的 80%), 保护区溢出时退回试用区
+ *  - 访问频率由 4 位计数的 Count-Min Sketch 估计, 计数总量达到阈值时减半, 使频率反映近期的访问
+ *  - 过期的条目在查询时删除, 带有验证器的除外; 它们保留到重新验证或被淘汰, 淘汰时优先于未过期的条目
+ *  - 处于 stale-while-revalidate 期间的条目同一时间只交给一个查询去刷新
+ * 所有操作在同一把锁内完成, 临界区只有哈希表与链表操作
+ */
+class ResponseCache internal constructor(val policy: ResponseCachePolicy) {
+
+    private enum class Region { WINDOW, PROBATION, PROTECTED }
+
+    private class Node(val key: CacheKey, val value: Any, val weight: Long, var validators: CacheValidators?) {
+        var region = Region.WINDOW
+        val hash = key.hashCode()
+        var expiresAt = 0L
+        var staleUntil = 0L
+        var refreshing = false
+
+        fun renew(freshness: CacheFreshness) {
+            expiresAt = System.nanoTime() + freshness.ttlNanos
+            staleUntil = expiresAt + freshness.staleNanos
+            refreshing = false
+        }
+    }
+
+    private val windowMaximum = maxOf(1L, policy.maximumWeight / 100)
+    private val mainMaximum = policy.maximumWeight - windowMaximum
+    private val protectedMaximum = mainMaximum * 4 / 5
+
+    private val data = HashMap<CacheKey, Node>()
+    // 各区按访问顺序排列, 头部最久未访问
+    private val window = LinkedHashSet<Node>()
+    private val probation = LinkedHashSet<Node>()
+    private val protected = LinkedHashSet<Node>()
+    private var windowWeight = 0L
+    private var mainWeight = 0L
+    private var protectedWeight = 0L
+
+    private val sketch = FrequencySketch()
+
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+    private var revalidations = 0L
+    private var refreshes = 0L
+
+    val hitCount: Long
+        @Synchronized get() = hits
+
+    val missCount: Long
+        @Synchronized get() = misses
+
+    val evictionCount: Long
+        @Synchronized get() = evictions
+
+    /**
+     * 条件请求得到 304 而继续使用缓存的次数, 这些请求同时计入 missCount
+     */
+    val revalidationCount: Long
+        @Synchronized get() = revalidations
+
+    /**
+     * 在 stale-while-revalidate 期间发起的后台刷新次数, 使用旧结果的请求计入 hitCount
+     */
+    val refreshCount: Long
+        @Synchronized get() = refreshes
+
+    val size: Int
+        @Synchronized get() = data.size
+
+    val weightedSize: Long
+        @Synchronized get() = windowWeight + mainWeight
+
+    /**
+     * 清空缓存
+     */
+    @Synchronized
+    fun invalidateAll() {
+        data.clear()
+        window.clear()
+        probation.clear()
+        protected.clear()
+        windowWeight = 0
+        mainWeight = 0
+        protectedWeight = 0
+    }
+
+    /**
+     * 失效某个 URL (含查询参数) 的所有条目, 不论请求头与类型, 返回失效的条目数
+     */
+    @Synchronized
+    fun invalidate(url: String): Int {
+        val nodes = data.values.filter { it.key.url == url }
+        nodes.forEach { remove(it) }
+        return nodes.size
+    }
+
+    /**
+     * 查询条目, 新鲜或处于 stale-while-revalidate 期间的条目计为命中; 过期但带有验证器的条目计为未命中, 供条件请求使用
+     */
+    @Synchronized
+    internal fun get(key: CacheKey): CacheEntry? {
+        val node = data[key]
+        sketch.increment(key.hashCode())
+        if (node == null) {
+            misses++
+            return null
+        }
+        val now = System.nanoTime()
+        val state = when {
+            node.expiresAt - now > 0 -> CacheEntry.State.FRESH
+            node.staleUntil - now > 0 -> CacheEntry.State.STALE
+            else -> CacheEntry.State.EXPIRED
+        }
+        if (state == CacheEntry.State.EXPIRED && node.validators == null) {
+            remove(node)
+            misses++
+            return null
+        }
+        if (state == CacheEntry.State.EXPIRED) misses++ else hits++
+        val refresh = state == CacheEntry.State.STALE && !node.refreshing
+        if (refresh) {
+            node.refreshing = true
+            refreshes++
+        }
+        onAccess(node)
+        return CacheEntry(node.value, node.validators, state, refresh)
+    }
+
+    /**
+     * @param freshness 为 null 时使用策略的 ttl 与 staleWhileRevalidate
+     */
+    @Synchronized
+    internal fun put(key: CacheKey, value: Any, weight: Long, validators: CacheValidators? = null, freshness: CacheFreshness? = null) {
+        val w = maxOf(1L, weight)
+        val renewal = freshness ?: CacheFreshness(policy.ttl.toNanos(), policy.staleWhileRevalidate.toNanos())
+        // 比主区还大的条目进入缓存只会把其他条目全部挤掉; 立即过期又无法重新验证的条目没有用处; 两种情况都保留原有条目
+        if (w > mainMaximum || renewal.ttlNanos == 0L && renewal.staleNanos == 0L && validators == null) {
+            return
+        }
+        data[key]?.let { remove(it) }
+        val node = Node(key, value, w, validators).apply { renew(renewal) }
+        data[key] = node
+        sketch.ensureCapacity(data.size)
+        window += node
+        windowWeight += w
+        while (windowWeight > windowMaximum) {
+            val candidate = window.first()
+            window -= candidate
+            windowWeight -= candidate.weight
+            admit(candidate)
+        }
+    }
+
+    /**
+     * 服务端确认条目未改变: 重新计算过期时间, 304 带有新的验证器时一并更新
+     * 条目在请求期间被替换或淘汰时不做处理
+     */
+    @Synchronized
+    internal fun revalidated(key: CacheKey, value: Any, validators: CacheValidators?, freshness: CacheFreshness) {
+        revalidations++
+        val node = data[key]?.takeIf { it.value === value } ?: return
+        node.renew(freshness)
+        validators?.let { node.validators = it }
+    }
+
+    /**
+     * 后台刷新没有更新条目 (失败或结果不可缓存), 之后的查询可以再次刷新
+     */
+    @Synchronized
+    internal fun refreshFinished(key: CacheKey, value: Any) {
+        data[key]?.takeIf { it.value === value }?.refreshing = false
+    }
+
+    private fun onAccess(node: Node) {
+        when (node.region) {
+            Region.WINDOW -> {
+                window -= node
+                window += node
+            }
+            Region.PROBATION -> {
+                probation -= node
+                node.region = Region.PROTECTED
+                protected += node
+                protectedWeight += node.weight
+                while (protectedWeight > protectedMaximum) {
+                    val demoted = protected.first()
+                    protected -= demoted
+                    protectedWeight -= demoted.weight
+                    demoted.region = Region.PROBATION
+                    probation += demoted
+                }
+            }
+            Region.PROTECTED -> {
+                protected -= node
+                protected += node
+            }
+        }
+    }
+
+    /**
+     * 离开窗口区的条目: 主区有空间时直接进入试用区, 否则按试用区、保护区的顺序从最久未访问的条目起选出腾出空间所需的淘汰者,
+     * 候选的访问频率高于其中每个未过期的淘汰者时才淘汰它们并接纳候选, 否则丢弃候选, 主区保持不变
+     */
+    private fun admit(candidate: Node) {
+        val excess = mainWeight + candidate.weight - mainMaximum
+        if (excess > 0) {
+            val candidateFrequency = sketch.frequency(candidate.hash)
+            val now = System.nanoTime()
+            val victims = ArrayList<Node>()
+            var freed = 0L
+            for (victim in probation.asSequence() + protected.asSequence()) {
+                if (freed >= excess) break
+                if (victim.staleUntil - now > 0 && candidateFrequency <= sketch.frequency(victim.hash)) {
+                    data.remove(candidate.key, candidate)
+                    evictions++
+                    return
+                }
+                victims += victim
+                freed += victim.weight
+            }
+            victims.forEach { remove(it) }
+            evictions += victims.size
+        }
+        candidate.region = Region.PROBATION
+        probation += candidate
+        mainWeight += candidate.weight
+    }
+
+    private fun remove(node: Node) {
+        data.remove(node.key, node)
+        when (node.region) {
+            Region.WINDOW -> if (window.remove(node)) windowWeight -= node.weight
+            Region.PROBATION -> if (probation.remove(node)) mainWeight -= node.weight
+            Region.PROTECTED -> if (protected.remove(node)) {
+                mainWeight -= node.weight
+                protectedWeight -= node.weight
+            }
+        }
+    }
+
+    override fun toString(): String =
+        "ResponseCache(size=$size, weight=$weightedSize/${policy.maximumWeight}, hits=$hitCount, misses=$missCount, evictions=$evictionCount, revalidations=$revalidationCount, refreshes=$refreshCount)"
+}
+
+/**
+ * Count-Min Sketch, 每个计数 4 位, 一个 long 存放 16 个计数; 每个元素在 4 个 long 中各占一个计数, 取最小值作为频率估计
+ * 计数的增加次数达到表大小的 10 倍时全部减半
+ */
+internal class FrequencySketch {
+
+    private var table = LongArray(16)
+    private var sampleSize = 10 * table.size
+    private var additions = 0
+
+    /**
+     * 条目数超过表大小时扩容, 扩容后重新计数
+     */
+    fun ensureCapacity(entries: Int) {
+        if (entries <= table.size) {
+            return
+        }
+        table = LongArray(Integer.highestOneBit(entries - 1) shl 1)
+        sampleSize = 10 * table.size
+        additions = 0
+    }
+
+    fun frequency(element: Int): Int {
+        val hash = spread(element)
+        val start = (hash and 3) shl 2
+        var frequency = Int.MAX_VALUE
+        for (i in 0 until 4) {
+            val count = (table[indexOf(hash, i)] ushr ((start + i) shl 2)) and 0xfL
+            frequency = minOf(frequency, count.toInt())
+        }
+        return frequency
+    }
+
+    fun increment(element: Int) {
+        val hash = spread(element)
+        val start = (hash and 3) shl 2
+        var added = false
+        for (i in 0 until 4) {
+            added = incrementAt(indexOf(hash, i), start + i) or added
+        }
+        if (added && ++additions >= sampleSize) {
+            reset()
+        }
+    }
+
+    private fun incrementAt(index: Int, counter: Int): Boolean {
+        val offset = counter shl 2
+        val mask = 0xfL shl offset
+        if (table[index] and mask != mask) {
+            table[index] += 1L shl offset
+            return true
+        }
+        return false
+    }
+
+    private fun reset() {
+        var odd = 0
+        for (i in table.indices) {
+            odd += java.lang.Long.bitCount(table[i] and ONE_MASK)
+            table[i] = (table[i] ushr 1) and RESET_MASK
+        }
+        additions = (additions ushr 1) - (odd ushr 2)
+    }
+
+    private fun indexOf(hash: Int, i: Int): Int {
+        var h = (hash + SEEDS[i]) * SEEDS[i]
+        h += h ushr 32
+        return h.toInt() and (table.size - 1)
+    }
+
+    private fun spread(x: Int): Int {
+        var h = ((x ushr 16) xor x) * 0x45d9f3b
+        h = ((h ushr 16) xor h) * 0x45d9f3b
+        return (h ushr 16) xor h
+    }
+
+    private companion object {
+        const val RESET_MASK = 0x7777777777777777L
+        const val ONE_MASK = 0x1111111111111111L
+        val SEEDS = longArrayOf(
+            0xc3a5c85c97cb3127uL.toLong(),
+            0xb492b66fbe98f273uL.toLong(),
+            0x9ae16a3b2f90404fuL.toLong(),
+            0xcbf29ce484222325uL.toLong(),
+        )
+    }
+}
+
+/**
+ * 一次请求的缓存配置, 由 Builder 根据解析的目标类型与成功处理器生成
+ * @param type 解析的目标类型与 ObjectMapper, 参与缓存键, 见 [CacheType]
+ * @param decode 把响应体解析为目标类型, 供后台刷新使用, 不经过处理器
+ * @param onHit 命中时代替响应处理器, 把缓存的结果交给成功处理器
+ */
+internal class ResponseCaching(
+    private val policy: ResponseCachePolicy,
+    private val type: Any,
+    private val decode: (ResponseBody) -> Any?,
+    private val onHit: (Any) -> Unit,
+) {
+
+    private val cache = policy.cache()
+
+    /**
+     * 查询缓存, 请求不可缓存时返回 null
+     */
+    fun lookup(request: Request): CacheLookup? {
+        if (request.method != "GET") {
+            return null
+        }
+        val key = policy.keyFor(request, type)
+        return CacheLookup(key, cache.get(key), request)
+    }
+
+    /**
+     * 一次查询的结果: 可以使用时直接使用, 必要时发起后台刷新; 否则负责发出条件请求、处理 304, 以及统计响应体大小并写入解析结果
+     */
+    inner class CacheLookup(private val key: CacheKey, private val entry: CacheEntry?, private val original: Request) {
+
+        /**
+         * 新鲜或处于 stale-while-revalidate 期间, 不需要等待网络
+         */
+        val usable = entry != null && entry.state != CacheEntry.State.EXPIRED
+
+        /**
+         * 由本次查询发起后台刷新, 见 [refresh]
+         */
+        val refresh = entry?.refresh == true
+
+        /**
+         * 实际发出的请求, 条目过期但带有验证器时附加条件请求头
+         */
+        val request: Request = entry?.takeIf { it.state == CacheEntry.State.EXPIRED }?.validators?.conditional(original) ?: original
+
+        @Volatile
+        private var counted: CountingBody? = null
+
+        fun serve() = onHit(entry!!.value)
+
+        /**
+         * 把响应交给处理器; 条件请求得到 304 时改为使用缓存的结果
+         */
+        fun respond(response: Response, handler: (Response) -> Unit) {
+            if (response.code == HttpURLConnection.HTTP_NOT_MODIFIED && entry != null && request !== original) {
+                cache.revalidated(key, entry.value, CacheValidators.of(response), CacheFreshness.of(response, policy))
+                serve()
+                return
+            }
+            handler(track(response))
+        }
+
+        /**
+         * 在后台线程池上发出刷新请求, 带有验证器时为条件请求; 线程池已满时放弃, 之后的查询再次尝试
+         * @param send 发出请求, 响应交给 [refreshed], 异常时调用 [refreshFinished]
+         */
+        fun refresh(send: (Request) -> Unit) {
+            val request = entry!!.validators?.conditional(original) ?: original
+            try {
+                CacheRefresher.execute { send(request) }
+            } catch (e: RejectedExecutionException) {
+                refreshFinished()
+            }
+        }
+
+        /**
+         * 后台刷新的响应: 304 时重新计算过期时间, 成功时解析并替换条目, 其他情况保留旧条目直到过期
+         */
+        fun refreshed(response: Response) {
+            when {
+                response.code == HttpURLConnection.HTTP_NOT_MODIFIED ->
+                    cache.revalidated(key, entry!!.value, CacheValidators.of(response), CacheFreshness.of(response, policy))
+                response.isSuccessful -> {
+                    store(response, track(response).body?.let(decode))
+                    refreshFinished()
+                }
+                else -> refreshFinished()
+            }
+        }
+
+        fun refreshFinished() = cache.refreshFinished(key, entry!!.value)
+
+        /**
+         * 统计交给处理器的响应体字节数
+         */
+        private fun track(response: Response): Response {
+            val body = response.body ?: return response
+            return response.newBuilder().body(CountingBody(body).also { counted = it }).build()
+        }
+
+        /**
+         * 写入默认成功处理器解析出的结果, 记录验证器, 过期时间由 Cache-Control 与策略决定, 见 [CacheFreshness]
+         */
+        fun store(response: Response, result: Any?) {
+            if (result == null || !response.isSuccessful || response.cacheControl.noStore) {
+                return
+            }
+            val bodyBytes = maxOf(counted?.bytesRead ?: 0L, response.body?.contentLength() ?: 0L)
+            val validators = if (policy.revalidate) CacheValidators.of(response) else null
+            cache.put(key, result, policy.weigher.weigh(bodyBytes, result), validators, CacheFreshness.of(response, policy))
+        }
+    }
+}
+
+/**
+ * 后台刷新使用的线程池: 只有两个线程, 空闲时回收, 队列满时放弃刷新, 由之后的请求再次尝试
+ */
+internal object CacheRefresher {
+
+    private val executor = ThreadPoolExecutor(2, 2, 30, TimeUnit.SECONDS, LinkedBlockingQueue(256)) { runnable ->
+        Thread(runnable, "easy-requester-cache-refresh").apply { isDaemon = true }
+    }.apply { allowCoreThreadTimeOut(true) }
+
+    fun execute(task: Runnable) = executor.execute(task)
+}
+
+private class CountingBody(private val delegate: ResponseBody) : ResponseBody() {
+
+    @Volatile
+    var bytesRead = 0L
+        private set
+
+    private val source: BufferedSource by lazy {
+        object : ForwardingSource(delegate.source()) {
+            override fun read(sink: Buffer, byteCount: Long): Long {
+                val read = super.read(sink, byteCount)
+                if (read > 0) {
+                    bytesRead += read
+                }
+                return read
+            }
+        }.buffer()
+    }
+
+    override fun contentType(): MediaType? = delegate.contentType()
+
+    override fun contentLength(): Long = delegate.contentLength()
+
+    override fun source(): BufferedSource = source
+
+    override fun close() = delegate.close()
+}
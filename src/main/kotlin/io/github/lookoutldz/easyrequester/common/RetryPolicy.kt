@@ -0,0 +1,192 @@
+package io.github.lookoutldz.easyrequester.common
+
+import io.github.lookoutldz.easyrequester.entity.HttpMethod
+import okhttp3.Request
+import okhttp3.Response
+import java.io.IOException
+import java.time.Duration
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
+
+/**
+ * 重试策略, 由执行引擎在请求失败后自动重试, 不再需要在 onException / onResponseFailure 中手写重试
+ *  - 只重试 retryMethods 中的方法, 默认为幂等的 GET/PUT/DELETE
+ *  - 响应状态码在 retryStatuses 中, 或异常属于 retryExceptions 时重试; 最后一次尝试的结果照常交给处理器
+ *  - 退避时间使用 decorrelated jitter: min(maxDelay, random(baseDelay, 上次退避 * 3))
+ *  - 每个主机的重试受 [RetryBudget] 限制, 后端整体故障时不会被重试放大流量
+ * @author looko
+ * @date 2025/7/1
+ */
+data class RetryPolicy(
+    /**
+     * 最多尝试次数, 包含第一次请求
+     */
+    val maxAttempts: Int = 3,
+    val baseDelay: Duration = Duration.ofMillis(100),
+    val maxDelay: Duration = Duration.ofSeconds(5),
+    val retryStatuses: Set<Int> = setOf(408, 429, 500, 502, 503, 504),
+    /**
+     * 按 isInstance 匹配的可重试异常, 默认只有 IOException
+     * 请求未发出就被拒绝时抛出的 [CircuitBreakerOpenException]、[ConcurrencyLimitExceededException]、[RateLimitExceededException]
+     * 以及 [DeadlineExceededException] 都不是 IOException, 默认不重试; 请求体序列化失败始终不重试
+     */
+    val retryExceptions: List<Class<out Throwable>> = listOf(IOException::class.java),
+    val retryMethods: Set<HttpMethod> = setOf(HttpMethod.GET, HttpMethod.PUT, HttpMethod.DELETE),
+    /**
+     * 为 null 时不限制重试比例
+     */
+    val budget: RetryBudget? = RetryBudget(),
+) {
+
+    init {
+        require(maxAttempts >= 1) { "maxAttempts must be at least 1" }
+        require(!baseDelay.isNegative && baseDelay <= maxDelay) { "Invalid delays: $baseDelay..$maxDelay" }
+    }
+
+    companion object {
+        @JvmStatic
+        fun builder() = Builder()
+    }
+
+    /**
+     * 开始一次请求的重试过程, 请求方法不可重试时返回 null
+     * 每次请求 (不论是否可重试) 都会向主机的重试预算存入额度
+     */
+    internal fun begin(request: Request): RetryAttempts? {
+        val tokens = budget?.tokensFor(request.url.host, request.url.port)
+        tokens?.deposit()
+        if (maxAttempts <= 1 || retryMethods.none { it.name == request.method }) {
+            return null
+        }
+        return RetryAttempts(this, tokens)
+    }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var maxAttempts: Int = 3
+        private var baseDelay: Duration = Duration.ofMillis(100)
+        private var maxDelay: Duration = Duration.ofSeconds(5)
+        private var retryStatuses: MutableSet<Int> = mutableSetOf(408, 429, 500, 502, 503, 504)
+        private var retryExceptions: MutableList<Class<out Throwable>> = mutableListOf(IOException::class.java)
+        private var retryMethods: MutableSet<HttpMethod> = mutableSetOf(HttpMethod.GET, HttpMethod.PUT, HttpMethod.DELETE)
+        private var budget: RetryBudget? = RetryBudget()
+
+        fun setMaxAttempts(maxAttempts: Int): Builder = apply { this.maxAttempts = maxAttempts }
+        fun setBaseDelay(baseDelay: Duration): Builder = apply { this.baseDelay = baseDelay }
+        fun setMaxDelay(maxDelay: Duration): Builder = apply { this.maxDelay = maxDelay }
+        fun setRetryStatuses(vararg statuses: Int): Builder = apply { this.retryStatuses = statuses.toMutableSet() }
+        fun addRetryStatus(status: Int): Builder = apply { this.retryStatuses += status }
+        fun setRetryExceptions(vararg exceptions: Class<out Throwable>): Builder = apply { this.retryExceptions = exceptions.toMutableList() }
+        fun addRetryException(exception: Class<out Throwable>): Builder = apply { this.retryExceptions += exception }
+        fun setRetryMethods(vararg methods: HttpMethod): Builder = apply { this.retryMethods = methods.toMutableSet() }
+        fun addRetryMethod(method: HttpMethod): Builder = apply { this.retryMethods += method }
+        fun setBudget(budget: RetryBudget?): Builder = apply { this.budget = budget }
+
+        fun build() = RetryPolicy(
+            maxAttempts = maxAttempts,
+            baseDelay = baseDelay,
+            maxDelay = maxDelay,
+            retryStatuses = retryStatuses.toSet(),
+            retryExceptions = retryExceptions.toList(),
+            retryMethods = retryMethods.toSet(),
+            budget = budget,
+        )
+    }
+}
+
+/**
+ * 每个主机的重试预算 (令牌桶):
+ * 每个请求存入 ratio 个令牌, 此外每秒固定补充 minRetriesPerSecond 个, 最多积累 maxTokens 个; 每次重试消耗 1 个
+ * 持续故障时每秒的重试次数约为 请求速率 * ratio + minRetriesPerSecond, 默认即重试不超过流量的 10%
+ * 配置相同的预算共用同一组令牌桶, 多个请求器或策略实例之间也是如此
+ */
+data class RetryBudget @JvmOverloads constructor(
+    val ratio: Double = 0.1,
+    val minRetriesPerSecond: Double = 1.0,
+    val maxTokens: Double = 10.0,
+) {
+
+    init {
+        require(ratio >= 0 && minRetriesPerSecond >= 0 && maxTokens >= 1) { "Invalid retry budget: $this" }
+    }
+
+    private companion object {
+        val buckets = ConcurrentHashMap<Pair<RetryBudget, String>, RetryTokens>()
+    }
+
+    internal fun tokensFor(host: String, port: Int): RetryTokens =
+        buckets.computeIfAbsent(this to "$host:$port") { RetryTokens(this) }
+
+    /**
+     * 主机当前可用的重试次数
+     */
+    fun available(host: String, port: Int): Double = tokensFor(host, port).available()
+}
+
+internal class RetryTokens(private val budget: RetryBudget) {
+
+    private var tokens = budget.maxTokens
+    private var refilledAt = System.nanoTime()
+
+    @Synchronized
+    fun deposit() {
+        refill()
+        tokens = minOf(budget.maxTokens, tokens + budget.ratio)
+    }
+
+    @Synchronized
+    fun tryWithdraw(): Boolean {
+        refill()
+        if (tokens < 1) {
+            return false
+        }
+        tokens -= 1
+        return true
+    }
+
+    @Synchronized
+    fun available(): Double {
+        refill()
+        return tokens
+    }
+
+    private fun refill() {
+        val now = System.nanoTime()
+        if (budget.minRetriesPerSecond > 0) {
+            tokens = minOf(budget.maxTokens, tokens + (now - refilledAt) / 1e9 * budget.minRetriesPerSecond)
+        }
+        refilledAt = now
+    }
+}
+
+/**
+ * 一次请求的重试状态, 由执行引擎在同一请求的各次尝试间共享
+ */
+internal class RetryAttempts(private val policy: RetryPolicy, private val tokens: RetryTokens?) {
+
+    private var attempts = 1
+    private var previousDelayMillis = policy.baseDelay.toMillis()
+
+    /**
+     * 响应需要重试时返回退避毫秒数, 否则返回 null
+     */
+    fun onResponse(response: Response): Long? =
+        if (response.code in policy.retryStatuses) nextDelay() else null
+
+    fun onException(error: Throwable): Long? =
+        if (policy.retryExceptions.any { it.isInstance(error) }) nextDelay() else null
+
+    private fun nextDelay(): Long? {
+        if (attempts >= policy.maxAttempts || tokens?.tryWithdraw() == false) {
+            return null
+        }
+        attempts++
+        val base = policy.baseDelay.toMillis()
+        val upper = maxOf(base, previousDelayMillis * 3)
+        val delay = minOf(policy.maxDelay.toMillis(), if (upper > base) ThreadLocalRandom.current().nextLong(base, upper + 1) else base)
+        previousDelayMillis = delay
+        return delay
+    }
+}
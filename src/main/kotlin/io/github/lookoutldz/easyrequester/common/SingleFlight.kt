@@ -0,0 +1,182 @@
+package io.github.lookoutldz.easyrequester.common
+
+import com.fasterxml.jackson.databind.ObjectReader
+import okhttp3.Headers
+import okhttp3.HttpUrl
+import okhttp3.MediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody
+import okhttp3.ResponseBody.Companion.toResponseBody
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 合并并发的相同 GET 请求 (single-flight): 同一客户端、URL 与请求头完全相同的 GET 在途时, 后到的请求不再发出,
+ * 等待先发出的请求 (leader) 的结果:
+ *  - 响应体只读取一次, 每个等待者得到一个可重复读取的响应副本, onResponse 等处理器照常读取
+ *  - 默认的成功处理器按 (ObjectMapper, 类型) 共享同一次反序列化的结果, 即同类型的等待者拿到同一个 T 实例, 请不要修改它
+ *  - leader 的异常 (包括熔断、限流等拒绝) 同样交给每个等待者的 exceptionHandler
+ *  - 响应体超过 maxBodyBytes, 或 leader 被取消时, 等待者各自发出请求
+ * 合并只发生在请求在途期间, 请求结束后的相同请求会重新发出; 需要缓存请使用后续的缓存功能
+ * @author looko
+ * @date 2025/7/6
+ */
+data class SingleFlightPolicy(
+    val maxBodyBytes: Long = 4L * 1024 * 1024,
+) {
+
+    init {
+        require(maxBodyBytes >= 0) { "maxBodyBytes must not be negative" }
+    }
+
+    companion object {
+        private val flights = ConcurrentHashMap<FlightKey, Flight>()
+
+        @JvmStatic
+        fun builder() = Builder()
+
+        /**
+         * 当前在途的合并请求数, 用于观测
+         */
+        @JvmStatic
+        fun inFlight(): Int = flights.size
+    }
+
+    /**
+     * 加入相同请求的在途调用, 没有在途调用时成为 leader; 不是 GET 时返回 null
+     */
+    internal fun join(okHttpClient: OkHttpClient, request: Request): FlightMembership? {
+        if (request.method != "GET") {
+            return null
+        }
+        val key = FlightKey(okHttpClient, request.url, request.headers)
+        val flight = Flight(key, flights, maxBodyBytes)
+        val existing = flights.putIfAbsent(key, flight)
+        return if (existing == null) FlightMembership(flight, leader = true) else FlightMembership(existing, leader = false)
+    }
+
+    /**
+     * Java 友好的构建器
+     */
+    class Builder {
+        private var maxBodyBytes: Long = 4L * 1024 * 1024
+
+        fun setMaxBodyBytes(maxBodyBytes: Long): Builder = apply { this.maxBodyBytes = maxBodyBytes }
+
+        fun build() = SingleFlightPolicy(maxBodyBytes = maxBodyBytes)
+    }
+}
+
+/**
+ * 客户端按实例比较, 不同的客户端 (拦截器、认证等不同) 不会合并
+ */
+internal data class FlightKey(val okHttpClient: OkHttpClient, val url: HttpUrl, val headers: Headers)
+
+internal class FlightMembership(val flight: Flight, val leader: Boolean)
+
+/**
+ * leader 的最终结果
+ */
+internal sealed class FlightOutcome {
+    class Shared(val template: Response, val bytes: ByteArray, val contentType: MediaType?) : FlightOutcome()
+    class Failed(val error: Throwable) : FlightOutcome()
+    /**
+     * 无法共享, 等待者各自发出请求
+     */
+    object Unshared : FlightOutcome()
+}
+
+/**
+ * 一次在途的合并请求, leader 通过 [share] / [fail] / [abandon] 完成, 等待者从 [outcome] 取得结果
+ */
+internal class Flight(
+    private val key: FlightKey,
+    private val registry: ConcurrentHashMap<FlightKey, Flight>,
+    private val maxBodyBytes: Long,
+) {
+
+    val outcome = CompletableFuture<FlightOutcome>()
+
+    private val decoded = ConcurrentHashMap<ObjectReader, Lazy<Any?>>()
+
+    @Volatile
+    private var sharedBytes: ByteArray? = null
+
+    /**
+     * leader 收到最终响应: 读取响应体并共享, 返回 leader 自己使用的副本; 响应体过大时返回原响应, 等待者各自请求
+     */
+    fun share(response: Response): Response {
+        val body = response.body ?: return response.also { complete(FlightOutcome.Shared(it, ByteArray(0), null)) }
+        val source = body.source()
+        if (source.request(maxBodyBytes + 1)) {
+            complete(FlightOutcome.Unshared)
+            return response
+        }
+        val bytes = source.buffer.readByteArray()
+        sharedBytes = bytes
+        val template = response.newBuilder().body(null).build()
+        val shared = FlightOutcome.Shared(template, bytes, body.contentType())
+        complete(shared)
+        return replay(shared)
+    }
+
+    /**
+     * leader 的总时限与等待者无关, 因时限到期失败时等待者各自发出请求
+     */
+    fun fail(error: Throwable) =
+        complete(if (error is DeadlineExceededException) FlightOutcome.Unshared else FlightOutcome.Failed(error))
+
+    /**
+     * leader 没有得到可共享的结果 (例如被取消), 已完成时无效果
+     */
+    fun abandon() = complete(FlightOutcome.Unshared)
+
+    /**
+     * 为等待者生成一份可重复读取的响应
+     */
+    fun replay(shared: FlightOutcome.Shared): Response =
+        shared.template.newBuilder().body(shared.bytes.toResponseBody(shared.contentType)).build()
+
+    /**
+     * 同一个 reader 只反序列化一次
+     */
+    @Suppress("UNCHECKED_CAST")
+    fun <T> decode(reader: ObjectReader, body: ResponseBody): T {
+        val bytes = sharedBytes ?: return reader.readValue(body.byteStream())
+        return decoded.computeIfAbsent(reader) { lazy { reader.readValue<Any?>(bytes) } }.value as T
+    }
+
+    private fun complete(result: FlightOutcome) {
+        // 先移出登记表, 之后到达的相同请求发起新的调用
+        registry.remove(key, this)
+        outcome.complete(result)
+    }
+}
+
+/**
+ * 在处理器调用链中传递当前的合并请求, 使默认的成功处理器共享反序列化结果, 方式与 [DecodedResults] 相同
+ */
+internal object SingleFlights {
+
+    private val current = ThreadLocal<Flight>()
+
+    fun <R> within(flight: Flight?, block: () -> R): R {
+        if (flight == null) {
+            return block()
+        }
+        val previous = current.get()
+        current.set(flight)
+        try {
+            return block()
+        } finally {
+            if (previous == null) current.remove() else current.set(previous)
+        }
+    }
+
+    fun <T> decode(reader: ObjectReader, body: ResponseBody): T {
+        val flight = current.get() ?: return reader.readValue(body.byteStream())
+        return flight.decode(reader, body)
+    }
+}
@@ -0,0 +1,53 @@
+package io.github.lookoutldz.easyrequester.entity
+
+import java.time.Duration
+
+/**
+ * 批量请求中单个请求的结果
+ * @author looko
+ * @date 2025/6/24
+ *
+ * @param index 请求在输入列表中的下标
+ * @param code HTTP 状态码, 请求未拿到响应时为 null
+ * @param result 解析结果, 仅在响应成功时有值
+ * @param error 请求或解析过程中的异常
+ * @param latency 从请求真正发出 (拿到并发许可) 到处理完毕的耗时
+ */
+data class BatchResult<T>(
+    val index: Int,
+    val spec: RequestSpec,
+    val code: Int?,
+    val result: T?,
+    val error: Throwable?,
+    val latency: Duration,
+) {
+    val isSuccessful: Boolean
+        get() = error == null && code != null && code in 200..299
+}
+
+/**
+ * 批量请求的汇总统计
+ */
+data class BatchStats(
+    val total: Int,
+    val succeeded: Int,
+    val failed: Int,
+    val elapsed: Duration,
+    val meanLatency: Duration,
+    val p50Latency: Duration,
+    val p90Latency: Duration,
+    val p99Latency: Duration,
+    val maxLatency: Duration,
+) {
+    /**
+     * 吞吐量, 单位 请求/秒
+     */
+    val throughput: Double
+        get() = if (elapsed.isZero) 0.0 else total * 1_000_000_000.0 / elapsed.toNanos()
+
+    override fun toString(): String {
+        return "BatchStats(total=$total, succeeded=$succeeded, failed=$failed, elapsed=${elapsed.toMillis()}ms, " +
+                "throughput=${"%.1f".format(throughput)}/s, mean=${meanLatency.toMillis()}ms, p50=${p50Latency.toMillis()}ms, " +
+                "p90=${p90Latency.toMillis()}ms, p99=${p99Latency.toMillis()}ms, max=${maxLatency.toMillis()}ms)"
+    }
+}
@@ -0,0 +1,16 @@
+package io.github.lookoutldz.easyrequester.entity
+
+/**
+ * 批量请求中的单个请求描述
+ * @author looko
+ * @date 2025/6/24
+ */
+data class RequestSpec(
+    val method: HttpMethod,
+    val url: String,
+    val body: Any? = null,
+    val contentType: String = "application/json",
+    val params: Map<String, String>? = null,
+    val headers: Map<String, String>? = null,
+    val cookies: Map<String, String>? = null,
+)
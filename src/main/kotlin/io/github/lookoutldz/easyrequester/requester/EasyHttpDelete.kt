@@ -2,7 +2,13 @@ package io.github.lookoutldz.easyrequester.requester
 
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper
+import io.github.lookoutldz.easyrequester.common.CallPolicies
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
+import io.github.lookoutldz.easyrequester.entity.HttpMethod
 import io.github.lookoutldz.easyrequester.requester.common.AbstractEasyHttp
+import io.github.lookoutldz.easyrequester.requester.common.EasyHttpRequestHelper
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.Response
@@ -19,7 +25,10 @@ class EasyHttpDelete<T> private constructor(
     cookies: Map<String, String>? = null,
     okHttpClient: OkHttpClient,
     responseHandler: (Response) -> Unit,
-    exceptionHandler: (Throwable, Request) -> Unit
+    exceptionHandler: (Throwable, Request) -> Unit,
+    preparedRequest: PreparedRequest?,
+    pathVariables: Map<String, String>?,
+    policies: CallPolicies,
 ): AbstractEasyHttp(
     url = url,
     params = params,
@@ -27,7 +36,10 @@ class EasyHttpDelete<T> private constructor(
     cookies = cookies,
     okHttpClient = okHttpClient,
     responseHandler = responseHandler,
-    exceptionHandler = exceptionHandler
+    exceptionHandler = exceptionHandler,
+    preparedRequest = preparedRequest,
+    pathVariables = pathVariables,
+    policies = policies,
 ) {
 
     companion object {
@@ -119,6 +131,39 @@ class EasyHttpDelete<T> private constructor(
             exceptionHandler = exceptionHandler,
             responseHandler = responseHandler,
         )
+
+        /**
+         * 挂起版本, 直接返回解析结果, 等待期间不占用线程
+         * 使用方式:
+         *  val t = doRequestAwait<T>(url)
+         */
+        suspend inline fun <reified T> doRequestAwait(
+            url: String,
+            params: Map<String, String>? = null,
+            headers: Map<String, String>? = null,
+            cookies: Map<String, String>? = null,
+            okHttpClient: OkHttpClient? = null,
+            objectMapper: ObjectMapper? = null,
+            noinline responseHandler: ((Response) -> Unit)? = null,
+            noinline responseSuccessHandler: ((response: Response) -> Unit)? = null,
+            noinline responseFailureHandler: ((response: Response) -> Unit)? = null,
+            noinline exceptionHandler: ((error: Throwable?, request: Request) -> Unit)? = null,
+            noinline successHandler: ((t: T?) -> Unit)? = null,
+        ): T? = EasyHttpRequestHelper.doRequestAwait<T>(
+            method = HttpMethod.DELETE,
+            url = url,
+            params = params,
+            headers = headers,
+            cookies = cookies,
+            okHttpClient = okHttpClient,
+            objectMapper = objectMapper,
+            responseHandler = responseHandler,
+            responseSuccessHandler = responseSuccessHandler,
+            responseFailureHandler = responseFailureHandler,
+            exceptionHandler = exceptionHandler,
+            successHandler = successHandler
+        )
+
     }
 
     class Builder<T>: AbstractEasyHttp.Builder<T> {
@@ -132,28 +177,23 @@ class EasyHttpDelete<T> private constructor(
                 params = params,
                 headers = headers,
                 cookies = cookies,
-                okHttpClient = okHttpClient ?: OkHttpClient(),
+                okHttpClient = EasyHttpClients.resolve(okHttpClient, clientProfile),
                 responseHandler = responseHandler ?: this::defaultResponseHandler,
-                exceptionHandler = exceptionHandler ?: this::defaultExceptionHandler
+                exceptionHandler = exceptionHandler ?: this::defaultExceptionHandler,
+                preparedRequest = preparedRequest,
+                pathVariables = pathVariables,
+                policies = callPolicies(),
             )
         }
 
     }
 
-    override fun execute() {
-        // 构建请求
-        val request = commonRequestGenerator(url, params, headers, cookies).delete().build()
+    override fun buildRequest(): Request {
+        return newRequestBuilder().delete().build()
+    }
 
-        try {
-            // 发起请求
-            okHttpClient.newCall(request).execute().use { response ->
-                // 使用 use 安全管理资源
-                responseHandler(response)
-            }
+    override suspend fun await(): T? = awaitResult()
 
-        } catch (e: Exception) {
-            exceptionHandler(e, request)
-        }
-    }
+    override fun executeAsync(): EasyCall<T> = enqueue()
 
 }
\ No newline at end of file
@@ -2,7 +2,15 @@ package io.github.lookoutldz.easyrequester.requester
 
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper
+import io.github.lookoutldz.easyrequester.common.CallPolicies
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients
+import io.github.lookoutldz.easyrequester.common.JsonRequestBody
+import io.github.lookoutldz.easyrequester.common.ObjectCodecs
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
+import io.github.lookoutldz.easyrequester.entity.HttpMethod
 import io.github.lookoutldz.easyrequester.requester.common.AbstractEasyHttp
+import io.github.lookoutldz.easyrequester.requester.common.EasyHttpRequestHelper
 import io.github.lookoutldz.easyrequester.util.dataClassInClass
 import io.github.lookoutldz.easyrequester.util.getEffectiveObjectMapper
 import okhttp3.MediaType.Companion.toMediaType
@@ -24,8 +32,13 @@ class EasyHttpPost<T> private constructor(
     okHttpClient: OkHttpClient,
     responseHandler: (Response) -> Unit,
     exceptionHandler: (Throwable, Request) -> Unit,
+    preparedRequest: PreparedRequest?,
+    pathVariables: Map<String, String>?,
+    policies: CallPolicies,
     private val body: Any? = null,
     private val contentType: String = "application/json",
+    private val chunkedBody: Boolean = false,
+    private val exactContentLength: Boolean = false,
 ): AbstractEasyHttp(
     url = url,
     params = params,
@@ -33,7 +46,10 @@ class EasyHttpPost<T> private constructor(
     cookies = cookies,
     okHttpClient = okHttpClient,
     responseHandler = responseHandler,
-    exceptionHandler = exceptionHandler
+    exceptionHandler = exceptionHandler,
+    preparedRequest = preparedRequest,
+    pathVariables = pathVariables,
+    policies = policies,
 ) {
 
     // 添加一个伴生对象，提供便捷的创建方法
@@ -139,6 +155,43 @@ class EasyHttpPost<T> private constructor(
             exceptionHandler = exceptionHandler,
             responseHandler = responseHandler
         )
+
+        /**
+         * 挂起版本, 直接返回解析结果, 等待期间不占用线程
+         * 使用方式:
+         *  val t = doRequestAwait<T>(url)
+         */
+        suspend inline fun <reified T> doRequestAwait(
+            url: String,
+            body: Any? = null,
+            contentType: String = "application/json",
+            params: Map<String, String>? = null,
+            headers: Map<String, String>? = null,
+            cookies: Map<String, String>? = null,
+            okHttpClient: OkHttpClient? = null,
+            objectMapper: ObjectMapper? = null,
+            noinline responseHandler: ((Response) -> Unit)? = null,
+            noinline responseSuccessHandler: ((response: Response) -> Unit)? = null,
+            noinline responseFailureHandler: ((response: Response) -> Unit)? = null,
+            noinline exceptionHandler: ((error: Throwable?, request: Request) -> Unit)? = null,
+            noinline successHandler: ((t: T?) -> Unit)? = null,
+        ): T? = EasyHttpRequestHelper.doRequestAwait<T>(
+            method = HttpMethod.POST,
+            url = url,
+            body = body,
+            contentType = contentType,
+            params = params,
+            headers = headers,
+            cookies = cookies,
+            okHttpClient = okHttpClient,
+            objectMapper = objectMapper,
+            responseHandler = responseHandler,
+            responseSuccessHandler = responseSuccessHandler,
+            responseFailureHandler = responseFailureHandler,
+            exceptionHandler = exceptionHandler,
+            successHandler = successHandler
+        )
+
     }
 
     class Builder<T>: AbstractEasyHttp.Builder<T> {
@@ -151,52 +204,41 @@ class EasyHttpPost<T> private constructor(
                 url = url,
                 body = body,
                 contentType = contentType ?: "application/json",
+                chunkedBody = chunkedBody,
+                exactContentLength = exactContentLength,
                 params = params,
                 headers = headers,
                 cookies = cookies,
-                okHttpClient = okHttpClient ?: OkHttpClient(),
+                okHttpClient = EasyHttpClients.resolve(okHttpClient, clientProfile),
                 responseHandler = responseHandler ?: this::defaultResponseHandler,
-                exceptionHandler = exceptionHandler ?: this::defaultExceptionHandler
+                exceptionHandler = exceptionHandler ?: this::defaultExceptionHandler,
+                preparedRequest = preparedRequest,
+                pathVariables = pathVariables,
+                policies = callPolicies(),
             )
         }
 
     }
 
-    override fun execute() {
-        // 构建请求
-        val request = generateRequest(url, params, headers, cookies, body, contentType)
+    override fun buildRequest(): Request {
+        return generateRequest(body, contentType)
+    }
 
-        try {
-            // 发起请求
-            okHttpClient.newCall(request).execute().use { response ->
-                // 使用 use 安全管理资源
-                responseHandler(response)
-            }
+    override fun prepare(): PreparedRequest = prepareTemplate(contentType)
 
-        } catch (e: Exception) {
-            exceptionHandler(e, request)
-        }
-    }
+    override suspend fun await(): T? = awaitResult()
+
+    override fun executeAsync(): EasyCall<T> = enqueue()
 
     private val contentTypeKey = "Content-Type"
 
-    private fun generateRequest(
-        url: String,
-        params: Map<String, String>? = null,
-        headers: Map<String, String>? = null,
-        cookies: Map<String, String>? = null,
-        body: Any?,
-        contentType: String,
-    ): Request {
-
-        val mergedHeaders = headers?.toMutableMap() ?: mutableMapOf()
-        // 设置Content-Type
-        if (!mergedHeaders.any { it.key.equals(contentTypeKey, true) }) {
-            mergedHeaders[contentTypeKey] = contentType
+    private fun generateRequest(body: Any?, contentType: String): Request {
+        val requestBuilder = newRequestBuilder()
+        // 使用外部模板时, 模板中可能没有 Content-Type
+        if (template.headers[contentTypeKey] == null) {
+            requestBuilder.header(contentTypeKey, contentType)
         }
 
-        val requestBuilder = commonRequestGenerator(url, params, mergedHeaders, cookies)
-
         // 处理请求体
         val requestBody = when (body) {
             is String -> body.toRequestBody(contentType.toMediaType())
@@ -205,7 +247,7 @@ class EasyHttpPost<T> private constructor(
             null -> "".toRequestBody(contentType.toMediaType())
             else -> {
                 val objectMapper = getEffectiveObjectMapper(dataClassInClass(body::class.java))
-                objectMapper.writeValueAsString(body).toRequestBody(contentType.toMediaType())
+                JsonRequestBody(body, ObjectCodecs.writer(objectMapper, body.javaClass), contentType.toMediaType(), chunkedBody, exactContentLength)
             }
         }
 
@@ -2,13 +2,35 @@ package io.github.lookoutldz.easyrequester.requester.common
 
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper
+import io.github.lookoutldz.easyrequester.common.CallPolicies
+import io.github.lookoutldz.easyrequester.common.CircuitBreakerPolicy
+import io.github.lookoutldz.easyrequester.common.ConcurrencyLimitPolicy
+import io.github.lookoutldz.easyrequester.common.HedgePolicy
+import io.github.lookoutldz.easyrequester.common.RateLimitPolicy
+import io.github.lookoutldz.easyrequester.common.ResponseCachePolicy
+import io.github.lookoutldz.easyrequester.common.ResponseCaching
+import io.github.lookoutldz.easyrequester.common.CacheType
+import io.github.lookoutldz.easyrequester.common.ClientProfile
+import io.github.lookoutldz.easyrequester.common.DecodedResults
+import io.github.lookoutldz.easyrequester.common.DiskCacheProfile
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.EasyHttpEngine
+import io.github.lookoutldz.easyrequester.common.JsonArrayStreams
+import io.github.lookoutldz.easyrequester.common.ObjectCodecs
+import io.github.lookoutldz.easyrequester.common.OffHeapCachePolicy
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
+import io.github.lookoutldz.easyrequester.common.RetryPolicy
+import io.github.lookoutldz.easyrequester.common.SingleFlightPolicy
+import io.github.lookoutldz.easyrequester.common.SingleFlights
 import io.github.lookoutldz.easyrequester.util.dataClassInClass
 import io.github.lookoutldz.easyrequester.util.dataClassInTypeReference
 import io.github.lookoutldz.easyrequester.util.getEffectiveObjectMapper
-import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.Response
+import okhttp3.ResponseBody
+import java.io.InputStream
+import java.time.Duration
 
 /**
  *  @author looko
@@ -22,11 +44,15 @@ abstract class AbstractEasyHttp internal constructor(
     protected val cookies: Map<String, String>? = null,
     protected val okHttpClient: OkHttpClient,
     protected val responseHandler: (Response) -> Unit,
-    protected val exceptionHandler: (Throwable, Request) -> Unit
+    protected val exceptionHandler: (Throwable, Request) -> Unit,
+    private val preparedRequest: PreparedRequest? = null,
+    protected val pathVariables: Map<String, String>? = null,
+    internal val policies: CallPolicies = CallPolicies.NONE,
 ) {
     
     abstract class Builder<T>() {
         protected var okHttpClient: OkHttpClient? = null
+        protected var clientProfile: ClientProfile? = null
         protected var objectMapper: ObjectMapper? = null
         
         protected lateinit var url: String
@@ -35,6 +61,19 @@ abstract class AbstractEasyHttp internal constructor(
         protected var cookies: Map<String, String>? = null
         protected var body: Any? = null
         protected var contentType: String? = null
+        protected var preparedRequest: PreparedRequest? = null
+        protected var pathVariables: Map<String, String>? = null
+        protected var chunkedBody: Boolean = false
+        protected var exactContentLength: Boolean = false
+        protected var retryPolicy: RetryPolicy? = null
+        protected var circuitBreaker: CircuitBreakerPolicy? = null
+        protected var concurrencyLimit: ConcurrencyLimitPolicy? = null
+        protected var rateLimit: RateLimitPolicy? = null
+        protected var hedgePolicy: HedgePolicy? = null
+        protected var singleFlight: SingleFlightPolicy? = null
+        protected var timeout: Duration? = null
+        protected var deadline: Duration? = null
+        protected var responseCache: ResponseCachePolicy? = null
 
         protected var clazz: Class<T>? = null
         protected var typeReference: TypeReference<T>? = null
@@ -44,19 +83,101 @@ abstract class AbstractEasyHttp internal constructor(
         protected var responseFailureHandler: ((Response) -> Unit)? = null
         protected var successHandler: ((T?) -> Unit)? = null
         protected var exceptionHandler: ((Throwable, Request) -> Unit)? = null
+        protected var elementStreamer: ((InputStream) -> Unit)? = null
+
+        /**
+         * 在分发给成功/失败处理器之前观察响应, 供批量执行等内部场景记录状态码
+         */
+        internal var responseObserver: ((Response) -> Unit)? = null
 
         constructor(clazz: Class<T>) : this() { this.clazz = clazz }
         constructor(typeReference: TypeReference<T>) : this() { this.typeReference = typeReference }
 
-        fun setOkHttpClient(okHttpClient: OkHttpClient?): Builder<T> = apply { this.okHttpClient = okHttpClient ?: OkHttpClient() }
+        fun setOkHttpClient(okHttpClient: OkHttpClient?): Builder<T> = apply { this.okHttpClient = okHttpClient }
+        fun setClientProfile(clientProfile: ClientProfile?): Builder<T> = apply { this.clientProfile = clientProfile }
+        fun setVirtualThreads(enabled: Boolean): Builder<T> = apply {
+            this.clientProfile = (clientProfile ?: ClientProfile()).copy(virtualThreads = enabled)
+        }
+        /**
+         * 磁盘 HTTP 缓存, 进程重启后仍然有效, 见 [ClientProfile.diskCache]
+         */
+        fun setDiskCache(diskCache: DiskCacheProfile?): Builder<T> = apply {
+            this.clientProfile = (clientProfile ?: ClientProfile()).copy(diskCache = diskCache)
+        }
+        /**
+         * 堆外响应体缓存, 见 [ClientProfile.offHeapCache]
+         */
+        fun setOffHeapCache(offHeapCache: OffHeapCachePolicy?): Builder<T> = apply {
+            this.clientProfile = (clientProfile ?: ClientProfile()).copy(offHeapCache = offHeapCache)
+        }
         fun setObjectMapper(objectMapper: ObjectMapper?): Builder<T> = apply { this.objectMapper = objectMapper ?: specifiedObjectMapper }
 
         fun setUrl(url: String): Builder<T> = apply { this.url = url }
+        /**
+         * 使用预处理好的请求模板, 模板中的 URL、头信息与 Cookie 代替 setUrl/setHeaders/setCookies 的设置
+         */
+        fun setPreparedRequest(preparedRequest: PreparedRequest): Builder<T> = apply {
+            this.preparedRequest = preparedRequest
+            this.url = preparedRequest.url
+        }
+        /**
+         * 路径变量的值; 设置后 setUrl 的 URL 按模板解析 {name}, 未设置时 URL 原样发送
+         */
+        fun setPathVariables(pathVariables: Map<String, String>?): Builder<T> = apply { this.pathVariables = pathVariables }
         fun setParams(params: Map<String, String>?): Builder<T> = apply { this.params = params }
         fun setHeaders(headers: Map<String, String>?): Builder<T> = apply { this.headers = headers }
         fun setCookies(cookies: Map<String, String>?): Builder<T> = apply { this.cookies = cookies }
         fun setBody(body: Any?): Builder<T> = apply { this.body = body }
         fun setContentType(contentType: String?): Builder<T> = apply { this.contentType = contentType }
+        /**
+         * 对象请求体一律以 chunked 编码边序列化边发送, 小请求体也不再预先缓存, 见 [io.github.lookoutldz.easyrequester.common.JsonRequestBody]
+         */
+        fun setChunkedBody(chunked: Boolean): Builder<T> = apply { this.chunkedBody = chunked }
+        /**
+         * 较大的对象请求体默认以 chunked 编码发送; 开启后先做一次只计数的预序列化, 带 Content-Length 发送,
+         * 用于不接受 chunked 的服务端, 代价是序列化两次, 见 [io.github.lookoutldz.easyrequester.common.JsonRequestBody]
+         */
+        fun setExactContentLength(exact: Boolean): Builder<T> = apply { this.exactContentLength = exact }
+        /**
+         * 失败后按策略自动重试, 默认只重试幂等的 GET/PUT/DELETE, 见 [RetryPolicy]; 为 null 时不重试
+         */
+        fun setRetryPolicy(retryPolicy: RetryPolicy?): Builder<T> = apply { this.retryPolicy = retryPolicy }
+        /**
+         * 按主机熔断, 下游故障时快速失败并把 CircuitBreakerOpenException 交给 onException, 见 [CircuitBreakerPolicy]
+         */
+        fun setCircuitBreaker(circuitBreaker: CircuitBreakerPolicy?): Builder<T> = apply { this.circuitBreaker = circuitBreaker }
+        /**
+         * 按主机自适应限制同时在途的请求数, 超出时排队或以 ConcurrencyLimitExceededException 失败, 见 [ConcurrencyLimitPolicy]
+         */
+        fun setConcurrencyLimit(concurrencyLimit: ConcurrencyLimitPolicy?): Builder<T> = apply { this.concurrencyLimit = concurrencyLimit }
+        /**
+         * 按主机与路径前缀的令牌桶配额限流, 请求发出前等待令牌, 并根据 Retry-After / RateLimit-* 响应头调整, 见 [RateLimitPolicy]
+         */
+        fun setRateLimit(rateLimit: RateLimitPolicy?): Builder<T> = apply { this.rateLimit = rateLimit }
+        /**
+         * 对冲请求: 超过对冲延迟仍未收到响应时再发出一个相同的请求, 采用先到的响应, 见 [HedgePolicy]
+         * 默认只对冲 GET, PUT/DELETE 需要在 hedgeMethods 中声明为幂等
+         */
+        fun setHedgePolicy(hedgePolicy: HedgePolicy?): Builder<T> = apply { this.hedgePolicy = hedgePolicy }
+        /**
+         * 合并并发的相同 GET 请求, 只发出一次网络请求, 响应体读取一次后分发给所有等待者, 见 [SingleFlightPolicy]
+         */
+        fun setSingleFlight(singleFlight: SingleFlightPolicy?): Builder<T> = apply { this.singleFlight = singleFlight }
+        /**
+         * 每次尝试的超时, 通过 Call.timeout() 设置, 覆盖客户端的 callTimeout, 不需要为此派生新的客户端; 为 null 时使用客户端的设置
+         * 连接、读写超时仍通过 [ClientProfile] 配置
+         */
+        fun setTimeout(timeout: Duration?): Builder<T> = apply { this.timeout = timeout }
+        /**
+         * 总时限: 覆盖排队、等待令牌、所有重试与响应体解析, 到期时取消请求并把 DeadlineExceededException 交给 onException, 见 [io.github.lookoutldz.easyrequester.common.Deadline]
+         * 每次尝试的 Call.timeout() 不超过剩余时间, 剩余时间不足以退避时不再重试
+         */
+        fun setDeadline(deadline: Duration?): Builder<T> = apply { this.deadline = deadline }
+        /**
+         * 缓存解析出的 T, 命中时不发出请求也不再反序列化, 直接交给 onSuccess, 见 [ResponseCachePolicy]
+         * 只对 GET 与默认的响应处理生效, 设置了 onResponse / onResponseSuccess / onEach 时不使用缓存
+         */
+        fun setResponseCache(responseCache: ResponseCachePolicy?): Builder<T> = apply { this.responseCache = responseCache }
 
         fun onResponse(handler: (Response) -> Unit): Builder<T> = apply { this.responseHandler = handler }
         fun onResponseSuccess(handler: (Response) -> Unit): Builder<T> = apply { this.responseSuccessHandler = handler }
@@ -64,13 +185,77 @@ abstract class AbstractEasyHttp internal constructor(
         fun onSuccess(handler: (T?) -> Unit): Builder<T> = apply { this.successHandler = handler }
         fun onException(handler: (Throwable, Request) -> Unit): Builder<T> = apply { this.exceptionHandler = handler }
 
+        /**
+         * 流式解析数组响应: 逐个解析 pointer 指向的数组 (默认为根节点) 中的元素并交给 handler, 内存占用与数组长度无关
+         * 设置后响应不再整体解析为 T, onSuccess 不会被调用, await() 返回 null
+         * 使用方式:
+         *  onEach(User::class.java, "/data") { user -> ... }
+         */
+        fun <E> onEach(elementClass: Class<E>, pointer: String? = null, handler: (E) -> Unit): Builder<T> = apply {
+            this.elementStreamer = { input ->
+                val mapper = objectMapper ?: getEffectiveObjectMapper(dataClassInClass(elementClass))
+                JsonArrayStreams.forEach(input, ObjectCodecs.reader(mapper, elementClass), pointer, handler)
+            }
+        }
+
+        fun <E> onEach(elementType: TypeReference<E>, pointer: String? = null, handler: (E) -> Unit): Builder<T> = apply {
+            this.elementStreamer = { input ->
+                val mapper = objectMapper ?: getEffectiveObjectMapper(dataClassInTypeReference(elementType))
+                JsonArrayStreams.forEach(input, ObjectCodecs.reader(mapper, elementType), pointer, handler)
+            }
+        }
+
         private val specifiedObjectMapper by lazy {
             getEffectiveObjectMapper(dataClassInClass(clazz) || dataClassInTypeReference(typeReference))
         }
 
+        /**
+         * 汇总执行引擎中生效的策略, 由各请求类的 build() 传入
+         */
+        internal fun callPolicies(): CallPolicies = CallPolicies(
+            retry = retryPolicy,
+            circuitBreaker = circuitBreaker,
+            concurrencyLimit = concurrencyLimit,
+            rateLimit = rateLimit,
+            hedge = hedgePolicy,
+            singleFlight = singleFlight,
+            timeout = timeout,
+            deadline = deadline,
+            cache = responseCache?.let { responseCaching(it) },
+        )
+
+        /**
+         * 缓存键包含解析的目标类型与 ObjectMapper, 命中时的处理与默认成功处理器解析出结果之后相同
+         */
+        @Suppress("UNCHECKED_CAST")
+        private fun responseCaching(policy: ResponseCachePolicy): ResponseCaching? {
+            if (responseHandler != null || responseSuccessHandler != null || elementStreamer != null || responseObserver != null) {
+                return null
+            }
+            val type: Any = clazz ?: typeReference?.type ?: return null
+            return ResponseCaching(policy, CacheType(objectMapper ?: specifiedObjectMapper, type), ::decode) { value ->
+                val t = value as T?
+                DecodedResults.offer(t)
+                successHandler?.invoke(t) ?: defaultSuccessHandler(t)
+            }
+        }
+
         abstract fun build(): AbstractEasyHttp
 
+        /**
+         * 构建并挂起执行, 等同于 build().await(), 但保留了结果类型
+         */
+        @Suppress("UNCHECKED_CAST")
+        suspend fun await(): T? = build().await() as T?
+
+        /**
+         * 构建并异步执行, 等同于 build().executeAsync(), 但保留了结果类型
+         */
+        @Suppress("UNCHECKED_CAST")
+        fun executeAsync(): EasyCall<T> = build().executeAsync() as EasyCall<T>
+
         protected fun defaultResponseHandler(response: Response) {
+            responseObserver?.invoke(response)
             if (response.isSuccessful) {
                 responseSuccessHandler?.invoke(response) ?: defaultResponseSuccessHandler(response)
             } else {
@@ -80,24 +265,35 @@ abstract class AbstractEasyHttp internal constructor(
 
         @Suppress("UNCHECKED_CAST")
         protected fun defaultResponseSuccessHandler(response: Response) {
-            val t = response.body?.let { body ->
-                val objectMapper = this.objectMapper ?: specifiedObjectMapper
-                if (clazz != null) {
-                    if (clazz == String::class.java) {
-                        body.string() as T
-                    } else {
-                        objectMapper.readValue(body.byteStream(), clazz) as T
-                    }
-                } else if (typeReference != null) {
-                    objectMapper.readValue(body.byteStream(), typeReference) as T
-                } else {
-                    throw RuntimeException("No Class or TypeReference Specified!")
-                }
+            elementStreamer?.let { streamer ->
+                response.body?.let { streamer(it.byteStream()) }
+                return
             }
+            val t = response.body?.let { decode(it) }
 
+            DecodedResults.offer(t)
             successHandler?.invoke(t) ?: defaultSuccessHandler(t)
         }
 
+        /**
+         * 把响应体解析为 T, 默认的成功处理器与缓存的后台刷新共用
+         */
+        @Suppress("UNCHECKED_CAST")
+        private fun decode(body: ResponseBody): T {
+            val objectMapper = this.objectMapper ?: specifiedObjectMapper
+            return if (clazz != null) {
+                if (clazz == String::class.java) {
+                    body.string() as T
+                } else {
+                    SingleFlights.decode<T>(ObjectCodecs.reader(objectMapper, clazz!!), body)
+                }
+            } else if (typeReference != null) {
+                SingleFlights.decode<T>(ObjectCodecs.reader(objectMapper, typeReference!!), body)
+            } else {
+                throw RuntimeException("No Class or TypeReference Specified!")
+            }
+        }
+
         protected fun defaultResponseFailureHandler(response: Response) {
             // 不读取body内容，避免资源泄漏和重复消费问题
             // 如果需要读取body，应该由用户在自定义handler中处理
@@ -114,63 +310,60 @@ abstract class AbstractEasyHttp internal constructor(
         }
     }
 
-    abstract fun execute()
+    /**
+     * 生成本次请求, 由各 HTTP 方法实现
+     */
+    protected abstract fun buildRequest(): Request
 
-    private val userAgentKey = "User-Agent"
-    private val userAgentValueDefault = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/129.0.0.0 Safari/537.36"
+    /**
+     * 同步执行, 阻塞调用线程直到处理器执行完毕
+     * 返回已经结束的 [EasyCall], 可以读取解析结果与各阶段的耗时
+     */
+    fun execute(): EasyCall<*> {
+        return EasyHttpEngine.execute<Any?>(okHttpClient, buildRequest(), responseHandler, exceptionHandler, policies)
+    }
 
     /**
-     * 抽取公用方法
+     * 异步执行, 不阻塞调用线程, 处理器在 OkHttp 的回调线程上运行
+     * 返回的 [EasyCall] 以 onSuccess 收到的结果完成, 语义与 [await] 相同; 调用 cancel() 取消底层请求, 释放连接与并发许可
      */
-    internal fun commonRequestGenerator(
-        url: String,
-        params: Map<String, String>? = null,
-        headers: Map<String, String>? = null,
-        cookies: Map<String, String>? = null
-    ): Request.Builder {
-
-        val requestBuilder = Request.Builder()
-
-        // 参数处理
-        params
-            ?.filterNot { (key, _) ->
-                key.isBlank()
-            }
-            ?.let {
-                val urlBuilder = url.toHttpUrl().newBuilder()
-                for ((key, value) in it) {
-                    urlBuilder.addQueryParameter(key, value)
-                }
-                requestBuilder.url(urlBuilder.build())
-            }
-            ?: requestBuilder.url(url)
+    abstract fun executeAsync(): EasyCall<*>
 
-        // 头信息处理
-        headers
-            ?.filterNot { (key, value) ->
-                key.isBlank() || value.isBlank()
-            }
-            ?.forEach { (key, value) ->
-                requestBuilder.header(key, value)
-            }
-        // 若头中没有指定 User-Agent 则使用默认值
-        if (headers?.any { it.key.equals(userAgentKey, true) } != true) {
-            requestBuilder.addHeader(userAgentKey, userAgentValueDefault)
-        }
+    protected fun <R> enqueue(): EasyCall<R> {
+        return EasyHttpEngine.enqueue(okHttpClient, buildRequest(), responseHandler, exceptionHandler, policies)
+    }
 
-        // Cookie处理
-        cookies
-            ?.filterNot { (key, value) ->
-                key.isBlank() || value.isBlank()
-            }
-            ?.let { cookieMap ->
-                val cookieString = cookieMap.entries.joinToString("; ") { (key, value) -> "$key=$value" }
-                if (cookieString.isNotBlank()) {
-                    requestBuilder.addHeader("Cookie", cookieString)
-                }
-            }
+    /**
+     * 挂起执行, 等待期间不占用线程, 处理器在 OkHttp 的回调线程上运行
+     * 返回 onSuccess 收到的结果; 自定义 onResponse 或响应失败时返回 null;
+     * 异常处理器抛出异常时 (默认行为) 该异常从 await 抛出. 协程取消时会取消底层请求
+     */
+    abstract suspend fun await(): Any?
+
+    protected suspend fun <R> awaitResult(): R? {
+        return EasyHttpEngine.await(okHttpClient, buildRequest(), responseHandler, exceptionHandler, policies)
+    }
+
+    /**
+     * 请求模板, 未指定时由 url/headers/cookies 生成; 同一实例多次执行时复用, 不再重复解析
+     */
+    protected val template: PreparedRequest by lazy { preparedRequest ?: prepare() }
 
+    protected open fun prepare(): PreparedRequest = prepareTemplate()
 
-        return requestBuilder
+    /**
+     * 只有设置了路径变量时才把 URL 当作模板解析 {name}, 否则原样发送, 与未引入模板前的行为一致
+     */
+    protected fun prepareTemplate(contentType: String? = null): PreparedRequest {
+        return if (pathVariables != null) {
+            PreparedRequest.of(url, headers, cookies, contentType)
+        } else {
+            PreparedRequest.literal(url, headers, cookies, contentType)
+        }
     }
+
+    /**
+     * 由模板生成本次请求, 只处理路径变量与查询参数
+     */
+    protected fun newRequestBuilder(): Request.Builder = template.newRequestBuilder(pathVariables, params)
 }
\ No newline at end of file
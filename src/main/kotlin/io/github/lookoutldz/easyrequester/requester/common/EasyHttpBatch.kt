@@ -0,0 +1,167 @@
+package io.github.lookoutldz.easyrequester.requester.common
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients
+import io.github.lookoutldz.easyrequester.entity.BatchResult
+import io.github.lookoutldz.easyrequester.entity.BatchStats
+import io.github.lookoutldz.easyrequester.entity.RequestSpec
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import okhttp3.Dispatcher
+import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
+import okhttp3.OkHttpClient
+import java.time.Duration
+
+/**
+ * 批量执行的实现, 见 [EasyHttpRequestHelper.executeAll]
+ * 每个请求是一个协程, 先取主机许可再取全局许可, 等待同一主机的请求不会占住全局许可
+ * 结果回调都在调用线程 (runBlocking 的事件循环) 上串行执行, 回调内无需加锁
+ * @author looko
+ * @date 2025/6/24
+ */
+internal object EasyHttpBatch {
+
+    fun <T> executeAll(
+        clazz: Class<T>,
+        specs: List<RequestSpec>,
+        maxConcurrency: Int,
+        perHostLimit: Int,
+        ordered: Boolean,
+        okHttpClient: OkHttpClient?,
+        objectMapper: ObjectMapper?,
+        onResult: (BatchResult<T>) -> Unit,
+    ): BatchStats {
+        require(maxConcurrency > 0) { "maxConcurrency must be positive: $maxConcurrency" }
+        require(perHostLimit > 0) { "perHostLimit must be positive: $perHostLimit" }
+
+        val client = batchClient(okHttpClient ?: EasyHttpClients.shared(), maxConcurrency, perHostLimit)
+        val latencies = LongArray(specs.size)
+        var succeeded = 0
+        val emitter = ResultEmitter(ordered, specs.size) { result: BatchResult<T> ->
+            if (result.isSuccessful) succeeded++
+            onResult(result)
+        }
+        val start = System.nanoTime()
+        try {
+            runBlocking {
+                val global = Semaphore(maxConcurrency)
+                val hosts = HashMap<String, Semaphore>()
+                coroutineScope {
+                    specs.forEachIndexed { index, spec ->
+                        val host = hosts.getOrPut(hostOf(spec.url)) { Semaphore(perHostLimit) }
+                        launch {
+                            val result = host.withPermit {
+                                global.withPermit { executeOne(clazz, index, spec, client, objectMapper) }
+                            }
+                            latencies[index] = result.latency.toNanos()
+                            emitter.emit(result)
+                        }
+                    }
+                }
+            }
+        } finally {
+            // 批量专用调度器的线程池用完即关, 连接池仍归共享客户端所有
+            client.dispatcher.executorService.shutdown()
+        }
+        return stats(latencies, succeeded, System.nanoTime() - start)
+    }
+
+    /**
+     * 与给定客户端共用连接池, 但使用独立的调度器, 避免 OkHttp 默认的每主机 5 个并发上限压住 perHostLimit
+     */
+    private fun batchClient(base: OkHttpClient, maxConcurrency: Int, perHostLimit: Int): OkHttpClient {
+        val dispatcher = Dispatcher().apply {
+            maxRequests = maxConcurrency
+            maxRequestsPerHost = perHostLimit
+        }
+        return base.newBuilder().dispatcher(dispatcher).build()
+    }
+
+    private fun hostOf(url: String): String = url.toHttpUrlOrNull()?.host ?: url
+
+    private suspend fun <T> executeOne(
+        clazz: Class<T>,
+        index: Int,
+        spec: RequestSpec,
+        client: OkHttpClient,
+        objectMapper: ObjectMapper?,
+    ): BatchResult<T> {
+        var code: Int? = null
+        var error: Throwable? = null
+        val start = System.nanoTime()
+        val result = try {
+            EasyHttpRequestHelper.prepareBuilder(
+                clazz = clazz,
+                method = spec.method,
+                url = spec.url,
+                body = spec.body,
+                contentType = spec.contentType,
+                params = spec.params,
+                headers = spec.headers,
+                cookies = spec.cookies,
+                okHttpClient = client,
+                objectMapper = objectMapper,
+                responseHandler = null,
+                responseSuccessHandler = null,
+                // 失败响应与异常都记录到结果中, 不打印也不抛出
+                responseFailureHandler = {},
+                exceptionHandler = { e, _ -> error = e },
+                successHandler = {},
+            )
+                .apply { responseObserver = { response -> code = response.code } }
+                .await()
+        } catch (e: Exception) {
+            error = e
+            null
+        }
+        return BatchResult(index, spec, code, result, error, Duration.ofNanos(System.nanoTime() - start))
+    }
+
+    private fun stats(latencies: LongArray, succeeded: Int, elapsedNanos: Long): BatchStats {
+        val sorted = latencies.sortedArray()
+        fun percentile(p: Double): Duration {
+            if (sorted.isEmpty()) return Duration.ZERO
+            val rank = Math.ceil(p * sorted.size).toInt().coerceIn(1, sorted.size)
+            return Duration.ofNanos(sorted[rank - 1])
+        }
+        return BatchStats(
+            total = sorted.size,
+            succeeded = succeeded,
+            failed = sorted.size - succeeded,
+            elapsed = Duration.ofNanos(elapsedNanos),
+            meanLatency = Duration.ofNanos(if (sorted.isEmpty()) 0 else sorted.sum() / sorted.size),
+            p50Latency = percentile(0.50),
+            p90Latency = percentile(0.90),
+            p99Latency = percentile(0.99),
+            maxLatency = Duration.ofNanos(sorted.lastOrNull() ?: 0),
+        )
+    }
+
+    /**
+     * 按完成顺序直接回调; 按输入顺序时缓存先完成的结果, 等前面的结果齐了再依次回调
+     */
+    private class ResultEmitter<T>(
+        private val ordered: Boolean,
+        size: Int,
+        private val onResult: (BatchResult<T>) -> Unit,
+    ) {
+        private val pending = arrayOfNulls<BatchResult<T>>(if (ordered) size else 0)
+        private var next = 0
+
+        fun emit(result: BatchResult<T>) {
+            if (!ordered) {
+                onResult(result)
+                return
+            }
+            pending[result.index] = result
+            while (next < pending.size) {
+                val ready = pending[next] ?: return
+                pending[next++] = null
+                onResult(ready)
+            }
+        }
+    }
+}
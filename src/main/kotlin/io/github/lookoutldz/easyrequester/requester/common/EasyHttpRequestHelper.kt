@@ -1,7 +1,10 @@
 package io.github.lookoutldz.easyrequester.requester.common
 
 import com.fasterxml.jackson.databind.ObjectMapper
+import io.github.lookoutldz.easyrequester.entity.BatchResult
+import io.github.lookoutldz.easyrequester.entity.BatchStats
 import io.github.lookoutldz.easyrequester.entity.HttpMethod
+import io.github.lookoutldz.easyrequester.entity.RequestSpec
 import io.github.lookoutldz.easyrequester.requester.*
 import okhttp3.OkHttpClient
 import okhttp3.Request
@@ -33,18 +36,134 @@ object EasyHttpRequestHelper {
         noinline exceptionHandler: ((error: Throwable?, request: Request) -> Unit)? = null,
         noinline successHandler: ((t: T?) -> Unit)? = null,
     ) {
+        prepareBuilder(
+            clazz = T::class.java,
+            method = method,
+            url = url,
+            body = body,
+            contentType = contentType,
+            params = params,
+            headers = headers,
+            cookies = cookies,
+            okHttpClient = okHttpClient,
+            objectMapper = objectMapper,
+            responseHandler = responseHandler,
+            responseSuccessHandler = responseSuccessHandler,
+            responseFailureHandler = responseFailureHandler,
+            exceptionHandler = exceptionHandler,
+            successHandler = successHandler
+        )
+            .build()
+            .execute()
+    }
+
+    /**
+     * 挂起版本的通用请求方法, 等待期间不占用线程, 直接返回解析结果
+     * 使用方式:
+     *  val t = doRequestAwait<T>(HttpMethod.GET, url)
+     */
+    suspend inline fun <reified T> doRequestAwait(
+        method: HttpMethod,
+        url: String,
+        body: Any? = null,
+        contentType: String? = "application/json",
+        params: Map<String, String>? = null,
+        headers: Map<String, String>? = null,
+        cookies: Map<String, String>? = null,
+        okHttpClient: OkHttpClient? = null,
+        objectMapper: ObjectMapper? = null,
+        noinline responseHandler: ((Response) -> Unit)? = null,
+        noinline responseSuccessHandler: ((response: Response) -> Unit)? = null,
+        noinline responseFailureHandler: ((response: Response) -> Unit)? = null,
+        noinline exceptionHandler: ((error: Throwable?, request: Request) -> Unit)? = null,
+        noinline successHandler: ((t: T?) -> Unit)? = null,
+    ): T? {
+        return prepareBuilder(
+            clazz = T::class.java,
+            method = method,
+            url = url,
+            body = body,
+            contentType = contentType,
+            params = params,
+            headers = headers,
+            cookies = cookies,
+            okHttpClient = okHttpClient,
+            objectMapper = objectMapper,
+            responseHandler = responseHandler,
+            responseSuccessHandler = responseSuccessHandler,
+            responseFailureHandler = responseFailureHandler,
+            exceptionHandler = exceptionHandler,
+            // 挂起版本以返回值为主, 未指定时不再打印默认的 SUCCESS 日志
+            successHandler = successHandler ?: {}
+        ).await()
+    }
+
+    /**
+     * 批量执行一组请求, 阻塞直到全部完成, 返回吞吐量与延迟分位数等汇总统计
+     * 所有请求共用同一个连接池, 全局最多 maxConcurrency 个、每个主机最多 perHostLimit 个请求同时在途
+     * 每个请求完成后立即通过 onResult 回调结果 (回调在调用线程上串行执行), 不会把全部结果堆在内存里;
+     * ordered 为 true 时按输入顺序回调, 否则按完成顺序回调
+     * 失败响应与异常都记录在 [BatchResult] 中, 不会中断其余请求
+     * 使用方式:
+     *  val stats = executeAll<User>(specs, maxConcurrency = 64, perHostLimit = 8) { result -> ... }
+     */
+    inline fun <reified T> executeAll(
+        specs: List<RequestSpec>,
+        maxConcurrency: Int = 64,
+        perHostLimit: Int = 8,
+        ordered: Boolean = false,
+        okHttpClient: OkHttpClient? = null,
+        objectMapper: ObjectMapper? = null,
+        noinline onResult: (BatchResult<T>) -> Unit = {},
+    ): BatchStats = executeAll(T::class.java, specs, maxConcurrency, perHostLimit, ordered, okHttpClient, objectMapper, onResult)
+
+    /**
+     * 批量执行, 指定结果类型的版本
+     */
+    fun <T> executeAll(
+        clazz: Class<T>,
+        specs: List<RequestSpec>,
+        maxConcurrency: Int = 64,
+        perHostLimit: Int = 8,
+        ordered: Boolean = false,
+        okHttpClient: OkHttpClient? = null,
+        objectMapper: ObjectMapper? = null,
+        onResult: (BatchResult<T>) -> Unit = {},
+    ): BatchStats = EasyHttpBatch.executeAll(clazz, specs, maxConcurrency, perHostLimit, ordered, okHttpClient, objectMapper, onResult)
+
+    /**
+     * 按请求方法组装 Builder, 供上面的内联方法共用
+     */
+    @PublishedApi
+    internal fun <T> prepareBuilder(
+        clazz: Class<T>,
+        method: HttpMethod,
+        url: String,
+        body: Any?,
+        contentType: String?,
+        params: Map<String, String>?,
+        headers: Map<String, String>?,
+        cookies: Map<String, String>?,
+        okHttpClient: OkHttpClient?,
+        objectMapper: ObjectMapper?,
+        responseHandler: ((Response) -> Unit)?,
+        responseSuccessHandler: ((response: Response) -> Unit)?,
+        responseFailureHandler: ((response: Response) -> Unit)?,
+        exceptionHandler: ((error: Throwable?, request: Request) -> Unit)?,
+        successHandler: ((t: T?) -> Unit)?,
+    ): AbstractEasyHttp.Builder<T> {
         val builder = when (method) {
-            HttpMethod.GET -> EasyHttpGet.Builder(T::class.java)
-            HttpMethod.POST -> EasyHttpPost.Builder(T::class.java)
+            HttpMethod.GET -> EasyHttpGet.Builder(clazz)
+            HttpMethod.POST -> EasyHttpPost.Builder(clazz)
                 .setBody(body)
                 .setContentType(contentType)
-            HttpMethod.PUT -> EasyHttpPut.Builder(T::class.java)
+            HttpMethod.PUT -> EasyHttpPut.Builder(clazz)
                 .setBody(body)
                 .setContentType(contentType)
-            HttpMethod.DELETE -> EasyHttpDelete.Builder(T::class.java)
+            HttpMethod.DELETE -> EasyHttpDelete.Builder(clazz)
         }
 
-        builder
+        return builder
             .setUrl(url)
             .setParams(params)
             .setHeaders(headers)
@@ -58,8 +177,6 @@ object EasyHttpRequestHelper {
                 exceptionHandler?.let { onException(it) }
                 successHandler?.let { onSuccess(it) }
             }
-            .build()
-            .execute()
     }
 
     /**
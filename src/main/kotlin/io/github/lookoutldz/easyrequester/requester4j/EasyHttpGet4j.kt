@@ -1,8 +1,13 @@
 package io.github.lookoutldz.easyrequester.requester4j
 
 import com.fasterxml.jackson.core.type.TypeReference
+import io.github.lookoutldz.easyrequester.common.CallPolicies
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
 import io.github.lookoutldz.easyrequester.requester4j.common.*
 import okhttp3.OkHttpClient
+import okhttp3.Request
 
 /**
  * Java友好版本的GET请求类
@@ -16,7 +21,10 @@ class EasyHttpGet4j<T> private constructor(
     cookies: Map<String, String>?,
     okHttpClient: OkHttpClient,
     responseHandler: ResponseHandler?,
-    exceptionHandler: ExceptionHandler?
+    exceptionHandler: ExceptionHandler?,
+    preparedRequest: PreparedRequest?,
+    pathVariables: Map<String, String>?,
+    policies: CallPolicies,
 ) : AbstractEasyHttp4j(
     url = url,
     params = params,
@@ -24,7 +32,10 @@ class EasyHttpGet4j<T> private constructor(
     cookies = cookies,
     okHttpClient = okHttpClient,
     responseHandler = responseHandler,
-    exceptionHandler = exceptionHandler
+    exceptionHandler = exceptionHandler,
+    preparedRequest = preparedRequest,
+    pathVariables = pathVariables,
+    policies = policies,
 ) {
 
     companion object {
@@ -57,6 +68,22 @@ class EasyHttpGet4j<T> private constructor(
                 .build()
                 .execute()
 
+        @JvmStatic
+        fun <T> doRequest(
+            clazz: Class<T>,
+            url: String,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(clazz)
+                .setUrl(url)
+                .setOkHttpClient(okHttpClient)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
+
         /**
          * 重载一个 typeReference 的版本
          */
@@ -86,6 +113,22 @@ class EasyHttpGet4j<T> private constructor(
                 .build()
                 .execute()
 
+        @JvmStatic
+        fun <T> doRequest(
+            typeReference: TypeReference<T>,
+            url: String,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(typeReference)
+                .setUrl(url)
+                .setOkHttpClient(okHttpClient)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
+
         /**
          * 创建默认的 String 类型处理器
          */
@@ -112,6 +155,21 @@ class EasyHttpGet4j<T> private constructor(
                 .onException(exceptionHandler)
                 .build()
                 .execute()
+
+        @JvmStatic
+        fun doRequestDefault(
+            url: String,
+            successHandler: SuccessHandler<String?>,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(String::class.java)
+                .setUrl(url)
+                .setOkHttpClient(okHttpClient)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
         /**
          * 创建原始返回处理器, 用户可以自行处理返回体
          */
@@ -139,6 +197,72 @@ class EasyHttpGet4j<T> private constructor(
                 .build()
                 .execute()
 
+        @JvmStatic
+        fun doRequestRaw(
+            url: String,
+            responseHandler: ResponseHandler,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(Object::class.java)
+                .setUrl(url)
+                .setOkHttpClient(okHttpClient)
+                .onResponse(responseHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
+
+        /**
+         * 异步版本, 不阻塞调用线程, 返回以结果完成的 EasyCall
+         */
+        @JvmStatic
+        fun <T> doRequestAsync(
+            clazz: Class<T>,
+            url: String,
+            successHandler: SuccessHandler<T?>
+        ): EasyCall<T> =
+            Builder(clazz)
+                .setUrl(url)
+                .onSuccess(successHandler)
+                .executeAsync()
+
+        @JvmStatic
+        fun <T> doRequestAsync(
+            clazz: Class<T>,
+            url: String,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler
+        ): EasyCall<T> =
+            Builder(clazz)
+                .setUrl(url)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .executeAsync()
+
+        @JvmStatic
+        fun <T> doRequestAsync(
+            typeReference: TypeReference<T>,
+            url: String,
+            successHandler: SuccessHandler<T?>
+        ): EasyCall<T> =
+            Builder(typeReference)
+                .setUrl(url)
+                .onSuccess(successHandler)
+                .executeAsync()
+
+        @JvmStatic
+        fun <T> doRequestAsync(
+            typeReference: TypeReference<T>,
+            url: String,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler
+        ): EasyCall<T> =
+            Builder(typeReference)
+                .setUrl(url)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .executeAsync()
+
     }
 
     class Builder<T> : AbstractEasyHttp4j.Builder<T> {
@@ -151,25 +275,19 @@ class EasyHttpGet4j<T> private constructor(
                 params = params,
                 headers = headers,
                 cookies = cookies,
-                okHttpClient = okHttpClient ?: OkHttpClient(),
+                okHttpClient = EasyHttpClients.resolve(okHttpClient, clientProfile),
                 responseHandler = responseHandler ?: getDefaultResponseHandler(),
-                exceptionHandler = exceptionHandler ?: getDefaultExceptionHandler()
+                exceptionHandler = exceptionHandler ?: getDefaultExceptionHandler(),
+                preparedRequest = preparedRequest,
+                pathVariables = pathVariables,
+                policies = callPolicies(),
             )
         }
     }
 
-    override fun execute() {
-        // 构建请求
-        val request = commonRequestGenerator(url, params, headers, cookies).build()
-
-        try {
-            // 发起请求
-            okHttpClient.newCall(request).execute().use { response ->
-                // 使用 use 安全管理资源
-                responseHandler?.onResponse(response)
-            }
-        } catch (e: Exception) {
-            exceptionHandler?.onException(e, request)
-        }
+    override fun buildRequest(): Request {
+        return newRequestBuilder().build()
     }
+
+    override fun executeAsync(): EasyCall<T> = enqueue()
 }
\ No newline at end of file
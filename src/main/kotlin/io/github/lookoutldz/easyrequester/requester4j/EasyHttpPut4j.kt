@@ -1,6 +1,12 @@
 package io.github.lookoutldz.easyrequester.requester4j
 
 import com.fasterxml.jackson.core.type.TypeReference
+import io.github.lookoutldz.easyrequester.common.CallPolicies
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients
+import io.github.lookoutldz.easyrequester.common.JsonRequestBody
+import io.github.lookoutldz.easyrequester.common.ObjectCodecs
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
 import io.github.lookoutldz.easyrequester.requester4j.common.*
 import io.github.lookoutldz.easyrequester.util.dataClassInClass
 import io.github.lookoutldz.easyrequester.util.getEffectiveObjectMapper
@@ -22,8 +28,13 @@ class EasyHttpPut4j<T> private constructor(
     okHttpClient: OkHttpClient,
     responseHandler: ResponseHandler?,
     exceptionHandler: ExceptionHandler?,
+    preparedRequest: PreparedRequest?,
+    pathVariables: Map<String, String>?,
+    policies: CallPolicies,
     private val body: Any?,
-    private val contentType: String
+    private val contentType: String,
+    private val chunkedBody: Boolean = false,
+    private val exactContentLength: Boolean = false,
 ) : AbstractEasyHttp4j(
     url = url,
     params = params,
@@ -31,7 +42,10 @@ class EasyHttpPut4j<T> private constructor(
     cookies = cookies,
     okHttpClient = okHttpClient,
     responseHandler = responseHandler,
-    exceptionHandler = exceptionHandler
+    exceptionHandler = exceptionHandler,
+    preparedRequest = preparedRequest,
+    pathVariables = pathVariables,
+    policies = policies,
 ) {
 
     companion object {
@@ -72,6 +86,26 @@ class EasyHttpPut4j<T> private constructor(
                 .build()
                 .execute()
 
+        @JvmStatic
+        fun <T> doRequest(
+            clazz: Class<T>,
+            url: String,
+            body: Any?,
+            contentType: String?,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(clazz)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .setOkHttpClient(okHttpClient)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
+
         /**
          * 创建带 typeReference 的处理器
          */
@@ -109,6 +143,26 @@ class EasyHttpPut4j<T> private constructor(
                 .build()
                 .execute()
 
+        @JvmStatic
+        fun <T> doRequest(
+            typeReference: TypeReference<T>,
+            url: String,
+            body: Any?,
+            contentType: String?,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(typeReference)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .setOkHttpClient(okHttpClient)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
+
         /**
          * 创建默认的 String 类型处理器
          */
@@ -144,6 +198,25 @@ class EasyHttpPut4j<T> private constructor(
                 .build()
                 .execute()
 
+        @JvmStatic
+        fun doRequestDefault(
+            url: String,
+            body: Any?,
+            contentType: String?,
+            successHandler: SuccessHandler<String?>,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(String::class.java)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .setOkHttpClient(okHttpClient)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
+
         /**
          * 创建原始返回处理器, 用户可以自行处理返回体
          */
@@ -179,6 +252,92 @@ class EasyHttpPut4j<T> private constructor(
                 .build()
                 .execute()
 
+        @JvmStatic
+        fun doRequestRaw(
+            url: String,
+            body: Any?,
+            contentType: String?,
+            responseHandler: ResponseHandler,
+            exceptionHandler: ExceptionHandler,
+            okHttpClient: OkHttpClient?
+        ) =
+            Builder(Object::class.java)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .setOkHttpClient(okHttpClient)
+                .onResponse(responseHandler)
+                .onException(exceptionHandler)
+                .build()
+                .execute()
+
+        /**
+         * 异步版本, 不阻塞调用线程, 返回以结果完成的 EasyCall
+         */
+        @JvmStatic
+        fun <T> doRequestAsync(
+            clazz: Class<T>,
+            url: String,
+            body: Any?,
+            contentType: String?,
+            successHandler: SuccessHandler<T?>
+        ): EasyCall<T> =
+            Builder(clazz)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .onSuccess(successHandler)
+                .executeAsync()
+
+        @JvmStatic
+        fun <T> doRequestAsync(
+            clazz: Class<T>,
+            url: String,
+            body: Any?,
+            contentType: String?,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler
+        ): EasyCall<T> =
+            Builder(clazz)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .executeAsync()
+
+        @JvmStatic
+        fun <T> doRequestAsync(
+            typeReference: TypeReference<T>,
+            url: String,
+            body: Any?,
+            contentType: String?,
+            successHandler: SuccessHandler<T?>
+        ): EasyCall<T> =
+            Builder(typeReference)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .onSuccess(successHandler)
+                .executeAsync()
+
+        @JvmStatic
+        fun <T> doRequestAsync(
+            typeReference: TypeReference<T>,
+            url: String,
+            body: Any?,
+            contentType: String?,
+            successHandler: SuccessHandler<T?>,
+            exceptionHandler: ExceptionHandler
+        ): EasyCall<T> =
+            Builder(typeReference)
+                .setUrl(url)
+                .setBody(body)
+                .setContentType(contentType)
+                .onSuccess(successHandler)
+                .onException(exceptionHandler)
+                .executeAsync()
+
     }
 
     class Builder<T> : AbstractEasyHttp4j.Builder<T> {
@@ -190,50 +349,38 @@ class EasyHttpPut4j<T> private constructor(
                 url = url,
                 body = body,
                 contentType = contentType ?: "application/json",
+                chunkedBody = chunkedBody,
+                exactContentLength = exactContentLength,
                 params = params,
                 headers = headers,
                 cookies = cookies,
-                okHttpClient = okHttpClient ?: OkHttpClient(),
+                okHttpClient = EasyHttpClients.resolve(okHttpClient, clientProfile),
                 responseHandler = responseHandler ?: getDefaultResponseHandler(),
-                exceptionHandler = exceptionHandler ?: getDefaultExceptionHandler()
+                exceptionHandler = exceptionHandler ?: getDefaultExceptionHandler(),
+                preparedRequest = preparedRequest,
+                pathVariables = pathVariables,
+                policies = callPolicies(),
             )
         }
     }
 
-    override fun execute() {
-        // 构建请求
-        val request = generateRequest(url, params, headers, cookies, body, contentType)
-
-        try {
-            // 发起请求
-            okHttpClient.newCall(request).execute().use { response ->
-                // 使用 use 安全管理资源
-                responseHandler?.onResponse(response)
-            }
-        } catch (e: Exception) {
-            exceptionHandler?.onException(e, request)
-        }
+    override fun buildRequest(): Request {
+        return generateRequest(body, contentType)
     }
 
+    override fun prepare(): PreparedRequest = prepareTemplate(contentType)
+
+    override fun executeAsync(): EasyCall<T> = enqueue()
+
     private val contentTypeKey = "Content-Type"
 
-    private fun generateRequest(
-        url: String,
-        params: Map<String, String>?,
-        headers: Map<String, String>?,
-        cookies: Map<String, String>?,
-        body: Any?,
-        contentType: String
-    ): Request {
-        val mergedHeaders = headers?.toMutableMap() ?: mutableMapOf()
-        // 设置Content-Type
-        val hasContentType = mergedHeaders.any { it.key.equals(contentTypeKey, true) }
-        if (!hasContentType) {
-            mergedHeaders[contentTypeKey] = contentType
+    private fun generateRequest(body: Any?, contentType: String): Request {
+        val requestBuilder = newRequestBuilder()
+        // 使用外部模板时, 模板中可能没有 Content-Type
+        if (template.headers[contentTypeKey] == null) {
+            requestBuilder.header(contentTypeKey, contentType)
         }
 
-        val requestBuilder = commonRequestGenerator(url, params, mergedHeaders, cookies)
-
         // 处理请求体
         val requestBody = when (body) {
             is String -> body.toRequestBody(contentType.toMediaType())
@@ -242,7 +389,7 @@ class EasyHttpPut4j<T> private constructor(
             null -> "".toRequestBody(contentType.toMediaType())
             else -> {
                 val objectMapper = getEffectiveObjectMapper(dataClassInClass(body::class.java))
-                objectMapper.writeValueAsString(body).toRequestBody(contentType.toMediaType())
+                JsonRequestBody(body, ObjectCodecs.writer(objectMapper, body.javaClass), contentType.toMediaType(), chunkedBody, exactContentLength)
             }
         }
 
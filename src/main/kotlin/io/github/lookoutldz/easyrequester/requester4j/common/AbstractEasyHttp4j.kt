@@ -2,13 +2,35 @@ package io.github.lookoutldz.easyrequester.requester4j.common
 
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper
+import io.github.lookoutldz.easyrequester.common.CallPolicies
+import io.github.lookoutldz.easyrequester.common.CircuitBreakerPolicy
+import io.github.lookoutldz.easyrequester.common.ConcurrencyLimitPolicy
+import io.github.lookoutldz.easyrequester.common.HedgePolicy
+import io.github.lookoutldz.easyrequester.common.RateLimitPolicy
+import io.github.lookoutldz.easyrequester.common.ResponseCachePolicy
+import io.github.lookoutldz.easyrequester.common.ResponseCaching
+import io.github.lookoutldz.easyrequester.common.CacheType
+import io.github.lookoutldz.easyrequester.common.ClientProfile
+import io.github.lookoutldz.easyrequester.common.DecodedResults
+import io.github.lookoutldz.easyrequester.common.DiskCacheProfile
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.EasyHttpEngine
+import io.github.lookoutldz.easyrequester.common.JsonArrayStreams
+import io.github.lookoutldz.easyrequester.common.ObjectCodecs
+import io.github.lookoutldz.easyrequester.common.OffHeapCachePolicy
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
+import io.github.lookoutldz.easyrequester.common.RetryPolicy
+import io.github.lookoutldz.easyrequester.common.SingleFlightPolicy
+import io.github.lookoutldz.easyrequester.common.SingleFlights
 import io.github.lookoutldz.easyrequester.util.dataClassInClass
 import io.github.lookoutldz.easyrequester.util.dataClassInTypeReference
 import io.github.lookoutldz.easyrequester.util.getEffectiveObjectMapper
-import okhttp3.HttpUrl.Companion.toHttpUrl
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import okhttp3.Response
+import okhttp3.ResponseBody
+import java.io.InputStream
+import java.time.Duration
 
 /**
  * Java友好版本的抽象HTTP请求类
@@ -22,11 +44,15 @@ abstract class AbstractEasyHttp4j internal constructor(
     protected val cookies: Map<String, String>?,
     protected val okHttpClient: OkHttpClient,
     protected val responseHandler: ResponseHandler?,
-    protected val exceptionHandler: ExceptionHandler?
+    protected val exceptionHandler: ExceptionHandler?,
+    private val preparedRequest: PreparedRequest? = null,
+    protected val pathVariables: Map<String, String>? = null,
+    internal val policies: CallPolicies = CallPolicies.NONE,
 ) {
 
     abstract class Builder<T> {
         protected var okHttpClient: OkHttpClient? = null
+        protected var clientProfile: ClientProfile? = null
         protected var objectMapper: ObjectMapper? = null
         
         protected var url: String = ""
@@ -35,6 +61,19 @@ abstract class AbstractEasyHttp4j internal constructor(
         protected var cookies: Map<String, String>? = null
         protected var body: Any? = null
         protected var contentType: String? = null
+        protected var preparedRequest: PreparedRequest? = null
+        protected var pathVariables: Map<String, String>? = null
+        protected var chunkedBody: Boolean = false
+        protected var exactContentLength: Boolean = false
+        protected var retryPolicy: RetryPolicy? = null
+        protected var circuitBreaker: CircuitBreakerPolicy? = null
+        protected var concurrencyLimit: ConcurrencyLimitPolicy? = null
+        protected var rateLimit: RateLimitPolicy? = null
+        protected var hedgePolicy: HedgePolicy? = null
+        protected var singleFlight: SingleFlightPolicy? = null
+        protected var timeout: Duration? = null
+        protected var deadline: Duration? = null
+        protected var responseCache: ResponseCachePolicy? = null
 
         protected var clazz: Class<T>? = null
         protected var typeReference: TypeReference<T>? = null
@@ -44,12 +83,42 @@ abstract class AbstractEasyHttp4j internal constructor(
         protected var responseFailureHandler: ResponseFailureHandler? = null
         protected var successHandler: SuccessHandler<T?>? = null
         protected var exceptionHandler: ExceptionHandler? = null
+        protected var elementStreamer: ((InputStream) -> Unit)? = null
 
         constructor(clazz: Class<T>) { this.clazz = clazz }
         constructor(typeReference: TypeReference<T>) { this.typeReference = typeReference }
 
         fun setOkHttpClient(okHttpClient: OkHttpClient?): Builder<T> {
-            this.okHttpClient = okHttpClient ?: OkHttpClient()
+            this.okHttpClient = okHttpClient
+            return this
+        }
+
+        fun setClientProfile(clientProfile: ClientProfile?): Builder<T> {
+            this.clientProfile = clientProfile
+            return this
+        }
+
+        /**
+         * 虚拟线程模式, 同步与异步请求都在虚拟线程上执行, 见 [ClientProfile.virtualThreads]
+         */
+        fun setVirtualThreads(enabled: Boolean): Builder<T> {
+            this.clientProfile = (clientProfile ?: ClientProfile()).copy(virtualThreads = enabled)
+            return this
+        }
+
+        /**
+         * 磁盘 HTTP 缓存, 进程重启后仍然有效, 见 [ClientProfile.diskCache]
+         */
+        fun setDiskCache(diskCache: DiskCacheProfile?): Builder<T> {
+            this.clientProfile = (clientProfile ?: ClientProfile()).copy(diskCache = diskCache)
+            return this
+        }
+
+        /**
+         * 堆外响应体缓存, 见 [ClientProfile.offHeapCache]
+         */
+        fun setOffHeapCache(offHeapCache: OffHeapCachePolicy?): Builder<T> {
+            this.clientProfile = (clientProfile ?: ClientProfile()).copy(offHeapCache = offHeapCache)
             return this
         }
         
@@ -62,6 +131,23 @@ abstract class AbstractEasyHttp4j internal constructor(
             this.url = url
             return this
         }
+
+        /**
+         * 使用预处理好的请求模板, 模板中的 URL、头信息与 Cookie 代替 setUrl/setHeaders/setCookies 的设置
+         */
+        fun setPreparedRequest(preparedRequest: PreparedRequest): Builder<T> {
+            this.preparedRequest = preparedRequest
+            this.url = preparedRequest.url
+            return this
+        }
+
+        /**
+         * 路径变量的值; 设置后 setUrl 的 URL 按模板解析 {name}, 未设置时 URL 原样发送
+         */
+        fun setPathVariables(pathVariables: Map<String, String>?): Builder<T> {
+            this.pathVariables = pathVariables
+            return this
+        }
         
         fun setParams(params: Map<String, String>?): Builder<T> {
             this.params = params
@@ -88,6 +174,99 @@ abstract class AbstractEasyHttp4j internal constructor(
             return this
         }
 
+        /**
+         * 对象请求体一律以 chunked 编码边序列化边发送, 小请求体也不再预先缓存, 见 [io.github.lookoutldz.easyrequester.common.JsonRequestBody]
+         */
+        fun setChunkedBody(chunked: Boolean): Builder<T> {
+            this.chunkedBody = chunked
+            return this
+        }
+
+        /**
+         * 较大的对象请求体默认以 chunked 编码发送; 开启后先做一次只计数的预序列化, 带 Content-Length 发送,
+         * 用于不接受 chunked 的服务端, 代价是序列化两次, 见 [io.github.lookoutldz.easyrequester.common.JsonRequestBody]
+         */
+        fun setExactContentLength(exact: Boolean): Builder<T> {
+            this.exactContentLength = exact
+            return this
+        }
+
+        /**
+         * 失败后按策略自动重试, 默认只重试幂等的 GET/PUT/DELETE, 见 [RetryPolicy]; 为 null 时不重试
+         */
+        fun setRetryPolicy(retryPolicy: RetryPolicy?): Builder<T> {
+            this.retryPolicy = retryPolicy
+            return this
+        }
+
+        /**
+         * 按主机熔断, 下游故障时快速失败并把 CircuitBreakerOpenException 交给 onException, 见 [CircuitBreakerPolicy]
+         */
+        fun setCircuitBreaker(circuitBreaker: CircuitBreakerPolicy?): Builder<T> {
+            this.circuitBreaker = circuitBreaker
+            return this
+        }
+
+        /**
+         * 按主机自适应限制同时在途的请求数, 超出时排队或以 ConcurrencyLimitExceededException 失败, 见 [ConcurrencyLimitPolicy]
+         */
+        fun setConcurrencyLimit(concurrencyLimit: ConcurrencyLimitPolicy?): Builder<T> {
+            this.concurrencyLimit = concurrencyLimit
+            return this
+        }
+
+        /**
+         * 按主机与路径前缀的令牌桶配额限流, 请求发出前等待令牌, 并根据 Retry-After / RateLimit-* 响应头调整, 见 [RateLimitPolicy]
+         */
+        fun setRateLimit(rateLimit: RateLimitPolicy?): Builder<T> {
+            this.rateLimit = rateLimit
+            return this
+        }
+
+        /**
+         * 对冲请求: 超过对冲延迟仍未收到响应时再发出一个相同的请求, 采用先到的响应, 见 [HedgePolicy]
+         * 默认只对冲 GET, PUT/DELETE 需要在 hedgeMethods 中声明为幂等
+         */
+        fun setHedgePolicy(hedgePolicy: HedgePolicy?): Builder<T> {
+            this.hedgePolicy = hedgePolicy
+            return this
+        }
+
+        /**
+         * 合并并发的相同 GET 请求, 只发出一次网络请求, 响应体读取一次后分发给所有等待者, 见 [SingleFlightPolicy]
+         */
+        fun setSingleFlight(singleFlight: SingleFlightPolicy?): Builder<T> {
+            this.singleFlight = singleFlight
+            return this
+        }
+
+        /**
+         * 每次尝试的超时, 通过 Call.timeout() 设置, 覆盖客户端的 callTimeout, 不需要为此派生新的客户端; 为 null 时使用客户端的设置
+         * 连接、读写超时仍通过 [ClientProfile] 配置
+         */
+        fun setTimeout(timeout: Duration?): Builder<T> {
+            this.timeout = timeout
+            return this
+        }
+
+        /**
+         * 总时限: 覆盖排队、等待令牌、所有重试与响应体解析, 到期时取消请求并把 DeadlineExceededException 交给 onException, 见 [io.github.lookoutldz.easyrequester.common.Deadline]
+         * 每次尝试的 Call.timeout() 不超过剩余时间, 剩余时间不足以退避时不再重试
+         */
+        fun setDeadline(deadline: Duration?): Builder<T> {
+            this.deadline = deadline
+            return this
+        }
+
+        /**
+         * 缓存解析出的 T, 命中时不发出请求也不再反序列化, 直接交给 onSuccess, 见 [ResponseCachePolicy]
+         * 只对 GET 与默认的响应处理生效, 设置了 onResponse / onResponseSuccess / onEach 时不使用缓存
+         */
+        fun setResponseCache(responseCache: ResponseCachePolicy?): Builder<T> {
+            this.responseCache = responseCache
+            return this
+        }
+
         fun onResponse(handler: ResponseHandler?): Builder<T> {
             this.responseHandler = handler
             return this
@@ -113,12 +292,82 @@ abstract class AbstractEasyHttp4j internal constructor(
             return this
         }
 
+        /**
+         * 流式解析数组响应: 逐个解析根节点数组中的元素并交给 handler, 内存占用与数组长度无关
+         * 设置后响应不再整体解析为 T, onSuccess 不会被调用, executeAsync() 以 null 完成
+         */
+        fun <E> onEach(elementClass: Class<E>, handler: ElementHandler<E>): Builder<T> {
+            return onEach(elementClass, null, handler)
+        }
+
+        /**
+         * 流式解析 pointer 指向的数组, pointer 为 JSON Pointer 格式, 例如 "/data"
+         */
+        fun <E> onEach(elementClass: Class<E>, pointer: String?, handler: ElementHandler<E>): Builder<T> {
+            this.elementStreamer = { input ->
+                val mapper = objectMapper ?: getEffectiveObjectMapper(dataClassInClass(elementClass))
+                JsonArrayStreams.forEach<E>(input, ObjectCodecs.reader(mapper, elementClass), pointer) { handler.onElement(it) }
+            }
+            return this
+        }
+
+        fun <E> onEach(elementType: TypeReference<E>, handler: ElementHandler<E>): Builder<T> {
+            return onEach(elementType, null, handler)
+        }
+
+        fun <E> onEach(elementType: TypeReference<E>, pointer: String?, handler: ElementHandler<E>): Builder<T> {
+            this.elementStreamer = { input ->
+                val mapper = objectMapper ?: getEffectiveObjectMapper(dataClassInTypeReference(elementType))
+                JsonArrayStreams.forEach<E>(input, ObjectCodecs.reader(mapper, elementType), pointer) { handler.onElement(it) }
+            }
+            return this
+        }
+
         private fun getSpecifiedObjectMapper(): ObjectMapper {
             return getEffectiveObjectMapper(dataClassInClass(clazz) || dataClassInTypeReference(typeReference))
         }
 
+        /**
+         * 汇总执行引擎中生效的策略, 由各请求类的 build() 传入
+         */
+        internal fun callPolicies(): CallPolicies = CallPolicies(
+            retry = retryPolicy,
+            circuitBreaker = circuitBreaker,
+            concurrencyLimit = concurrencyLimit,
+            rateLimit = rateLimit,
+            hedge = hedgePolicy,
+            singleFlight = singleFlight,
+            timeout = timeout,
+            deadline = deadline,
+            cache = responseCache?.let { responseCaching(it) },
+        )
+
+        /**
+         * 缓存键包含解析的目标类型与 ObjectMapper, 命中时的处理与默认成功处理器解析出结果之后相同
+         */
+        @Suppress("UNCHECKED_CAST")
+        private fun responseCaching(policy: ResponseCachePolicy): ResponseCaching? {
+            if (responseHandler != null || responseSuccessHandler != null || elementStreamer != null) {
+                return null
+            }
+            val type: Any = clazz ?: typeReference?.type ?: return null
+            return ResponseCaching(policy, CacheType(objectMapper ?: getSpecifiedObjectMapper(), type), ::decode) { value ->
+                val result = value as T?
+                DecodedResults.offer(result)
+                successHandler?.onSuccess(result) ?: getDefaultSuccessHandler().onSuccess(result)
+            }
+        }
+
         abstract fun build(): AbstractEasyHttp4j
 
+        /**
+         * 构建并异步执行, 等同于 build().executeAsync(), 但保留了结果类型
+         */
+        @Suppress("UNCHECKED_CAST")
+        fun executeAsync(): EasyCall<T> {
+            return build().executeAsync() as EasyCall<T>
+        }
+
         protected fun getDefaultResponseHandler(): ResponseHandler {
             return object : ResponseHandler {
                 override fun onResponse(response: Response) {
@@ -135,27 +384,38 @@ abstract class AbstractEasyHttp4j internal constructor(
         protected fun getDefaultResponseSuccessHandler(): ResponseSuccessHandler {
             return object : ResponseSuccessHandler {
                 override fun onResponseSuccess(response: Response) {
-                    val result = response.body?.let { body ->
-                        val mapper = objectMapper ?: getSpecifiedObjectMapper()
-                        when {
-                            clazz != null -> {
-                                if (clazz == String::class.java) {
-                                    body.string() as T
-                                } else {
-                                    mapper.readValue(body.byteStream(), clazz) as T
-                                }
-                            }
-                            typeReference != null -> {
-                                mapper.readValue(body.byteStream(), typeReference) as T
-                            }
-                            else -> throw RuntimeException("No Class or TypeReference Specified!")
-                        }
+                    elementStreamer?.let { streamer ->
+                        response.body?.let { streamer(it.byteStream()) }
+                        return
                     }
+                    val result = response.body?.let { decode(it) }
+                    DecodedResults.offer(result)
                     successHandler?.onSuccess(result) ?: getDefaultSuccessHandler().onSuccess(result)
                 }
             }
         }
 
+        /**
+         * 把响应体解析为 T, 默认的成功处理器与缓存的后台刷新共用
+         */
+        @Suppress("UNCHECKED_CAST")
+        private fun decode(body: ResponseBody): T {
+            val mapper = objectMapper ?: getSpecifiedObjectMapper()
+            return when {
+                clazz != null -> {
+                    if (clazz == String::class.java) {
+                        body.string() as T
+                    } else {
+                        SingleFlights.decode<T>(ObjectCodecs.reader(mapper, clazz!!), body)
+                    }
+                }
+                typeReference != null -> {
+                    SingleFlights.decode<T>(ObjectCodecs.reader(mapper, typeReference!!), body)
+                }
+                else -> throw RuntimeException("No Class or TypeReference Specified!")
+            }
+        }
+
         protected fun getDefaultResponseFailureHandler(): ResponseFailureHandler {
             return object : ResponseFailureHandler {
                 override fun onResponseFailure(response: Response) {
@@ -184,63 +444,66 @@ abstract class AbstractEasyHttp4j internal constructor(
         }
     }
 
-    abstract fun execute()
+    /**
+     * 生成本次请求, 由各 HTTP 方法实现
+     */
+    protected abstract fun buildRequest(): Request
 
-    private val userAgentKey = "User-Agent"
-    private val userAgentValueDefault = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/129.0.0.0 Safari/537.36"
+    /**
+     * 同步执行, 阻塞调用线程直到处理器执行完毕
+     * 返回已经结束的 [EasyCall], 可以读取解析结果与各阶段的耗时
+     */
+    fun execute(): EasyCall<*> {
+        // 构建请求
+        val request = buildRequest()
+        // 发起请求
+        return EasyHttpEngine.execute<Any?>(
+            okHttpClient = okHttpClient,
+            request = request,
+            responseHandler = { response -> responseHandler?.onResponse(response) },
+            exceptionHandler = { error, req -> exceptionHandler?.onException(error, req) },
+            policies = policies,
+        )
+    }
 
     /**
-     * 抽取公用方法
+     * 异步执行, 不阻塞调用线程, 处理器在 OkHttp 的回调线程上运行
+     * 返回的 future 以 onSuccess 收到的结果完成; 自定义 onResponse 或响应失败时以 null 完成;
+     * 异常处理器抛出异常时 (默认行为) future 异常完成. 取消 future 会取消底层请求
+     * 返回的 [EasyCall] 即该 future, cancel() 取消请求并释放连接与并发许可, 另外记录了各阶段的耗时
      */
-    internal fun commonRequestGenerator(
-        url: String,
-        params: Map<String, String>?,
-        headers: Map<String, String>?,
-        cookies: Map<String, String>?
-    ): Request.Builder {
-        val requestBuilder = Request.Builder()
-
-        // 参数处理
-        if (params != null && params.isNotEmpty()) {
-            val filteredParams = params.filterNot { (key, _) -> key.isBlank() }
-            if (filteredParams.isNotEmpty()) {
-                val urlBuilder = url.toHttpUrl().newBuilder()
-                for ((key, value) in filteredParams) {
-                    urlBuilder.addQueryParameter(key, value)
-                }
-                requestBuilder.url(urlBuilder.build())
-            } else {
-                requestBuilder.url(url)
-            }
-        } else {
-            requestBuilder.url(url)
-        }
+    abstract fun executeAsync(): EasyCall<*>
 
-        // 头信息处理
-        if (headers != null && headers.isNotEmpty()) {
-            val filteredHeaders = headers.filterNot { (key, value) -> key.isBlank() || value.isBlank() }
-            for ((key, value) in filteredHeaders) {
-                requestBuilder.header(key, value)
-            }
-        }
-        
-        // 若头中没有指定 User-Agent 则使用默认值
-        val hasUserAgent = headers?.any { it.key.equals(userAgentKey, true) } ?: false
-        if (!hasUserAgent) {
-            requestBuilder.addHeader(userAgentKey, userAgentValueDefault)
-        }
-
-        // Cookie处理
-        if (cookies != null && cookies.isNotEmpty()) {
-            val filteredCookies = cookies.filterNot { (key, value) -> key.isBlank() || value.isBlank() }
-            if (filteredCookies.isNotEmpty()) {
-                val cookieString = filteredCookies.entries.joinToString("; ") { (key, value) -> "$key=$value" }
-                if (cookieString.isNotBlank()) {
-                    requestBuilder.addHeader("Cookie", cookieString)
-                }
-            }
-        }
+    protected fun <R> enqueue(): EasyCall<R> {
+        return EasyHttpEngine.enqueue(
+            okHttpClient = okHttpClient,
+            request = buildRequest(),
+            responseHandler = { response -> responseHandler?.onResponse(response) },
+            exceptionHandler = { error, req -> exceptionHandler?.onException(error, req) },
+            policies = policies,
+        )
+    }
 
-        return requestBuilder
+    /**
+     * 请求模板, 未指定时由 url/headers/cookies 生成; 同一实例多次执行时复用, 不再重复解析
+     */
+    protected val template: PreparedRequest by lazy { preparedRequest ?: prepare() }
+
+    protected open fun prepare(): PreparedRequest = prepareTemplate()
+
+    /**
+     * 只有设置了路径变量时才把 URL 当作模板解析 {name}, 否则原样发送, 与未引入模板前的行为一致
+     */
+    protected fun prepareTemplate(contentType: String? = null): PreparedRequest {
+        return if (pathVariables != null) {
+            PreparedRequest.of(url, headers, cookies, contentType)
+        } else {
+            PreparedRequest.literal(url, headers, cookies, contentType)
+        }
     }
+
+    /**
+     * 由模板生成本次请求, 只处理路径变量与查询参数
+     */
+    protected fun newRequestBuilder(): Request.Builder = template.newRequestBuilder(pathVariables, params)
 }
\ No newline at end of file
@@ -24,6 +24,13 @@ interface SuccessHandler<T> {
     fun onSuccess(result: T?)
 }
 
+/**
+ * 流式解析数组响应时, 逐个接收元素
+ */
+interface ElementHandler<E> {
+    fun onElement(element: E)
+}
+
 interface ExceptionHandler {
     fun onException(error: Throwable, request: Request)
 }
\ No newline at end of file
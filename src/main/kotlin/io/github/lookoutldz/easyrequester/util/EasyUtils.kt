@@ -218,32 +218,38 @@ private fun isSystemClass(clazz: Class<*>): Boolean {
 }
 
 /**
- * 检查 TypeReference 及其深层属性中是否包含 Kotlin data class
+ * 深度检测结果按类型缓存, Kotlin 与 Java 两套请求器共用
+ * 深度检测需要递归反射所有属性, 而同一类型的结果不会变化, 每次请求只需一次查表
+ * 使用 ClassValue 缓存: 结果挂在 Class 上, 类被卸载时随之回收, 不会因动态生成的类型导致泄漏
+ */
+private val dataClassInClassCache = object : ClassValue<Boolean>() {
+    override fun computeValue(type: Class<*>): Boolean = containsDataClassDeep(type as Type)
+}
+
+/**
+ * 每个 TypeReference 匿名子类对应唯一的泛型参数, 因此按子类缓存
+ */
+private val dataClassInTypeReferenceCache = object : ClassValue<Boolean>() {
+    override fun computeValue(type: Class<*>): Boolean {
+        val superClass = type.genericSuperclass
+        return superClass is ParameterizedType && containsDataClassDeep(superClass.actualTypeArguments[0])
+    }
+}
+
+/**
+ * 检查 TypeReference 及其深层属性中是否包含 Kotlin data class, 结果按类型缓存
  */
 internal fun <T> dataClassInTypeReference(typeRef: TypeReference<T>?): Boolean {
     if (typeRef == null) return false
-    
-    try {
-        val typeRefClass = typeRef.javaClass
-        val superClass = typeRefClass.genericSuperclass
-        
-        if (superClass is ParameterizedType) {
-            val actualTypeArgument = superClass.actualTypeArguments[0]
-            return containsDataClassDeep(actualTypeArgument)
-        }
-    } catch (e: Exception) {
-        // 忽略异常
-    }
-    
-    return false
+    return dataClassInTypeReferenceCache.get(typeRef.javaClass)
 }
 
 /**
- * 检查 Class 及其深层属性中是否包含 Kotlin data class
+ * 检查 Class 及其深层属性中是否包含 Kotlin data class, 结果按类型缓存
  */
 internal fun dataClassInClass(clazz: Class<*>?): Boolean {
     if (clazz == null) return false
-    return containsDataClassDeep(clazz as Type)
+    return dataClassInClassCache.get(clazz)
 }
 
 /**
@@ -251,7 +257,7 @@ internal fun dataClassInClass(clazz: Class<*>?): Boolean {
  */
 internal fun dataClassInKClass(kClass: KClass<*>?): Boolean {
     if (kClass == null) return false
-    return containsDataClassDeep(kClass.java)
+    return dataClassInClass(kClass.java)
 }
 
 /**
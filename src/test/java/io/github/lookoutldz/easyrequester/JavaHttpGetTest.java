@@ -3,11 +3,15 @@ package io.github.lookoutldz.easyrequester;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import io.github.lookoutldz.easyrequester.common.PreparedRequest;
 import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j;
 import okhttp3.OkHttpClient;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 
@@ -146,6 +150,48 @@ public class JavaHttpGetTest {
                 .execute();
     }
     
+    @Test
+    public void testDoRequestAsync() {
+        // 测试异步请求, 返回 CompletableFuture
+        CompletableFuture<ResponseBody<User>> future = EasyHttpGet4j.doRequestAsync(
+            new TypeReference<ResponseBody<User>>() {},
+            userUrl,
+            responseBody -> System.out.println("ok - " + (responseBody != null ? responseBody.getData() : "null"))
+        );
+        ResponseBody<User> responseBody = future.join();
+        assertNotNull(responseBody);
+        assertNotNull(responseBody.getData());
+    }
+
+    @Test
+    public void testBuilderExecuteAsync() {
+        // 测试Builder模式异步执行, 多个请求同时在途
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(new EasyHttpGet4j.Builder<>(String.class)
+                    .setUrl(baseUrl)
+                    .setParams(params)
+                    .onSuccess(result -> { })
+                    .executeAsync());
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
+        futures.forEach(future -> assertNotNull(future.join()));
+    }
+
+    @Test
+    public void testPreparedRequest() {
+        // 测试共享请求模板, 每次请求只替换路径变量与查询参数
+        PreparedRequest prepared = PreparedRequest.of("http://127.0.0.1:58080/api/get/{kind}/random");
+        String result = new EasyHttpGet4j.Builder<>(String.class)
+                .setPreparedRequest(prepared)
+                .setPathVariables(Map.of("kind", "sleep"))
+                .setParams(params)
+                .onSuccess(r -> { })
+                .executeAsync()
+                .join();
+        assertNotNull(result);
+    }
+
     @Test
     public void testJavaInteropWithKotlin() {
         // Java可以无缝调用Kotlin代码
@@ -0,0 +1,54 @@
+package io.github.lookoutldz.easyrequester.benchmark;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 基准测试用的进程内 HTTP 服务, 返回固定的 JSON, 避免外部服务带来的抖动
+ * @author looko
+ * @date 2025/6/20
+ */
+public class BenchmarkServer implements AutoCloseable {
+
+    private static final byte[] USER_JSON =
+            "{\"data\":{\"userId\":1,\"name\":\"looko\"},\"statusCode\":0,\"statusMessage\":\"SUCCESS\"}"
+                    .getBytes(StandardCharsets.UTF_8);
+
+    static {
+        // 关闭 Nagle, 否则复用连接时会遇到 40ms 的延迟确认, 掩盖真实延迟
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(8);
+
+    public BenchmarkServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/get/user/random", exchange -> {
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, USER_JSON.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(USER_JSON);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
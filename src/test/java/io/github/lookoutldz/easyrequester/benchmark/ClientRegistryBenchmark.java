@@ -0,0 +1,91 @@
+package io.github.lookoutldz.easyrequester.benchmark;
+
+import io.github.lookoutldz.easyrequester.common.ClientProfile;
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 对比每次 build() 新建 OkHttpClient (旧行为) 与使用 EasyHttpClients 注册表的差异
+ * connections 计数为实际建立的 TCP 连接数, 注册表模式下应接近 1, 旧模式下等于请求数
+ * 运行: mvn -P benchmark test-compile exec:exec -Djmh.args="ClientRegistry"
+ * @author looko
+ * @date 2025/6/20
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientRegistryBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+        BenchmarkServer server;
+        String url;
+        final Set<Object> connections = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+        // 网络拦截器能拿到实际使用的连接, 以此统计连接复用情况
+        final Interceptor connectionCounter = chain -> {
+            connections.add(chain.connection());
+            return chain.proceed(chain.request());
+        };
+        ClientProfile profile;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            server = new BenchmarkServer();
+            url = server.url("/api/get/user/random");
+            profile = ClientProfile.builder().addNetworkInterceptor(connectionCounter).build();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class ConnectionCounters {
+        public long connections;
+
+        @Setup(Level.Iteration)
+        public void reset(ServerState state) {
+            state.connections.clear();
+        }
+
+        @TearDown(Level.Iteration)
+        public void record(ServerState state) {
+            connections = state.connections.size();
+        }
+    }
+
+    @Benchmark
+    public void perBuildClient(ServerState state, ConnectionCounters counters) {
+        OkHttpClient client = new OkHttpClient.Builder().addNetworkInterceptor(state.connectionCounter).build();
+        new EasyHttpGet4j.Builder<>(String.class)
+                .setUrl(state.url)
+                .setOkHttpClient(client)
+                .onSuccess(result -> { })
+                .build()
+                .execute();
+        // 旧行为下这些连接会闲置到超时, 这里立即释放以免耗尽文件句柄
+        client.connectionPool().evictAll();
+    }
+
+    @Benchmark
+    public void sharedRegistryClient(ServerState state, ConnectionCounters counters) {
+        new EasyHttpGet4j.Builder<>(String.class)
+                .setUrl(state.url)
+                .setClientProfile(state.profile)
+                .onSuccess(result -> { })
+                .build()
+                .execute();
+    }
+}
@@ -0,0 +1,71 @@
+package io.github.lookoutldz.easyrequester.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.github.lookoutldz.easyrequester.ResponseBody;
+import io.github.lookoutldz.easyrequester.User;
+import io.github.lookoutldz.easyrequester.util.EasyUtilsKt;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * data class 深度检测: 每次请求都做一次反射扫描 (旧行为) 与按类型缓存后的查表对比
+ * 普通 Java 对象是最坏情况, 需要扫完所有嵌套属性才能得出 false
+ * 运行: mvn -P benchmark test-compile exec:exec -Djmh.args="DataClassDetection"
+ * @author looko
+ * @date 2025/6/25
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DataClassDetectionBenchmark {
+
+    public static class Address {
+        public String city;
+        public String street;
+    }
+
+    public static class Item {
+        public String sku;
+        public int quantity;
+        public Map<String, String> attributes;
+    }
+
+    public static class Order {
+        public long id;
+        public Address shippingAddress;
+        public List<Item> items;
+        public Map<String, Address> addressBook;
+    }
+
+    private final TypeReference<ResponseBody<List<User>>> typeReference = new TypeReference<>() {};
+    private final Type typeArgument = ((ParameterizedType) typeReference.getClass().getGenericSuperclass()).getActualTypeArguments()[0];
+
+    @Benchmark
+    public boolean deepScanPojo() {
+        return EasyUtilsKt.containsDataClassDeep(Order.class, new HashSet<>(), 10, 0);
+    }
+
+    @Benchmark
+    public boolean cachedPojo() {
+        return EasyUtilsKt.dataClassInClass(Order.class);
+    }
+
+    @Benchmark
+    public boolean deepScanTypeReference() {
+        return EasyUtilsKt.containsDataClassDeep(typeArgument, new HashSet<>(), 10, 0);
+    }
+
+    @Benchmark
+    public boolean cachedTypeReference() {
+        return EasyUtilsKt.dataClassInTypeReference(typeReference);
+    }
+}
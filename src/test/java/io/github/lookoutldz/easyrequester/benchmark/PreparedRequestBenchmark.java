@@ -0,0 +1,104 @@
+package io.github.lookoutldz.easyrequester.benchmark;
+
+import io.github.lookoutldz.easyrequester.common.PreparedRequest;
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 请求生成开销: 原先每次请求都解析 URL、过滤并逐个设置头信息、拼接 Cookie (legacy, 按原 commonRequestGenerator 逐行移植),
+ * 与使用预处理模板后每次只处理路径变量/查询参数的对比
+ * 运行: mvn -P benchmark test-compile exec:exec -Djmh.args="PreparedRequest -prof gc"
+ * @author looko
+ * @date 2025/6/28
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PreparedRequestBenchmark {
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/129.0.0.0 Safari/537.36";
+
+    private final String url = "https://api.example.com/api/users/42/orders";
+    private final Map<String, String> params = Map.of("page", "1");
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    private final Map<String, String> cookies = new LinkedHashMap<>();
+    private final Map<String, String> pathVariables = Map.of("id", "42");
+
+    private PreparedRequest prepared;
+    private PreparedRequest preparedTemplate;
+
+    @Setup
+    public void setUp() {
+        headers.put("Accept", "application/json");
+        headers.put("X-Trace-Id", "benchmark");
+        headers.put("Authorization", "Bearer token");
+        cookies.put("session", "abc");
+        cookies.put("locale", "zh-CN");
+        prepared = PreparedRequest.of(url, headers, cookies);
+        preparedTemplate = PreparedRequest.of("https://api.example.com/api/users/{id}/orders", headers, cookies);
+    }
+
+    @Benchmark
+    public Request legacyGenerator() {
+        return legacyCommonRequestGenerator(url, params, headers, cookies).build();
+    }
+
+    /**
+     * 一次性的 Builder: 每次都生成模板, 相当于现在 build().execute() 的开销
+     */
+    @Benchmark
+    public Request preparedPerCall() {
+        return PreparedRequest.of(url, headers, cookies).newRequestBuilder(null, params).build();
+    }
+
+    @Benchmark
+    public Request preparedReusedWithParams() {
+        return prepared.newRequestBuilder(null, params).build();
+    }
+
+    @Benchmark
+    public Request preparedReusedWithPathVariable() {
+        return preparedTemplate.newRequestBuilder(pathVariables, null).build();
+    }
+
+    @Benchmark
+    public Request preparedReusedStatic() {
+        return prepared.newRequestBuilder(null, null).build();
+    }
+
+    private static Request.Builder legacyCommonRequestGenerator(String url, Map<String, String> params, Map<String, String> headers, Map<String, String> cookies) {
+        Request.Builder requestBuilder = new Request.Builder();
+        Map<String, String> filteredParams = params.entrySet().stream()
+                .filter(e -> !e.getKey().isBlank())
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> b, LinkedHashMap::new));
+        HttpUrl.Builder urlBuilder = HttpUrl.get(url).newBuilder();
+        filteredParams.forEach(urlBuilder::addQueryParameter);
+        requestBuilder.url(urlBuilder.build());
+
+        headers.entrySet().stream()
+                .filter(e -> !(e.getKey().isBlank() || e.getValue().isBlank()))
+                .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue, (a, b) -> b, LinkedHashMap::new))
+                .forEach(requestBuilder::header);
+        if (headers.keySet().stream().noneMatch(key -> key.equalsIgnoreCase("User-Agent"))) {
+            requestBuilder.addHeader("User-Agent", USER_AGENT);
+        }
+
+        String cookieString = cookies.entrySet().stream()
+                .filter(e -> !(e.getKey().isBlank() || e.getValue().isBlank()))
+                .map(e -> e.getKey() + "=" + e.getValue())
+                .collect(Collectors.joining("; "));
+        if (!cookieString.isBlank()) {
+            requestBuilder.addHeader("Cookie", cookieString);
+        }
+        return requestBuilder;
+    }
+}
@@ -0,0 +1,216 @@
+package io.github.lookoutldz.easyrequester.benchmark;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.module.kotlin.KotlinModule;
+import io.github.lookoutldz.easyrequester.ResponseBody;
+import io.github.lookoutldz.easyrequester.User;
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients;
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet;
+import io.github.lookoutldz.easyrequester.requester.EasyHttpPost;
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j;
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpPost4j;
+import kotlin.Unit;
+import okhttp3.*;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 请求器各环节的开销, Kotlin (requester) 与 Java (requester4j) 两套请求器分别测量:
+ *  - build*: 生成请求 (URL/参数/头信息/Cookie), 不解析响应
+ *  - encode*: 对象请求体序列化
+ *  - decode*: 默认成功处理器解析响应体
+ *  - roundTrip*: 经过真实 socket 与进程内 MockWebServer 的完整请求
+ * 前三项使用应用拦截器直接返回响应, 不经过网络, 只包含请求器自身的开销
+ * 运行: mvn -P benchmark test-compile exec:exec -Djmh.args="RequesterBenchmark -prof gc"
+ * @author looko
+ * @date 2025/6/29
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequesterBenchmark {
+
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final TypeReference<ResponseBody<List<User>>> USERS_TYPE = new TypeReference<>() {};
+
+    private final Map<String, String> params = Map.of("page", "1", "size", "100");
+    private final Map<String, String> headers = Map.of("Accept", "application/json", "X-Trace-Id", "benchmark");
+    private final Map<String, String> cookies = Map.of("session", "abc");
+
+    private List<User> users;
+    private byte[] usersJson;
+
+    /**
+     * 不经过网络, 直接返回空响应, 需要时先把请求体写到内存中以触发序列化
+     */
+    private OkHttpClient emptyClient;
+    /**
+     * 不经过网络, 直接返回固定的 JSON 响应
+     */
+    private OkHttpClient jsonClient;
+
+    private MockWebServer server;
+    private String url;
+    private String serverUrl;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        users = new ArrayList<>();
+        for (long i = 1; i <= 100; i++) {
+            users.add(new User(i, "user-" + i));
+        }
+        usersJson = new ObjectMapper().registerModule(new KotlinModule.Builder().build())
+                .writeValueAsBytes(new ResponseBody<>(users, 0, "SUCCESS"));
+
+        url = "http://benchmark.local/api/users";
+        emptyClient = EasyHttpClients.shared().newBuilder()
+                .addInterceptor(chain -> {
+                    RequestBody body = chain.request().body();
+                    if (body != null) {
+                        body.writeTo(new Buffer());
+                    }
+                    return response(chain.request(), 204, new byte[0]);
+                })
+                .build();
+        jsonClient = EasyHttpClients.shared().newBuilder()
+                .addInterceptor(chain -> response(chain.request(), 200, usersJson))
+                .build();
+
+        server = new MockWebServer();
+        server.setServerSocketFactory(new NoDelayServerSocketFactory());
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse()
+                        .setHeader("Content-Type", "application/json")
+                        .setBody(new Buffer().write(usersJson));
+            }
+        });
+        server.start();
+        serverUrl = server.url("/api/users").toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    private static Response response(Request request, int code, byte[] body) {
+        return new Response.Builder()
+                .request(request)
+                .protocol(Protocol.HTTP_1_1)
+                .code(code)
+                .message("OK")
+                .body(okhttp3.ResponseBody.create(body, JSON))
+                .build();
+    }
+
+    @Benchmark
+    public void buildKotlin() {
+        new EasyHttpGet.Builder<>(String.class)
+                .setUrl(url)
+                .setParams(params)
+                .setHeaders(headers)
+                .setCookies(cookies)
+                .setOkHttpClient(emptyClient)
+                .onResponse(response -> Unit.INSTANCE)
+                .build()
+                .execute();
+    }
+
+    @Benchmark
+    public void buildJava() {
+        new EasyHttpGet4j.Builder<>(String.class)
+                .setUrl(url)
+                .setParams(params)
+                .setHeaders(headers)
+                .setCookies(cookies)
+                .setOkHttpClient(emptyClient)
+                .onResponse(response -> { })
+                .build()
+                .execute();
+    }
+
+    @Benchmark
+    public void encodeKotlin() {
+        new EasyHttpPost.Builder<>(String.class)
+                .setUrl(url)
+                .setBody(users)
+                .setOkHttpClient(emptyClient)
+                .onResponse(response -> Unit.INSTANCE)
+                .build()
+                .execute();
+    }
+
+    @Benchmark
+    public void encodeJava() {
+        new EasyHttpPost4j.Builder<>(String.class)
+                .setUrl(url)
+                .setBody(users)
+                .setOkHttpClient(emptyClient)
+                .onResponse(response -> { })
+                .build()
+                .execute();
+    }
+
+    @Benchmark
+    public void decodeKotlin(Blackhole blackhole) {
+        new EasyHttpGet.Builder<>(USERS_TYPE)
+                .setUrl(url)
+                .setOkHttpClient(jsonClient)
+                .onSuccess(result -> {
+                    blackhole.consume(result);
+                    return Unit.INSTANCE;
+                })
+                .build()
+                .execute();
+    }
+
+    @Benchmark
+    public void decodeJava(Blackhole blackhole) {
+        new EasyHttpGet4j.Builder<>(USERS_TYPE)
+                .setUrl(url)
+                .setOkHttpClient(jsonClient)
+                .onSuccess(blackhole::consume)
+                .build()
+                .execute();
+    }
+
+    @Benchmark
+    public void roundTripKotlin(Blackhole blackhole) {
+        new EasyHttpGet.Builder<>(USERS_TYPE)
+                .setUrl(serverUrl)
+                .setParams(params)
+                .onSuccess(result -> {
+                    blackhole.consume(result);
+                    return Unit.INSTANCE;
+                })
+                .build()
+                .execute();
+    }
+
+    @Benchmark
+    public void roundTripJava(Blackhole blackhole) {
+        new EasyHttpGet4j.Builder<>(USERS_TYPE)
+                .setUrl(serverUrl)
+                .setParams(params)
+                .onSuccess(blackhole::consume)
+                .build()
+                .execute();
+    }
+}
@@ -0,0 +1,189 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.CircuitBreaker
+import io.github.lookoutldz.easyrequester.common.CircuitBreakerEvent
+import io.github.lookoutldz.easyrequester.common.CircuitBreakerListener
+import io.github.lookoutldz.easyrequester.common.CircuitBreakerOpenException
+import io.github.lookoutldz.easyrequester.common.CircuitBreakerPolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import okhttp3.OkHttpClient
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.ExecutionException
+import java.util.logging.Handler
+import java.util.logging.Level
+import java.util.logging.LogRecord
+import java.util.logging.Logger
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+/**
+ * 熔断器测试: 请求器集成使用注入错误的替身服务, 状态机直接驱动 CircuitBreaker
+ */
+class CircuitBreakerTest {
+
+    private val events = CopyOnWriteArrayList<CircuitBreakerEvent>()
+
+    private val policy = CircuitBreakerPolicy(
+        windowSize = 10,
+        minimumCalls = 5,
+        openDuration = Duration.ofMillis(100),
+        halfOpenCalls = 2,
+        slowCallDuration = Duration.ofMillis(50),
+        slowCallRateThreshold = 0.5,
+        listeners = listOf(CircuitBreakerListener { event -> events += event }),
+    )
+
+    @Test
+    fun testFailFastWhenOpen() {
+        StandInServer(StandInServer.Options(errorRate = 1.0)).start().use { server ->
+            val errors = mutableListOf<Throwable>()
+            repeat(8) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setCircuitBreaker(policy)
+                    .onResponseFailure { }
+                    .onException { e, _ -> errors += e }
+                    .build()
+                    .execute()
+            }
+            // 前 5 次失败后打开, 之后的请求不再发出
+            assertEquals(5, server.requestCount)
+            assertEquals(3, errors.size)
+            assertTrue(errors.all { it is CircuitBreakerOpenException })
+            assertEquals(CircuitBreaker.State.OPEN, policy.breakerFor("127.0.0.1", server.port).state)
+            assertEquals(listOf(CircuitBreaker.State.CLOSED to CircuitBreaker.State.OPEN), events.map { it.from to it.to })
+
+            // 异步执行同样快速失败, 默认的异常处理器抛出异常, future 异常完成
+            val future = EasyHttpGet4j.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setCircuitBreaker(policy)
+                .executeAsync()
+            val error = assertThrows<ExecutionException> { future.get() }
+            assertIs<CircuitBreakerOpenException>(error.cause)
+            assertEquals(5, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testHalfOpenProbing() {
+        val breaker = policy.breakerFor("half-open.test", 80)
+        repeat(5) { breaker.onResult(breaker.acquire(), failed = true, durationNanos = 0) }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state)
+        assertThrows<CircuitBreakerOpenException> { breaker.acquire() }
+
+        Thread.sleep(120)
+        // 半开状态只放行 2 个探测请求, 一个失败即重新打开
+        val first = breaker.acquire()
+        val second = breaker.acquire()
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state)
+        assertThrows<CircuitBreakerOpenException> { breaker.acquire() }
+        breaker.onResult(first, failed = false, durationNanos = 0)
+        breaker.onResult(second, failed = true, durationNanos = 0)
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state)
+
+        Thread.sleep(120)
+        val probes = listOf(breaker.acquire(), breaker.acquire())
+        probes.forEach { breaker.onResult(it, failed = false, durationNanos = 0) }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state)
+        assertEquals(
+            listOf("CLOSED>OPEN", "OPEN>HALF_OPEN", "HALF_OPEN>OPEN", "OPEN>HALF_OPEN", "HALF_OPEN>CLOSED"),
+            events.filter { it.host == "half-open.test" }.map { "${it.from}>${it.to}" },
+        )
+    }
+
+    @Test
+    fun testSlowCallRate() {
+        val breaker = policy.breakerFor("slow.test", 80)
+        val slow = Duration.ofMillis(80).toNanos()
+        repeat(5) { breaker.onResult(breaker.acquire(), failed = false, durationNanos = 0) }
+        repeat(4) { breaker.onResult(breaker.acquire(), failed = false, durationNanos = slow) }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state)
+        // 窗口中 5/10 的调用为慢调用, 达到 50% 的阈值
+        breaker.onResult(breaker.acquire(), failed = false, durationNanos = slow)
+        assertEquals(CircuitBreaker.State.OPEN, breaker.state)
+        assertEquals(0.5, events.last().slowCallRate)
+    }
+
+    @Test
+    fun testStaleResultsIgnored() {
+        val breaker = policy.breakerFor("stale.test", 80)
+        val stale = breaker.acquire()
+        repeat(5) { breaker.onResult(breaker.acquire(), failed = true, durationNanos = 0) }
+        Thread.sleep(120)
+        val probe = breaker.acquire()
+        // 打开之前放行的调用结束时不计入半开探测
+        breaker.onResult(stale, failed = true, durationNanos = 0)
+        breaker.onResult(probe, failed = false, durationNanos = 0)
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state)
+        breaker.onResult(breaker.acquire(), failed = false, durationNanos = 0)
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.state)
+    }
+
+    @Test
+    fun testListenerFailureLogged() {
+        // 监听器抛出的异常连同堆栈记录到日志, 不影响状态变化与其余监听器
+        val failure = IllegalStateException("listener boom")
+        val records = CopyOnWriteArrayList<LogRecord>()
+        val handler = object : Handler() {
+            override fun publish(record: LogRecord) { records += record }
+            override fun flush() {}
+            override fun close() {}
+        }
+        val logger = Logger.getLogger(CircuitBreaker::class.java.name)
+        logger.addHandler(handler)
+        try {
+            val failing = policy.copy(listeners = listOf(CircuitBreakerListener { throw failure }, CircuitBreakerListener { events += it }))
+            val breaker = failing.breakerFor("listener.test", 80)
+            repeat(5) { breaker.onResult(breaker.acquire(), failed = true, durationNanos = 0) }
+            assertEquals(CircuitBreaker.State.OPEN, breaker.state)
+            assertEquals(listOf("listener.test"), events.map { it.host })
+            val record = records.single()
+            assertEquals(Level.WARNING, record.level)
+            assertSame(failure, record.thrown)
+        } finally {
+            logger.removeHandler(handler)
+        }
+    }
+
+    @Test
+    fun testInterceptorCrashReleasesProbe() {
+        // 半开状态下拦截器抛出非 IOException 的异常时归还探测名额, 熔断器不会卡在半开
+        StandInServer().start().use { server ->
+            val breaker = policy.breakerFor("127.0.0.1", server.port)
+            repeat(5) { breaker.onResult(breaker.acquire(), failed = true, durationNanos = 0) }
+            Thread.sleep(120)
+            val crashing = OkHttpClient.Builder()
+                .addInterceptor { throw IllegalStateException("interceptor boom") }
+                .build()
+            repeat(3) {
+                var error: Throwable? = null
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setOkHttpClient(crashing)
+                    .setCircuitBreaker(policy)
+                    .onException { e, _ -> error = e }
+                    .build()
+                    .execute()
+                assertIs<IllegalStateException>(error)
+            }
+            assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.state)
+            // 探测名额仍然可用, 两次成功的探测后关闭
+            repeat(2) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setCircuitBreaker(policy)
+                    .onSuccess { }
+                    .build()
+                    .execute()
+            }
+            assertEquals(CircuitBreaker.State.CLOSED, breaker.state)
+        }
+    }
+}
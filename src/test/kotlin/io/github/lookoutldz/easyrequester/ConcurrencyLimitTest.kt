@@ -0,0 +1,164 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.ConcurrencyLimitExceededException
+import io.github.lookoutldz.easyrequester.common.ConcurrencyLimitPolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import okhttp3.OkHttpClient
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertTrue
+
+/**
+ * 自适应并发限制测试: 请求器集成使用带延迟的替身服务, 限制的调整直接驱动 ConcurrencyLimiter
+ */
+class ConcurrencyLimitTest {
+
+    private fun fixed(limit: Int, maxQueue: Int = 100, queueTimeout: Duration = Duration.ofSeconds(5)) = ConcurrencyLimitPolicy(
+        algorithm = ConcurrencyLimitPolicy.Algorithm.AIMD,
+        initialLimit = limit,
+        minLimit = limit,
+        maxLimit = limit,
+        maxQueue = maxQueue,
+        queueTimeout = queueTimeout,
+    )
+
+    @Test
+    fun testBlockingCallsBounded() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(30))).start().use { server ->
+            val policy = fixed(4)
+            val succeeded = AtomicInteger()
+            Executors.newVirtualThreadPerTaskExecutor().use { executor ->
+                repeat(32) {
+                    executor.execute {
+                        EasyHttpGet.Builder(String::class.java)
+                            .setUrl(server.url("/api/get/user/random"))
+                            .setConcurrencyLimit(policy)
+                            .onSuccess { succeeded.incrementAndGet() }
+                            .build()
+                            .execute()
+                    }
+                }
+            }
+            assertEquals(32, succeeded.get())
+            assertTrue(server.maxConcurrentRequests <= 4, "limit exceeded: ${server.maxConcurrentRequests}")
+            assertEquals(0, policy.limiterFor("127.0.0.1", server.port).inFlight)
+        }
+    }
+
+    @Test
+    fun testAsyncQueueAndShed() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(200))).start().use { server ->
+            val policy = fixed(2, maxQueue = 1)
+            val futures = (1..4).map {
+                EasyHttpGet4j.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setConcurrencyLimit(policy)
+                    .executeAsync()
+            }
+            // 2 个在途, 1 个排队, 第 4 个立即被拒绝
+            val error = runCatching { futures[3].get(100, TimeUnit.MILLISECONDS) }.exceptionOrNull()
+            assertIs<ExecutionException>(error)
+            assertIs<ConcurrencyLimitExceededException>(error.cause)
+            futures.take(3).forEach { assertTrue(it.get()!!.contains("looko")) }
+            assertEquals(3, server.requestCount)
+            assertTrue(server.maxConcurrentRequests <= 2)
+        }
+    }
+
+    @Test
+    fun testQueueTimeout() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(300))).start().use { server ->
+            val policy = fixed(1, queueTimeout = Duration.ofMillis(50))
+            val errors = AtomicInteger()
+            Executors.newVirtualThreadPerTaskExecutor().use { executor ->
+                repeat(2) {
+                    executor.execute {
+                        EasyHttpGet.Builder(String::class.java)
+                            .setUrl(server.url("/api/get/user/random"))
+                            .setConcurrencyLimit(policy)
+                            .onSuccess { }
+                            .onException { e, _ -> if (e is ConcurrencyLimitExceededException) errors.incrementAndGet() }
+                            .build()
+                            .execute()
+                    }
+                }
+            }
+            assertEquals(1, errors.get())
+            assertEquals(1, server.requestCount)
+            assertEquals(0, policy.limiterFor("127.0.0.1", server.port).queued)
+        }
+    }
+
+    @Test
+    fun testAimdAdjustment() {
+        val limiter = ConcurrencyLimitPolicy(algorithm = ConcurrencyLimitPolicy.Algorithm.AIMD, initialLimit = 10)
+            .limiterFor("aimd.test", 80)
+        // 接近上限的成功调用每次加一
+        repeat(10) { limiter.acquire() }
+        repeat(4) { limiter.release(1_000_000, dropped = false) }
+        assertEquals(14, limiter.limit)
+        // 在途请求不足上限的一半时说明流量本身不足, 不放大
+        repeat(6) { limiter.release(1_000_000, dropped = false) }
+        assertEquals(14, limiter.limit)
+        // 拥塞信号按 0.9 收缩
+        limiter.acquire()
+        limiter.release(1_000_000, dropped = true)
+        assertEquals(12, limiter.limit)
+    }
+
+    @Test
+    fun testGradientFollowsLatency() {
+        val limiter = ConcurrencyLimitPolicy(initialLimit = 20, longWindow = 100).limiterFor("gradient.test", 80)
+        val fast = Duration.ofMillis(10).toNanos()
+        // 延迟平稳且并发接近上限时缓慢增长
+        repeat(50) {
+            repeat(limiter.limit) { limiter.acquire() }
+            repeat(limiter.inFlight) { limiter.release(fast, dropped = false) }
+        }
+        val grown = limiter.limit
+        assertTrue(grown > 20, "limit did not grow: $grown")
+        // 延迟升高到 5 倍后迅速收缩
+        repeat(limiter.limit) { limiter.acquire() }
+        repeat(limiter.inFlight) { limiter.release(fast * 5, dropped = false) }
+        val shrunk = limiter.limit
+        assertTrue(shrunk < grown * 3 / 4, "limit did not shrink: $shrunk (was $grown)")
+        // 延迟稳定在新的水平后, 长期平均跟上, 限制重新增长
+        repeat(50) {
+            repeat(limiter.limit) { limiter.acquire() }
+            repeat(limiter.inFlight) { limiter.release(fast * 5, dropped = false) }
+        }
+        assertTrue(limiter.limit > shrunk, "limit did not recover: ${limiter.limit} (was $shrunk)")
+    }
+
+    @Test
+    fun testInterceptorCrashReleasesPermit() {
+        // 拦截器抛出非 IOException 的异常时归还并发许可, 不会永久占用
+        StandInServer().start().use { server ->
+            val policy = fixed(2)
+            val client = OkHttpClient.Builder()
+                .addInterceptor { throw IllegalStateException("interceptor boom") }
+                .build()
+            repeat(3) {
+                var error: Throwable? = null
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setOkHttpClient(client)
+                    .setConcurrencyLimit(policy)
+                    .onException { e, _ -> error = e }
+                    .build()
+                    .execute()
+                assertIs<IllegalStateException>(error)
+            }
+            assertEquals(0, policy.limiterFor("127.0.0.1", server.port).inFlight)
+            assertEquals(2, policy.limiterFor("127.0.0.1", server.port).limit)
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.ConcurrencyLimitPolicy
+import io.github.lookoutldz.easyrequester.common.DeadlineExceededException
+import io.github.lookoutldz.easyrequester.common.RetryPolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import okhttp3.Response
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.jupiter.api.Test
+import java.io.InterruptedIOException
+import java.lang.ref.WeakReference
+import java.time.Duration
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * 请求超时与总时限测试: 慢响应使用带延迟的替身服务, 重试与慢读取使用 MockWebServer
+ */
+class DeadlineTest {
+
+    private fun elapsedMillis(startedAt: Long) = Duration.ofNanos(System.nanoTime() - startedAt).toMillis()
+
+    @Test
+    fun testAttemptTimeout() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(2000))).start().use { server ->
+            var error: Throwable? = null
+            val started = System.nanoTime()
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setTimeout(Duration.ofMillis(200))
+                .onSuccess { }
+                .onException { e, _ -> error = e }
+                .build()
+                .execute()
+            // 只设置了单次超时, 异常保持 OkHttp 的原样
+            assertIs<InterruptedIOException>(error)
+            assertTrue(elapsedMillis(started) < 1500)
+        }
+    }
+
+    @Test
+    fun testDeadlineStopsRetries() {
+        MockWebServer().use { server ->
+            repeat(10) { server.enqueue(MockResponse().setResponseCode(503)) }
+            val retry = RetryPolicy(maxAttempts = 10, baseDelay = Duration.ofMillis(150), maxDelay = Duration.ofMillis(150), budget = null)
+            var failedCode = 0
+            val started = System.nanoTime()
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/unavailable").toString())
+                .setRetryPolicy(retry)
+                .setDeadline(Duration.ofMillis(400))
+                .onResponseFailure { failedCode = it.code }
+                .build()
+                .execute()
+            // 剩余时间不足以再退避一次时, 以最后一次尝试的响应结束
+            assertEquals(503, failedCode)
+            assertTrue(server.requestCount in 1..3, "unexpected attempts: ${server.requestCount}")
+            assertTrue(elapsedMillis(started) < 1500)
+        }
+    }
+
+    @Test
+    fun testDeadlineCoversQueueing() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(1000))).start().use { server ->
+            val policy = ConcurrencyLimitPolicy(
+                algorithm = ConcurrencyLimitPolicy.Algorithm.AIMD,
+                initialLimit = 1,
+                minLimit = 1,
+                maxLimit = 1,
+                queueTimeout = Duration.ofSeconds(5),
+            )
+            val first = EasyHttpGet4j.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setConcurrencyLimit(policy)
+                .executeAsync()
+            val started = System.nanoTime()
+            var error: Throwable? = null
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setConcurrencyLimit(policy)
+                .setDeadline(Duration.ofMillis(150))
+                .onSuccess { }
+                .onException { e, _ -> error = e }
+                .build()
+                .execute()
+            // 排队时间受总时限约束, 而不是 5 秒的 queueTimeout
+            assertIs<DeadlineExceededException>(error)
+            assertTrue(elapsedMillis(started) < 800)
+            assertTrue(first.get()!!.contains("looko"))
+            assertEquals(1, server.requestCount)
+            assertEquals(0, policy.limiterFor("127.0.0.1", server.port).queued)
+        }
+    }
+
+    @Test
+    fun testAsyncDeadlineCancels() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(3000))).start().use { server ->
+            val policy = ConcurrencyLimitPolicy(initialLimit = 4)
+            val started = System.nanoTime()
+            val future = EasyHttpGet4j.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setConcurrencyLimit(policy)
+                .setDeadline(Duration.ofMillis(200))
+                .executeAsync()
+            val error = runCatching { future.get(2, TimeUnit.SECONDS) }.exceptionOrNull()
+            assertIs<ExecutionException>(error)
+            assertIs<DeadlineExceededException>(error.cause)
+            assertTrue(elapsedMillis(started) < 1500)
+            // 被取消的请求归还了并发许可
+            val limiter = policy.limiterFor("127.0.0.1", server.port)
+            repeat(50) { if (limiter.inFlight > 0) Thread.sleep(20) }
+            assertEquals(0, limiter.inFlight)
+        }
+    }
+
+    @Test
+    fun testDeadlineBoundsBodyReading() {
+        MockWebServer().use { server ->
+            server.enqueue(MockResponse().setBody("x".repeat(256 * 1024)))
+            var chunks = 0
+            var error: Throwable? = null
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/large").toString())
+                .setDeadline(Duration.ofMillis(300))
+                .onResponse { response ->
+                    // 模拟逐块处理较慢的解析
+                    val input = response.body!!.byteStream()
+                    val buffer = ByteArray(8192)
+                    while (input.read(buffer) != -1) {
+                        chunks++
+                        Thread.sleep(20)
+                    }
+                }
+                .onException { e, _ -> error = e }
+                .build()
+                .execute()
+            assertIs<DeadlineExceededException>(error)
+            assertTrue(chunks < 32, "body fully read: $chunks chunks")
+        }
+    }
+
+    @Test
+    fun testFinishedAsyncCallReleasedBeforeDeadline() {
+        // 异步请求结束后取消到期任务, 处理器与结果不再等到时限到期才能回收
+        StandInServer().start().use { server ->
+            fun run(): WeakReference<Any> {
+                val handler = object : (Response) -> Unit {
+                    override fun invoke(response: Response) { response.body?.string() }
+                }
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setDeadline(Duration.ofHours(1))
+                    .onResponse(handler)
+                    .executeAsync()
+                    .get(5, TimeUnit.SECONDS)
+                return WeakReference(handler)
+            }
+            val ref = run()
+            repeat(50) {
+                if (ref.get() != null) {
+                    System.gc()
+                    Thread.sleep(20)
+                }
+            }
+            assertNull(ref.get())
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.DiskCacheProfile
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.time.Duration
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * 磁盘缓存测试, 每个测试使用独立的临时目录
+ */
+class DiskCacheTest {
+
+    @TempDir
+    lateinit var directory: File
+
+    private class RoutesDispatcher : Dispatcher() {
+        override fun dispatch(request: RecordedRequest): MockResponse = when (request.path) {
+            "/cached" -> MockResponse().setHeader("Cache-Control", "max-age=60").setBody("cached")
+            "/etag" ->
+                if (request.getHeader("If-None-Match") == "\"e1\"") MockResponse().setResponseCode(304).setHeader("ETag", "\"e1\"")
+                else MockResponse().setHeader("ETag", "\"e1\"").setHeader("Cache-Control", "no-cache").setBody("etag")
+            // 没有任何缓存响应头
+            else -> MockResponse().setBody(request.path!!)
+        }
+    }
+
+    private fun get(server: MockWebServer, path: String, diskCache: DiskCacheProfile?): String? {
+        var body: String? = null
+        EasyHttpGet.Builder(String::class.java)
+            .setUrl(server.url(path).toString())
+            .setDiskCache(diskCache)
+            .onSuccess { body = it }
+            .build()
+            .execute()
+        return body
+    }
+
+    @Test
+    fun testCacheSurvivesRestart() {
+        MockWebServer().use { server ->
+            server.dispatcher = RoutesDispatcher()
+            val profile = DiskCacheProfile(directory)
+            assertEquals("cached", get(server, "/cached", profile))
+            assertEquals("cached", get(server, "/cached", profile))
+            assertEquals(1, server.requestCount)
+            assertEquals(1, profile.stats().hits)
+            assertTrue(profile.stats().size > 0)
+            // 模拟重启: 关闭后重新打开同一目录, 缓存仍然有效
+            profile.close()
+            val reopened = EasyHttpGet4j.Builder(String::class.java)
+                .setUrl(server.url("/cached").toString())
+                .setDiskCache(DiskCacheProfile(directory))
+                .executeAsync()
+                .get()
+            assertEquals("cached", reopened)
+            assertEquals(1, server.requestCount)
+            assertEquals(1, profile.stats().hits)
+            assertEquals(0, profile.stats().misses)
+            profile.close()
+        }
+    }
+
+    @Test
+    fun testForcedRoutesAndConditionalHits() {
+        MockWebServer().use { server ->
+            server.dispatcher = RoutesDispatcher()
+            val profile = DiskCacheProfile.builder(directory)
+                .forceCache("/config", Duration.ofMinutes(1))
+                .build()
+            repeat(2) { assertEquals("/config/app", get(server, "/config/app", profile)) }
+            repeat(2) { assertEquals("/plain", get(server, "/plain", profile)) }
+            repeat(2) { assertEquals("etag", get(server, "/etag", profile)) }
+            // /config 强制缓存, /plain 没有缓存响应头, /etag 每次发出条件请求
+            assertEquals(5, server.requestCount)
+            val stats = profile.stats()
+            assertEquals(6, stats.requests)
+            assertEquals(1, stats.hits)
+            assertEquals(1, stats.conditionalHits)
+            assertEquals(4, stats.misses)
+            profile.close()
+        }
+    }
+
+    @Test
+    fun testSharedClientDiskCache() {
+        MockWebServer().use { server ->
+            server.dispatcher = RoutesDispatcher()
+            val profile = DiskCacheProfile(directory)
+            EasyHttpClients.setDiskCache(profile)
+            try {
+                // 未指定客户端的 doRequest* 使用共享客户端
+                repeat(2) { EasyHttpGet.doRequestDefault(server.url("/cached").toString(), successHandler = {}) }
+                assertEquals(1, server.requestCount)
+                assertEquals(1, profile.stats().hits)
+            } finally {
+                profile.close()
+            }
+            assertEquals(null, EasyHttpClients.shared().cache)
+            get(server, "/cached", null)
+            assertEquals(2, server.requestCount)
+        }
+    }
+}
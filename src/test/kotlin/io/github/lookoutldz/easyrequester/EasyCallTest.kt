@@ -0,0 +1,130 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.ConcurrencyLimitPolicy
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.RetryPolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.requester4j.common.SuccessHandler
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * 请求句柄测试: 取消使用带延迟的替身服务, 重试退避使用 MockWebServer
+ */
+class EasyCallTest {
+
+    @Test
+    fun testSyncHandle() {
+        StandInServer().start().use { server ->
+            val call = EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .onSuccess { Thread.sleep(50) }
+                .build()
+                .execute()
+            assertTrue(call.isDone)
+            assertTrue((call.get() as String).contains("looko"))
+            assertEquals(1, call.attempts)
+            assertTrue(call.elapsed(EasyCall.Phase.NETWORK) > Duration.ZERO)
+            assertTrue(call.elapsed(EasyCall.Phase.PROCESSING) >= Duration.ofMillis(50))
+            val phases = EasyCall.Phase.entries.fold(Duration.ZERO) { sum, phase -> sum + call.elapsed(phase) }
+            assertTrue(phases <= call.elapsed, "phases $phases exceed total ${call.elapsed}")
+            // 已经结束的请求不能再取消
+            assertFalse(call.cancel())
+        }
+    }
+
+    @Test
+    fun testHandleIsReadOnly() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(300))).start().use { server ->
+            val call = EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .executeAsync()
+            assertFailsWith<UnsupportedOperationException> { call.complete("forged") }
+            assertFailsWith<UnsupportedOperationException> { call.completeExceptionally(IllegalStateException()) }
+            assertFailsWith<UnsupportedOperationException> { call.obtrudeValue("forged") }
+            // 超时只作用于副本, 请求本身照常完成
+            val timed = call.orTimeout(10, TimeUnit.MILLISECONDS)
+            assertFailsWith<ExecutionException> { timed.get() }
+            assertTrue(call.get()!!.contains("looko"))
+        }
+    }
+
+    @Test
+    fun testCancelReleasesResources() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(3000))).start().use { server ->
+            val policy = ConcurrencyLimitPolicy(initialLimit = 4)
+            val handled = AtomicBoolean()
+            val calls = (1..3).map {
+                EasyHttpGet4j.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setConcurrencyLimit(policy)
+                    .onSuccess(object : SuccessHandler<String?> {
+                        override fun onSuccess(result: String?) = handled.set(true)
+                    })
+                    .executeAsync()
+            }
+            val limiter = policy.limiterFor("127.0.0.1", server.port)
+            repeat(50) { if (limiter.inFlight < 3) Thread.sleep(20) }
+            assertEquals(3, limiter.inFlight)
+            // 卸载负载: 取消所有未完成的请求
+            val started = System.nanoTime()
+            calls.filterNot { it.isDone }.forEach { assertTrue(it.cancel()) }
+            calls.forEach { call ->
+                assertTrue(call.isDone && call.isCancelled)
+                assertFailsWith<CancellationException> { call.get() }
+            }
+            repeat(50) { if (limiter.inFlight > 0) Thread.sleep(20) }
+            assertEquals(0, limiter.inFlight)
+            assertTrue(Duration.ofNanos(System.nanoTime() - started) < Duration.ofMillis(1500))
+            assertFalse(handled.get())
+        }
+    }
+
+    @Test
+    fun testCancelDuringBackoff() {
+        MockWebServer().use { server ->
+            server.enqueue(MockResponse().setResponseCode(503))
+            server.enqueue(MockResponse().setBody("ok"))
+            val call = EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/flaky").toString())
+                .setRetryPolicy(RetryPolicy(baseDelay = Duration.ofMillis(400), maxDelay = Duration.ofMillis(400), budget = null))
+                .onSuccess { }
+                .executeAsync()
+            repeat(50) { if (server.requestCount == 0) Thread.sleep(20) }
+            Thread.sleep(100)
+            assertTrue(call.cancel())
+            Thread.sleep(700)
+            // 退避期间被取消, 不再发起重试
+            assertEquals(1, server.requestCount)
+            assertEquals(0, call.elapsed(EasyCall.Phase.PROCESSING).toNanos())
+        }
+    }
+
+    @Test
+    fun testBackoffPhase() {
+        MockWebServer().use { server ->
+            server.enqueue(MockResponse().setResponseCode(503))
+            server.enqueue(MockResponse().setBody("ok"))
+            val call = EasyHttpGet4j.Builder(String::class.java)
+                .setUrl(server.url("/flaky").toString())
+                .setRetryPolicy(RetryPolicy(baseDelay = Duration.ofMillis(200), maxDelay = Duration.ofMillis(200), budget = null))
+                .executeAsync()
+            assertEquals("ok", call.get())
+            assertEquals(2, call.attempts)
+            assertTrue(call.elapsed(EasyCall.Phase.BACKOFF) >= Duration.ofMillis(190), call.toString())
+            assertTrue(call.elapsed >= call.elapsed(EasyCall.Phase.BACKOFF))
+        }
+    }
+}
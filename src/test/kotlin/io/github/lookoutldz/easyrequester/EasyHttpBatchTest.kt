@@ -0,0 +1,105 @@
+package io.github.lookoutldz.easyrequester
+
+import com.sun.net.httpserver.HttpServer
+import io.github.lookoutldz.easyrequester.entity.BatchResult
+import io.github.lookoutldz.easyrequester.entity.HttpMethod
+import io.github.lookoutldz.easyrequester.entity.RequestSpec
+import io.github.lookoutldz.easyrequester.requester.common.EasyHttpRequestHelper
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * 批量执行测试, 使用进程内服务端统计同时在途的请求数
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class EasyHttpBatchTest {
+
+    private lateinit var server: HttpServer
+    private lateinit var baseUrl: String
+
+    private val inFlight = AtomicInteger()
+    private val maxInFlight = AtomicInteger()
+
+    @BeforeAll
+    fun startServer() {
+        System.setProperty("sun.net.httpserver.nodelay", "true")
+        server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+        server.createContext("/echo") { exchange ->
+            val current = inFlight.incrementAndGet()
+            maxInFlight.accumulateAndGet(current) { a, b -> maxOf(a, b) }
+            try {
+                val query = exchange.requestURI.query.orEmpty()
+                val millis = Regex("millis=(\\d+)").find(query)?.groupValues?.get(1)?.toLong() ?: 0
+                Thread.sleep(millis)
+                val code = Regex("code=(\\d+)").find(query)?.groupValues?.get(1)?.toInt() ?: 200
+                exchange.requestBody.readAllBytes()
+                val bytes = """{"data":$millis,"statusCode":0,"statusMessage":"${exchange.requestMethod}"}""".toByteArray()
+                exchange.sendResponseHeaders(code, bytes.size.toLong())
+                exchange.responseBody.use { it.write(bytes) }
+            } finally {
+                inFlight.decrementAndGet()
+            }
+        }
+        server.executor = Executors.newVirtualThreadPerTaskExecutor()
+        server.start()
+        baseUrl = "http://127.0.0.1:${server.address.port}/echo"
+    }
+
+    @AfterAll
+    fun stopServer() {
+        server.stop(0)
+    }
+
+    @Test
+    fun testExecuteAllRespectsPerHostLimit() {
+        maxInFlight.set(0)
+        val specs = (1..40).map { RequestSpec(HttpMethod.GET, url = baseUrl, params = mapOf("millis" to "30")) }
+        var received = 0
+        val stats = EasyHttpRequestHelper.executeAll<ResponseBody<*>>(specs, maxConcurrency = 16, perHostLimit = 4) { result ->
+            assertTrue(result.isSuccessful)
+            assertEquals(30, result.result?.data)
+            received++
+        }
+        println(stats)
+        assertEquals(40, received)
+        assertEquals(40, stats.succeeded)
+        assertTrue(maxInFlight.get() <= 4, "per host limit exceeded: ${maxInFlight.get()}")
+        // 40 个 30ms 的请求按 4 并发约需 300ms, 串行则需 1200ms
+        assertTrue(stats.elapsed.toMillis() < 1_000, "requests were not concurrent: ${stats.elapsed}")
+    }
+
+    @Test
+    fun testExecuteAllOrdered() {
+        // 越靠前的请求越慢, 完成顺序与输入顺序相反
+        val specs = (0 until 10).map { RequestSpec(HttpMethod.GET, url = baseUrl, params = mapOf("millis" to "${(10 - it) * 20}")) }
+        val indices = mutableListOf<Int>()
+        EasyHttpRequestHelper.executeAll<ResponseBody<*>>(specs, maxConcurrency = 10, perHostLimit = 10, ordered = true) {
+            indices += it.index
+        }
+        assertEquals((0 until 10).toList(), indices)
+    }
+
+    @Test
+    fun testExecuteAllCollectsFailures() {
+        val specs = listOf(
+            RequestSpec(HttpMethod.POST, url = baseUrl, body = mapOf("name" to "looko")),
+            RequestSpec(HttpMethod.DELETE, url = "$baseUrl?code=500"),
+            RequestSpec(HttpMethod.GET, url = "http://127.0.0.1:1/unreachable"),
+        )
+        val results = arrayOfNulls<BatchResult<ResponseBody<*>>>(specs.size)
+        val stats = EasyHttpRequestHelper.executeAll<ResponseBody<*>>(specs) { results[it.index] = it }
+        assertEquals(1, stats.succeeded)
+        assertEquals(2, stats.failed)
+        assertEquals("POST", results[0]?.result?.statusMessage)
+        assertEquals(500, results[1]?.code)
+        assertTrue(results[2]?.error != null)
+    }
+}
@@ -0,0 +1,57 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.ClientProfile
+import io.github.lookoutldz.easyrequester.common.EasyHttpClients
+import okhttp3.OkHttpClient
+import org.junit.jupiter.api.Test
+import java.lang.ref.WeakReference
+import java.time.Duration
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class EasyHttpClientsTest {
+
+    @Test
+    fun testSameProfileSameClient() {
+        val first = EasyHttpClients.get(ClientProfile(readTimeout = Duration.ofSeconds(3)))
+        val second = EasyHttpClients.get(ClientProfile(readTimeout = Duration.ofSeconds(3)))
+        assertSame(first, second)
+        assertEquals(3_000, first.readTimeoutMillis)
+    }
+
+    @Test
+    fun testDerivedClientsSharePools() {
+        val shared = EasyHttpClients.shared()
+        val derived = EasyHttpClients.get(ClientProfile(connectTimeout = Duration.ofSeconds(1)))
+        assertNotSame(shared, derived)
+        assertSame(shared.connectionPool, derived.connectionPool)
+        assertSame(shared.dispatcher, derived.dispatcher)
+    }
+
+    @Test
+    fun testNullProfileIsShared() {
+        assertSame(EasyHttpClients.shared(), EasyHttpClients.get(null))
+    }
+
+    @Test
+    fun testCustomClientDerivedOnce() {
+        var client: OkHttpClient? = OkHttpClient()
+        val profile = ClientProfile(readTimeout = Duration.ofSeconds(4))
+        val derived = EasyHttpClients.resolve(client, profile)
+        assertSame(derived, EasyHttpClients.resolve(client, ClientProfile(readTimeout = Duration.ofSeconds(4))))
+        assertNotSame(derived, EasyHttpClients.resolve(OkHttpClient(), profile))
+        assertEquals(4_000, derived.readTimeoutMillis)
+        // 派生结果不阻止用户丢弃的客户端被回收
+        val reference = WeakReference(client)
+        client = null
+        repeat(50) {
+            if (reference.get() != null) {
+                System.gc()
+                Thread.sleep(20)
+            }
+        }
+        assertNull(reference.get())
+    }
+}
@@ -3,10 +3,23 @@ package io.github.lookoutldz.easyrequester
 import com.fasterxml.jackson.core.type.TypeReference
 import com.fasterxml.jackson.databind.ObjectMapper
 import com.fasterxml.jackson.module.kotlin.registerKotlinModule
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
 import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import okhttp3.Call
+import okhttp3.EventListener
 import okhttp3.OkHttpClient
 import okhttp3.Request
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeoutOrNull
 import org.junit.jupiter.api.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
 
 class EasyHttpGetRequesterTest {
 
@@ -117,4 +130,88 @@ class EasyHttpGetRequesterTest {
             .execute()
     }
 
+    @Test
+    fun testPreparedRequest() = runBlocking<Unit> {
+        // 测试共享请求模板, 每次请求只替换路径变量与查询参数
+        val prepared = PreparedRequest.of("http://127.0.0.1:58080/api/get/{kind}/random", headers = mapOf("X-Trace" to "1"))
+        val sleep = EasyHttpGet.Builder(object : TypeReference<ResponseBody<Int>>() {})
+            .setPreparedRequest(prepared)
+            .setPathVariables(mapOf("kind" to "sleep"))
+            .setParams(params)
+            .await()
+        assertEquals(233, sleep?.data)
+        val user = EasyHttpGet.Builder(object : TypeReference<ResponseBody<User>>() {})
+            .setPreparedRequest(prepared)
+            .setPathVariables(mapOf("kind" to "user"))
+            .await()
+        assertNotNull(user?.data?.userId)
+    }
+
+    @Test
+    fun testLiteralBracesInPlainUrl() {
+        // 只用 setUrl 时不解析路径变量, URL 中的 {...} 原样 (编码后) 发送
+        var requested: String? = null
+        EasyHttpGet.Builder(String::class.java)
+            .setUrl("http://127.0.0.1:58080/api/get/{kind}/random")
+            .onResponse { requested = it.request.url.encodedPath }
+            .onException { e, _ -> throw e }
+            .build()
+            .execute()
+        assertEquals("/api/get/%7Bkind%7D/random", requested)
+    }
+
+    @Test
+    fun testPathVariablesWithPlainUrl() = runBlocking<Unit> {
+        // 设置了路径变量时 setUrl 的 URL 按模板解析
+        val user = EasyHttpGet.Builder(object : TypeReference<ResponseBody<User>>() {})
+            .setUrl("http://127.0.0.1:58080/api/get/{kind}/random")
+            .setPathVariables(mapOf("kind" to "user"))
+            .await()
+        assertNotNull(user?.data?.userId)
+    }
+
+    @Test
+    fun testDoRequestAwait() = runBlocking<Unit> {
+        // 测试挂起版本的请求, 直接返回结果
+        val responseBody = EasyHttpGet.doRequestAwait<ResponseBody<*>>(url = userUrl)
+        println("ok - ${responseBody?.data}")
+        assertNotNull(responseBody?.data)
+    }
+
+    @Test
+    fun testAwaitConcurrently() = runBlocking<Unit> {
+        // 测试在同一个协程作用域内并发发起请求
+        val results = (1..100).map {
+            async {
+                EasyHttpGet
+                    .Builder(object : TypeReference<ResponseBody<User>>() {})
+                    .setUrl(userUrl)
+                    .await()
+            }
+        }.awaitAll()
+        assertEquals(100, results.count { it?.data != null })
+    }
+
+    @Test
+    fun testAwaitCancellation() = runBlocking<Unit> {
+        // 测试协程取消时放弃等待, 底层请求被取消
+        val canceled = CountDownLatch(1)
+        val client = OkHttpClient.Builder()
+            .eventListener(object : EventListener() {
+                override fun canceled(call: Call) = canceled.countDown()
+            })
+            .build()
+        val result = withTimeoutOrNull(100) {
+            EasyHttpGet.doRequestAwait<String>(url = baseUrl, params = mapOf("millis" to "2000"), okHttpClient = client)
+        }
+        assertNull(result)
+        assertTrue(canceled.await(1, TimeUnit.SECONDS))
+        // 被取消的调用随即结束, 不再占用 Dispatcher
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1)
+        while (client.dispatcher.runningCallsCount() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10)
+        }
+        assertEquals(0, client.dispatcher.runningCallsCount())
+    }
+
 }
\ No newline at end of file
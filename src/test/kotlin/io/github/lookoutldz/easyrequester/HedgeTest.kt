@@ -0,0 +1,139 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.HedgePolicy
+import io.github.lookoutldz.easyrequester.common.RetryBudget
+import io.github.lookoutldz.easyrequester.entity.HttpMethod
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester.EasyHttpPost
+import io.github.lookoutldz.easyrequester.requester.EasyHttpPut
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * 对冲请求测试, 使用只让第一个请求变慢的替身服务模拟慢副本
+ */
+class HedgeTest {
+
+    private val hedge = HedgePolicy(delay = Duration.ofMillis(50), budget = null)
+
+    /**
+     * 前 slowRequests 个请求延迟 3 秒, 之后的请求延迟 5ms
+     */
+    private fun slowFirst(slowRequests: Int = 1): StandInServer.Latency {
+        val arrived = AtomicInteger()
+        return StandInServer.Latency { if (arrived.incrementAndGet() <= slowRequests) 3000 else 5 }
+    }
+
+    @Test
+    fun testHedgeWinsOverSlowReplica() {
+        StandInServer(StandInServer.Options(latency = slowFirst())).start().use { server ->
+            var result: String? = null
+            val started = System.nanoTime()
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setHedgePolicy(hedge)
+                .onSuccess { result = it }
+                .build()
+                .execute()
+            val elapsed = Duration.ofNanos(System.nanoTime() - started).toMillis()
+            assertTrue(result!!.contains("looko"))
+            assertTrue(elapsed < 1500, "hedge did not win: $elapsed ms")
+            assertEquals(2, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testAsyncHedge() {
+        StandInServer(StandInServer.Options(latency = slowFirst())).start().use { server ->
+            val started = System.nanoTime()
+            val result = EasyHttpGet4j.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setHedgePolicy(hedge)
+                .executeAsync()
+                .get()
+            val elapsed = Duration.ofNanos(System.nanoTime() - started).toMillis()
+            assertTrue(result!!.contains("looko"))
+            assertTrue(elapsed < 1500, "hedge did not win: $elapsed ms")
+        }
+    }
+
+    @Test
+    fun testNoHedgeForFastResponses() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(5))).start().use { server ->
+            repeat(10) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setHedgePolicy(hedge.copy(delay = Duration.ofMillis(200)))
+                    .onSuccess { }
+                    .build()
+                    .execute()
+            }
+            assertEquals(10, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testBudgetCapsHedges() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(60))).start().use { server ->
+            val budget = RetryBudget(ratio = 0.0, minRetriesPerSecond = 0.0, maxTokens = 2.0)
+            repeat(5) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setHedgePolicy(hedge.copy(delay = Duration.ofMillis(10), budget = budget))
+                    .onSuccess { }
+                    .build()
+                    .execute()
+            }
+            // 预算只允许 2 次对冲
+            Thread.sleep(100)
+            assertEquals(7, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testOnlyIdempotentMethodsHedged() {
+        StandInServer(StandInServer.Options(latency = slowFirst(2))).start().use { server ->
+            EasyHttpPost.Builder(String::class.java)
+                .setUrl(server.url("/api/post/user/1"))
+                .setBody(User(1, "a"))
+                .setHedgePolicy(hedge)
+                .onSuccess { }
+                .build()
+                .execute()
+            assertEquals(1, server.requestCount)
+            // PUT 声明为幂等后可以对冲
+            EasyHttpPut.Builder(String::class.java)
+                .setUrl(server.url("/api/put/user/1"))
+                .setBody(User(1, "a"))
+                .setHedgePolicy(hedge.copy(hedgeMethods = setOf(HttpMethod.GET, HttpMethod.PUT)))
+                .onSuccess { }
+                .build()
+                .execute()
+            assertEquals(3, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testObservedPercentileDelay() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(20))).start().use { server ->
+            val policy = HedgePolicy(minSamples = 5, initialDelay = Duration.ofSeconds(1), budget = null)
+            assertEquals(Duration.ofSeconds(1), policy.delayFor("127.0.0.1", server.port))
+            repeat(10) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setHedgePolicy(policy)
+                    .onSuccess { }
+                    .build()
+                    .execute()
+            }
+            // 样本足够后使用观测到的 p95
+            val delay = policy.delayFor("127.0.0.1", server.port)
+            assertTrue(delay >= Duration.ofMillis(20) && delay < Duration.ofMillis(500), "unexpected delay: $delay")
+        }
+    }
+}
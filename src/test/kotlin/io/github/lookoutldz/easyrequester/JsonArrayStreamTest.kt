@@ -0,0 +1,95 @@
+package io.github.lookoutldz.easyrequester
+
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.module.kotlin.registerKotlinModule
+import com.sun.net.httpserver.HttpServer
+import io.github.lookoutldz.easyrequester.common.JsonArrayStreams
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.requester4j.common.ElementHandler
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import org.junit.jupiter.api.assertThrows
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import kotlin.test.assertEquals
+
+/**
+ * 流式解析数组响应测试, 服务端以 chunked 编码写出一个较大的数组
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class JsonArrayStreamTest {
+
+    private val records = 200_000
+
+    private lateinit var server: HttpServer
+    private lateinit var url: String
+
+    @BeforeAll
+    fun startServer() {
+        server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0)
+        server.createContext("/api/get/user/list") { exchange ->
+            exchange.responseHeaders.add("Content-Type", "application/json")
+            exchange.sendResponseHeaders(200, 0)
+            exchange.responseBody.bufferedWriter().use { writer ->
+                writer.write("""{"statusCode":0,"extra":{"skip":[1,2,{"a":3}]},"data":[""")
+                for (i in 1..records) {
+                    if (i > 1) writer.write(",")
+                    writer.write("""{"userId":$i,"name":"user-$i"}""")
+                }
+                writer.write("""],"statusMessage":"SUCCESS"}""")
+            }
+        }
+        server.start()
+        url = "http://127.0.0.1:${server.address.port}/api/get/user/list"
+    }
+
+    @AfterAll
+    fun stopServer() {
+        server.stop(0)
+    }
+
+    @Test
+    fun testOnEach() {
+        var count = 0
+        var idSum = 0L
+        EasyHttpGet.Builder(Any::class.java)
+            .setUrl(url)
+            .onEach(User::class.java, "/data") { user ->
+                count++
+                idSum += user.userId
+            }
+            .build()
+            .execute()
+        assertEquals(records, count)
+        assertEquals(records.toLong() * (records + 1) / 2, idSum)
+    }
+
+    @Test
+    fun testOnEach4j() {
+        var count = 0
+        EasyHttpGet4j.Builder(Any::class.java)
+            .setUrl(url)
+            .onEach(User::class.java, "/data", object : ElementHandler<User> {
+                override fun onElement(element: User) {
+                    count++
+                }
+            })
+            .build()
+            .execute()
+        assertEquals(records, count)
+    }
+
+    @Test
+    fun testPointerNavigation() {
+        val reader = ObjectMapper().registerKotlinModule().readerFor(Int::class.java)
+        val json = """{"a":{"b":[[9],[1,2,3]]},"c":[4]}"""
+        val values = mutableListOf<Int>()
+        JsonArrayStreams.forEach<Int>(json.byteInputStream(), reader, "/a/b/1") { values += it }
+        assertEquals(listOf(1, 2, 3), values)
+        assertEquals(1, JsonArrayStreams.forEach<Int>("[7]".byteInputStream(), reader, null) {})
+        assertThrows<Exception> { JsonArrayStreams.forEach<Int>(json.byteInputStream(), reader, "/missing") {} }
+    }
+}
@@ -0,0 +1,130 @@
+package io.github.lookoutldz.easyrequester
+
+import com.fasterxml.jackson.core.JsonProcessingException
+import io.github.lookoutldz.easyrequester.common.CircuitBreaker
+import io.github.lookoutldz.easyrequester.common.CircuitBreakerPolicy
+import io.github.lookoutldz.easyrequester.common.RetryPolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpPut
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import org.junit.jupiter.api.assertThrows
+import java.time.Duration
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.module.kotlin.registerKotlinModule
+import io.github.lookoutldz.easyrequester.common.JsonRequestBody
+import okhttp3.MediaType.Companion.toMediaType
+import okio.Buffer
+import org.junit.jupiter.api.Test
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class JsonRequestBodyTest {
+
+    private val objectMapper = ObjectMapper().registerKotlinModule()
+    private val mediaType = "application/json".toMediaType()
+
+    // 约 3MB, 超过缓存上限
+    private val largeBody = (1..100_000L).map { User(it, "user-$it") }
+
+    @Test
+    fun testSmallBodyBuffered() {
+        val user = User(1, "looko")
+        val body = JsonRequestBody(user, objectMapper.writerFor(User::class.java), mediaType)
+        val expected = objectMapper.writeValueAsString(user)
+        assertEquals(expected.length.toLong(), body.contentLength())
+        // 可以重复写出
+        repeat(2) {
+            val sink = Buffer()
+            body.writeTo(sink)
+            assertEquals(expected, sink.readUtf8())
+        }
+    }
+
+    @Test
+    fun testLargeBodyStreamedByDefault() {
+        val body = JsonRequestBody(largeBody, objectMapper.writer(), mediaType)
+        assertEquals(-1, body.contentLength())
+        val sink = Buffer()
+        body.writeTo(sink)
+        assertEquals(objectMapper.writeValueAsString(largeBody), sink.readUtf8())
+    }
+
+    @Test
+    fun testLargeBodyExactLength() {
+        val body = JsonRequestBody(largeBody, objectMapper.writer(), mediaType, exactLength = true)
+        val expected = objectMapper.writeValueAsBytes(largeBody)
+        assertTrue(expected.size > JsonRequestBody.BUFFER_LIMIT)
+        assertEquals(expected.size.toLong(), body.contentLength())
+        val sink = Buffer()
+        body.writeTo(sink)
+        assertEquals(expected.size.toLong(), sink.size)
+        assertTrue(sink.readByteArray().contentEquals(expected))
+    }
+
+    @Test
+    fun testChunkedSerializesOnce() {
+        // chunked 时跳过缓存尝试与计数, 只在写出时序列化一次; exactLength 另外多一次完整的计数
+        val serialized = AtomicInteger()
+        val items = (1..100_000L).map { Counted(it, serialized) }
+        fun serializations(body: JsonRequestBody): Int {
+            serialized.set(0)
+            body.contentLength()
+            body.writeTo(Buffer())
+            return serialized.get()
+        }
+        assertEquals(items.size, serializations(JsonRequestBody(items, objectMapper.writer(), mediaType, chunked = true)))
+        // 缓存尝试在构造时完成, 之后计数与写出各一次
+        assertEquals(2 * items.size, serializations(JsonRequestBody(items, objectMapper.writer(), mediaType, exactLength = true)))
+    }
+
+    class Counted(val id: Long, private val serialized: AtomicInteger) {
+        val name: String
+            get() = "item-$id".also { serialized.incrementAndGet() }
+    }
+
+    @Test
+    fun testLargeBodyChunked() {
+        val body = JsonRequestBody(largeBody, objectMapper.writer(), mediaType, chunked = true)
+        assertEquals(-1, body.contentLength())
+        val sink = Buffer()
+        body.writeTo(sink)
+        assertEquals(objectMapper.writeValueAsString(largeBody), sink.readUtf8())
+    }
+
+    class Unserializable(val id: Long) {
+        val name: String
+            get() = if (id == 3L) throw IllegalStateException("cannot serialize $id") else "item-$id"
+    }
+
+    @Test
+    fun testSerializationFailureNotRetried() {
+        // 序列化失败不是网络失败: 不重试, 不计入熔断统计
+        StandInServer().start().use { server ->
+            val retry = RetryPolicy(maxAttempts = 3, baseDelay = Duration.ofMillis(10), maxDelay = Duration.ofMillis(10), budget = null)
+            val breaker = CircuitBreakerPolicy(windowSize = 2, minimumCalls = 1)
+            var error: Throwable? = null
+            val call = EasyHttpPut.Builder(String::class.java)
+                .setUrl(server.url("/api/put/user/1"))
+                .setBody((1..5L).map { Unserializable(it) })
+                .setChunkedBody(true)
+                .setRetryPolicy(retry)
+                .setCircuitBreaker(breaker)
+                .onException { e, _ -> error = e }
+                .build()
+                .execute()
+            assertTrue(generateSequence(error) { it.cause }.any { it is JsonProcessingException }, "unexpected error: $error")
+            assertEquals(1, call.attempts)
+            val state = breaker.breakerFor("127.0.0.1", server.port)
+            assertEquals(CircuitBreaker.State.CLOSED, state.state)
+            assertEquals(0.0, state.failureRate)
+        }
+    }
+
+    @Test
+    fun testSmallBodyFailsBeforeSending() {
+        // 缓存范围内的请求体在生成请求时序列化, 失败在发出请求之前抛出
+        assertThrows<JsonProcessingException> {
+            JsonRequestBody((1..5L).map { Unserializable(it) }, objectMapper.writer(), mediaType)
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package io.github.lookoutldz.easyrequester
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import com.fasterxml.jackson.module.kotlin.registerKotlinModule
+import io.github.lookoutldz.easyrequester.common.ObjectCodecs
+import io.github.lookoutldz.easyrequester.util.defaultObjectMapper
+import io.github.lookoutldz.easyrequester.util.kotlinObjectMapper
+import org.junit.jupiter.api.Test
+import java.lang.ref.WeakReference
+import kotlin.test.assertEquals
+import kotlin.test.assertNotSame
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class ObjectCodecsTest {
+
+    private val objectMapper = kotlinObjectMapper
+
+    @Test
+    fun testReaderReusedPerMapperAndType() {
+        val reader = ObjectCodecs.reader(objectMapper, User::class.java)
+        assertSame(reader, ObjectCodecs.reader(objectMapper, User::class.java))
+        assertNotSame(reader, ObjectCodecs.reader(defaultObjectMapper, User::class.java))
+        assertEquals(User(1, "looko"), reader.readValue<User>("""{"userId":1,"name":"looko"}"""))
+    }
+
+    @Test
+    fun testCustomMapperNotCached() {
+        val custom = ObjectMapper().registerKotlinModule()
+        val reader = ObjectCodecs.reader(custom, User::class.java)
+        assertNotSame(reader, ObjectCodecs.reader(custom, User::class.java))
+        assertEquals(User(1, "looko"), reader.readValue<User>("""{"userId":1,"name":"looko"}"""))
+    }
+
+    @Test
+    fun testGenericReaderReusedAcrossTypeReferences() {
+        // 两个不同的 TypeReference 匿名类, 表示同一个泛型类型
+        val first = ObjectCodecs.reader(objectMapper, object : TypeReference<ResponseBody<User>>() {})
+        val second = ObjectCodecs.reader(objectMapper, object : TypeReference<ResponseBody<User>>() {})
+        assertSame(first, second)
+        val body = first.readValue<ResponseBody<User>>("""{"data":{"userId":1,"name":"looko"},"statusCode":0,"statusMessage":"SUCCESS"}""")
+        assertEquals("looko", body.data.name)
+    }
+
+    @Test
+    fun testWriterReused() {
+        val writer = ObjectCodecs.writer(objectMapper, User::class.java)
+        assertSame(writer, ObjectCodecs.writer(objectMapper, User::class.java))
+        assertEquals("""{"userId":1,"name":"looko"}""", writer.writeValueAsString(User(1, "looko")))
+    }
+
+    @Test
+    fun testDiscardedMapperIsCollected() {
+        fun use(): WeakReference<ObjectMapper> {
+            val mapper = ObjectMapper().registerKotlinModule()
+            ObjectCodecs.reader(mapper, User::class.java).readValue<User>("""{"userId":1,"name":"looko"}""")
+            ObjectCodecs.reader(mapper, object : TypeReference<List<User>>() {})
+            ObjectCodecs.writer(mapper, User::class.java).writeValueAsString(User(1, "looko"))
+            return WeakReference(mapper)
+        }
+        val ref = use()
+        repeat(50) {
+            if (ref.get() == null) return@repeat
+            System.gc()
+            Thread.sleep(20)
+        }
+        assertNull(ref.get())
+    }
+}
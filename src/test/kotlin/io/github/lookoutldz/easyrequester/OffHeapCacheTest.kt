@@ -0,0 +1,159 @@
+package io.github.lookoutldz.easyrequester
+
+import com.fasterxml.jackson.core.type.TypeReference
+import io.github.lookoutldz.easyrequester.common.OffHeapCachePolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.Buffer
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import kotlin.random.Random
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * 堆外响应体缓存测试, 每个测试使用容量不同的策略, 互不共用缓存
+ */
+class OffHeapCacheTest {
+
+    @TempDir
+    lateinit var directory: File
+
+    /**
+     * /blob/{n} 返回 n KiB 的随机字节, /user 以分块编码返回 JSON, 其它路径不可缓存
+     */
+    private class BlobDispatcher : Dispatcher() {
+        val blobs = mutableMapOf<String, ByteArray>()
+
+        override fun dispatch(request: RecordedRequest): MockResponse {
+            val path = request.path!!
+            return when {
+                path.startsWith("/blob/") -> {
+                    val bytes = synchronized(blobs) { blobs.getOrPut(path) { Random.nextBytes(path.substringAfterLast('/').toInt() * 1024) } }
+                    MockResponse().setHeader("Content-Type", "application/octet-stream").setBody(Buffer().write(bytes))
+                }
+                path == "/user" -> MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .setChunkedBody("""{"data":{"userId":${request.sequenceNumber},"name":"looko"},"statusCode":0,"statusMessage":"SUCCESS"}""", 16)
+                path == "/no-store" -> MockResponse().setHeader("Cache-Control", "no-store").setBody("no-store")
+                else -> MockResponse().setResponseCode(500)
+            }
+        }
+    }
+
+    private fun bytes(server: MockWebServer, path: String, policy: OffHeapCachePolicy, onBody: (okhttp3.ResponseBody) -> ByteArray = { it.bytes() }): ByteArray? {
+        var bytes: ByteArray? = null
+        EasyHttpGet.Builder(String::class.java)
+            .setUrl(server.url(path).toString())
+            .setOffHeapCache(policy)
+            .onResponse { bytes = onBody(it.body!!) }
+            .build()
+            .execute()
+        return bytes
+    }
+
+    @Test
+    fun testHitServedFromOffHeapBlocks() {
+        MockWebServer().use { server ->
+            val dispatcher = BlobDispatcher()
+            server.dispatcher = dispatcher
+            val policy = OffHeapCachePolicy(capacity = 2 * 1024 * 1024, blockSize = 4096)
+            val first = bytes(server, "/blob/300", policy)
+            // 命中时 onResponse 读到的字节与上游一致, 跨越多个块
+            val second = bytes(server, "/blob/300", policy)
+            assertContentEquals(dispatcher.blobs["/blob/300"], first)
+            assertContentEquals(first, second)
+            assertEquals(1, server.requestCount)
+            val cache = policy.cache()
+            assertEquals(1, cache.hitCount)
+            assertEquals(1, cache.missCount)
+            assertEquals(300L * 1024, cache.usedBytes)
+            // 默认的成功处理器照常解析, 分块编码的 JSON 在解析结束后也能缓存
+            val builder = EasyHttpGet4j.Builder(object : TypeReference<ResponseBody<User>>() {})
+                .setUrl(server.url("/user").toString())
+                .setOffHeapCache(policy)
+            val user = builder.executeAsync().get()
+            assertEquals(user!!.data.userId, builder.executeAsync().get()!!.data.userId)
+            assertEquals(2, server.requestCount)
+            assertEquals(2, cache.size)
+        }
+    }
+
+    @Test
+    fun testEvictionKeepsPinnedEntriesReadable() {
+        MockWebServer().use { server ->
+            val dispatcher = BlobDispatcher()
+            server.dispatcher = dispatcher
+            val policy = OffHeapCachePolicy(capacity = 64 * 1024, blockSize = 4096, maxEntryBytes = 32 * 1024, mappedFile = File(directory, "bodies.bin"))
+            bytes(server, "/blob/16", policy)
+            var pinned: ByteArray? = null
+            bytes(server, "/blob/16", policy) { body ->
+                // 读取命中的响应体期间, 写入的新响应超过容量, 淘汰了这个条目
+                val head = body.source().readByteArray(1024)
+                listOf("/blob/20", "/blob/24", "/blob/28").forEach { bytes(server, it, policy) }
+                head + body.source().readByteArray()
+            }.also { pinned = it }
+            assertContentEquals(dispatcher.blobs["/blob/16"], pinned)
+            assertTrue(policy.cache().evictionCount > 0)
+            assertTrue(policy.cache().usedBytes <= 64 * 1024)
+            // 最近写入的条目仍然命中, 被淘汰的重新请求
+            val requests = server.requestCount
+            assertContentEquals(dispatcher.blobs["/blob/28"], bytes(server, "/blob/28", policy))
+            assertEquals(requests, server.requestCount)
+            bytes(server, "/blob/16", policy)
+            assertEquals(requests + 1, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testCloseReleasesAfterReads() {
+        MockWebServer().use { server ->
+            val dispatcher = BlobDispatcher()
+            server.dispatcher = dispatcher
+            val policy = OffHeapCachePolicy(capacity = 128 * 1024, blockSize = 4096)
+            val cache = policy.cache()
+            bytes(server, "/blob/16", policy)
+            val pinned = bytes(server, "/blob/16", policy) { body ->
+                // 读取命中的响应体期间关闭, 块在读取结束后才归还
+                val head = body.source().readByteArray(1024)
+                policy.close()
+                assertEquals(16L * 1024, cache.usedBytes)
+                head + body.source().readByteArray()
+            }
+            assertContentEquals(dispatcher.blobs["/blob/16"], pinned)
+            assertEquals(0, cache.usedBytes)
+            assertEquals(0, cache.size)
+            // 关闭后接入旧缓存的客户端直接发出请求, 不再缓存
+            val requests = server.requestCount
+            repeat(2) { bytes(server, "/blob/16", policy) }
+            assertEquals(requests + 2, server.requestCount)
+            assertEquals(0, cache.usedBytes)
+            assertTrue(policy.cache() !== cache)
+        }
+    }
+
+    @Test
+    fun testUncacheableResponses() {
+        MockWebServer().use { server ->
+            server.dispatcher = BlobDispatcher()
+            val policy = OffHeapCachePolicy(capacity = 96 * 1024, blockSize = 4096, maxEntryBytes = 32 * 1024)
+            repeat(2) {
+                bytes(server, "/no-store", policy)
+                bytes(server, "/error", policy)
+                // 超过 maxEntryBytes
+                bytes(server, "/blob/40", policy)
+                // 处理器只读取了一部分
+                bytes(server, "/blob/30", policy) { it.source().readByteArray(1024) }
+            }
+            assertEquals(8, server.requestCount)
+            assertEquals(0, policy.cache().size)
+            assertEquals(0, policy.cache().usedBytes)
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.PreparedRequest
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.assertThrows
+import kotlin.test.assertEquals
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class PreparedRequestTest {
+
+    @Test
+    fun testFrozenHeaders() {
+        val prepared = PreparedRequest.of(
+            url = "http://127.0.0.1:58080/api/get/user/random",
+            headers = mapOf("X-Trace" to "1", "" to "", "X-Blank" to " "),
+            cookies = mapOf("a" to "1", "b" to "2", "" to ""),
+            contentType = "application/json",
+        )
+        val headers = prepared.headers
+        assertEquals(listOf("X-Trace", "Content-Type", "User-Agent", "Cookie"), (0 until headers.size).map { headers.name(it) })
+        assertEquals("a=1; b=2", headers["Cookie"])
+        // 同一模板多次生成请求, 没有变化的部分时直接复用解析好的 HttpUrl
+        assertSame(prepared.httpUrl, prepared.newRequestBuilder().build().url)
+    }
+
+    @Test
+    fun testUserAgentOverride() {
+        val prepared = PreparedRequest.of("http://127.0.0.1:58080/", headers = mapOf("user-agent" to "easy"))
+        assertEquals(listOf("easy"), prepared.headers.values("User-Agent"))
+    }
+
+    @Test
+    fun testPathVariablesAndParams() {
+        val prepared = PreparedRequest.of("http://127.0.0.1:58080/api/users/{id}/orders/{orderId}")
+        assertEquals(setOf("id", "orderId"), prepared.pathVariableNames)
+        val url = prepared.newRequestBuilder(mapOf("id" to "a b", "orderId" to "7"), mapOf("page" to "1", " " to "x")).build().url
+        assertEquals("http://127.0.0.1:58080/api/users/a%20b/orders/7?page=1", url.toString())
+        assertThrows<IllegalArgumentException> { prepared.newRequestBuilder(mapOf("id" to "1")) }
+    }
+
+    @Test
+    fun testLiteralKeepsBraces() {
+        val prepared = PreparedRequest.literal("http://127.0.0.1:58080/api/user-{id}/{x}")
+        assertTrue(prepared.pathVariableNames.isEmpty())
+        assertEquals("/api/user-%7Bid%7D/%7Bx%7D", prepared.newRequestBuilder().build().url.encodedPath)
+    }
+
+    @Test
+    fun testPartialPathVariableRejected() {
+        val error = assertThrows<IllegalArgumentException> { PreparedRequest.of("http://127.0.0.1:58080/api/user-{id}") }
+        assertTrue(error.message!!.contains("whole path segment"))
+    }
+}
@@ -0,0 +1,190 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.RateLimitExceededException
+import io.github.lookoutldz.easyrequester.common.RateLimitHeaders
+import io.github.lookoutldz.easyrequester.common.RateLimitPolicy
+import io.github.lookoutldz.easyrequester.common.RateQuota
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.jupiter.api.Test
+import java.time.Duration
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.test.assertEquals
+import kotlin.test.assertIs
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * 限流测试: 请求器集成使用替身服务与 MockWebServer (需要自定义响应头), 令牌桶与响应头解析直接测试
+ */
+class RateLimitTest {
+
+    @Test
+    fun testBlockingPacing() {
+        StandInServer().start().use { server ->
+            val policy = RateLimitPolicy(hostQuota = RateQuota(20.0, burst = 1))
+            val started = System.nanoTime()
+            repeat(10) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setRateLimit(policy)
+                    .onSuccess { }
+                    .build()
+                    .execute()
+            }
+            // 第一个令牌立即可用, 之后每 50ms 一个
+            val elapsed = Duration.ofNanos(System.nanoTime() - started).toMillis()
+            assertTrue(elapsed >= 430, "requests not paced: $elapsed ms")
+            assertEquals(10, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testAsyncDelayedScheduling() {
+        StandInServer().start().use { server ->
+            val policy = RateLimitPolicy(hostQuota = RateQuota(20.0, burst = 2))
+            // 预热, 不计入限流
+            EasyHttpGet4j.Builder(String::class.java).setUrl(server.url("/api/get/user/random")).executeAsync().get()
+            val started = System.nanoTime()
+            val futures = (1..6).map {
+                EasyHttpGet4j.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setRateLimit(policy)
+                    .executeAsync()
+            }
+            // 等待令牌时不阻塞调用线程
+            assertTrue(Duration.ofNanos(System.nanoTime() - started).toMillis() < 100)
+            futures.forEach { assertTrue(it.get()!!.contains("looko")) }
+            val elapsed = Duration.ofNanos(System.nanoTime() - started).toMillis()
+            assertTrue(elapsed >= 180, "requests not paced: $elapsed ms")
+        }
+    }
+
+    @Test
+    fun testRouteQuota() {
+        StandInServer().start().use { server ->
+            val policy = RateLimitPolicy.builder()
+                .setHostQuota(0.1, 100)
+                .addRouteQuota("/api/get/user", 1.0, 2)
+                .setMaxWait(Duration.ofMillis(200))
+                .build()
+            val errors = mutableListOf<Throwable>()
+            val get = { path: String ->
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url(path))
+                    .setRateLimit(policy)
+                    .onSuccess { }
+                    .onException { e, _ -> errors += e }
+                    .build()
+                    .execute()
+            }
+            repeat(3) { get("/api/get/user/random") }
+            repeat(3) { get("/api/get/other") }
+            // 路径前缀的突发额度为 2, 第 3 个需要等待约 1 秒, 超过 maxWait; 其他路径不受影响
+            assertEquals(5, server.requestCount)
+            val error = errors.single()
+            assertIs<RateLimitExceededException>(error)
+            assertEquals("/api/get/user", error.route)
+            // 被拒绝时退还了主机配额的令牌
+            assertEquals(95, policy.bucketFor("127.0.0.1", server.port)!!.availablePermits)
+        }
+    }
+
+    @Test
+    fun testRetryAfterPausesBucket() {
+        MockWebServer().use { server ->
+            server.enqueue(MockResponse().setResponseCode(429).setHeader("Retry-After", "2"))
+            server.enqueue(MockResponse().setBody("ok"))
+            val policy = RateLimitPolicy(maxWait = Duration.ofMillis(100))
+            var failedCode = 0
+            var error: Throwable? = null
+            repeat(2) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/limited").toString())
+                    .setRateLimit(policy)
+                    .onResponseFailure { failedCode = it.code }
+                    .onException { e, _ -> error = e }
+                    .build()
+                    .execute()
+            }
+            assertEquals(429, failedCode)
+            assertIs<RateLimitExceededException>(error)
+            assertTrue((error as RateLimitExceededException).requiredWait > Duration.ofMillis(1500))
+            assertEquals(1, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testResponseHeaders() {
+        val policy = RateLimitPolicy(hostQuota = RateQuota(100.0, burst = 10))
+        fun response(vararg headers: Pair<String, String>): Response {
+            val builder = Response.Builder()
+                .request(Request.Builder().url("http://headers.test/").build())
+                .protocol(Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+            headers.forEach { (name, value) -> builder.header(name, value) }
+            return builder.build()
+        }
+
+        // 剩余 4 次、2 秒后重置: 发放间隔放慢到 500ms
+        val throttled = policy.bucketFor("throttled.test", 80)!!
+        assertEquals(10, throttled.availablePermits)
+        RateLimitHeaders.apply(throttled, response("RateLimit-Remaining" to "4", "RateLimit-Reset" to "2"))
+        assertEquals(1, throttled.availablePermits)
+
+        // 剩余为 0 时暂停到重置
+        val exhausted = policy.bucketFor("exhausted.test", 80)!!
+        RateLimitHeaders.apply(exhausted, response("X-RateLimit-Remaining" to "0", "X-RateLimit-Reset" to "1"))
+        assertEquals(0, exhausted.availablePermits)
+
+        // 合并的 RateLimit 头, 以及 epoch 秒形式的重置时间
+        val combined = policy.bucketFor("combined.test", 80)!!
+        RateLimitHeaders.apply(combined, response("RateLimit" to "\"default\";r=0;t=1"))
+        assertEquals(0, combined.availablePermits)
+        val epoch = policy.bucketFor("epoch.test", 80)!!
+        val reset = System.currentTimeMillis() / 1000 + 3
+        RateLimitHeaders.apply(epoch, response("X-RateLimit-Remaining" to "0", "X-RateLimit-Reset" to "$reset"))
+        assertEquals(0, epoch.availablePermits)
+
+        // 没有限流头时不调整
+        val untouched = policy.bucketFor("untouched.test", 80)!!
+        RateLimitHeaders.apply(untouched, response("RateLimit-Remaining" to "abc"))
+        assertEquals(10, untouched.availablePermits)
+        assertNull(RateLimitPolicy(hostQuota = null).bucketFor("untouched.test", 80))
+    }
+
+    @Test
+    fun testConcurrentReservations() {
+        val bucket = RateLimitPolicy(hostQuota = RateQuota(1000.0, burst = 1)).bucketFor("concurrent.test", 80)!!
+        val waits = ConcurrentLinkedQueue<Long>()
+        Executors.newFixedThreadPool(8).use { executor ->
+            repeat(100) { executor.execute { waits += bucket.reserve(Long.MAX_VALUE).waitNanos } }
+        }
+        // 100 个令牌依次排在 1ms 的间隔上, 没有两个请求拿到同一个令牌
+        val longest = Duration.ofNanos(waits.max()).toMillis()
+        assertEquals(100, waits.size)
+        assertTrue(longest in 80..99, "unexpected longest wait: $longest ms")
+    }
+
+    @Test
+    fun testRefundWhileThrottled() {
+        // 服务端放慢发放时, 退还的令牌与预订时推进的间隔相同, 被拒绝或放弃的预订不消耗配额
+        val bucket = RateLimitPolicy(hostQuota = RateQuota(100.0, burst = 10)).bucketFor("refund.test", 80)!!
+        bucket.throttle(remaining = 4, resetNanos = TimeUnit.SECONDS.toNanos(2))
+        val first = bucket.reserve(Long.MAX_VALUE)
+        assertEquals(0, first.waitNanos)
+        first.refund()
+        assertEquals(0, bucket.reserve(Long.MAX_VALUE).waitNanos)
+        // 没有退还时, 下一个令牌按服务端要求的 500ms 间隔排队
+        assertTrue(bucket.reserve(Long.MAX_VALUE).waitNanos > TimeUnit.MILLISECONDS.toNanos(300))
+    }
+}
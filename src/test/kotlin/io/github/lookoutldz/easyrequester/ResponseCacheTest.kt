@@ -0,0 +1,338 @@
+package io.github.lookoutldz.easyrequester
+
+import com.fasterxml.jackson.core.type.TypeReference
+import com.fasterxml.jackson.databind.ObjectMapper
+import io.github.lookoutldz.easyrequester.common.CacheKey
+import io.github.lookoutldz.easyrequester.common.CacheType
+import io.github.lookoutldz.easyrequester.common.EasyCall
+import io.github.lookoutldz.easyrequester.common.ResponseCache
+import io.github.lookoutldz.easyrequester.common.ResponseCachePolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.jupiter.api.Test
+import java.lang.ref.WeakReference
+import java.time.Duration
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+/**
+ * 响应缓存测试: 命中与失效使用替身服务, 不可缓存的响应与条件请求使用 MockWebServer, 淘汰策略直接操作缓存
+ */
+class ResponseCacheTest {
+
+    /**
+     * 按 If-None-Match 返回 304, 版本变化后返回新的响应体
+     */
+    private class VersionedDispatcher : Dispatcher() {
+        @Volatile
+        var version = 1
+
+        override fun dispatch(request: RecordedRequest): MockResponse {
+            val etag = "\"v$version\""
+            if (request.getHeader("If-None-Match") == etag) {
+                return MockResponse().setResponseCode(304).setHeader("ETag", etag)
+            }
+            return MockResponse()
+                .setHeader("ETag", etag)
+                .setHeader("Last-Modified", "Wed, 09 Jul 2025 08:00:00 GMT")
+                .setBody("""{"data":{"userId":$version,"name":"looko"},"statusCode":0,"statusMessage":"SUCCESS"}""")
+        }
+    }
+
+    /**
+     * 每次返回递增的 userId, 响应头延迟 300 毫秒
+     */
+    private class CountingDispatcher(private val cacheControl: String) : Dispatcher() {
+        val version = AtomicInteger()
+
+        override fun dispatch(request: RecordedRequest): MockResponse = MockResponse()
+            .setHeader("Cache-Control", cacheControl)
+            .setHeadersDelay(300, TimeUnit.MILLISECONDS)
+            .setBody("""{"data":{"userId":${version.incrementAndGet()},"name":"looko"},"statusCode":0,"statusMessage":"SUCCESS"}""")
+    }
+
+    private fun timedUserId(server: MockWebServer, policy: ResponseCachePolicy, onSuccess: () -> Unit = {}): Pair<Long, Long> {
+        var userId = 0L
+        val started = System.nanoTime()
+        EasyHttpGet.Builder(object : TypeReference<ResponseBody<User>>() {})
+            .setUrl(server.url("/user").toString())
+            .setResponseCache(policy)
+            .onSuccess {
+                userId = it!!.data.userId
+                onSuccess()
+            }
+            .build()
+            .execute()
+        return userId to Duration.ofNanos(System.nanoTime() - started).toMillis()
+    }
+
+    private fun getUser(server: StandInServer, policy: ResponseCachePolicy, accept: String = "application/json"): ResponseBody<User>? {
+        var user: ResponseBody<User>? = null
+        EasyHttpGet.Builder(object : TypeReference<ResponseBody<User>>() {})
+            .setUrl(server.url("/api/get/user/random"))
+            .setHeaders(mapOf("Accept" to accept))
+            .setResponseCache(policy)
+            .onSuccess { user = it }
+            .build()
+            .execute()
+        return user
+    }
+
+    @Test
+    fun testHitSkipsNetworkAndDecoding() {
+        StandInServer().start().use { server ->
+            val policy = ResponseCachePolicy(maximumWeight = 1024 * 1024)
+            policy.cache().invalidateAll()
+            val first = getUser(server, policy)
+            val second = getUser(server, policy)
+            assertEquals(1, server.requestCount)
+            // 命中时交给 onSuccess 的是同一个实例
+            assertNotNull(first)
+            assertSame(first, second)
+            // 请求头取值不同的请求各自缓存
+            getUser(server, policy, accept = "*/*")
+            assertEquals(2, server.requestCount)
+            assertEquals(1, policy.cache().hitCount)
+            assertEquals(2, policy.cache().size)
+            assertTrue(policy.cache().weightedSize > 0)
+        }
+    }
+
+    @Test
+    fun testAsyncHitCompletesImmediately() {
+        StandInServer().start().use { server ->
+            val policy = ResponseCachePolicy(maximumWeight = 2 * 1024 * 1024)
+            policy.cache().invalidateAll()
+            val builder = EasyHttpGet4j.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setResponseCache(policy)
+            val first = builder.executeAsync().get()
+            val call = builder.executeAsync()
+            assertTrue(call.isDone)
+            assertSame(first, call.get())
+            assertEquals(0, call.attempts)
+            assertEquals(Duration.ZERO, call.elapsed(EasyCall.Phase.NETWORK))
+            assertEquals(1, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testTtlAndInvalidation() {
+        StandInServer().start().use { server ->
+            val policy = ResponseCachePolicy(maximumWeight = 3 * 1024 * 1024, ttl = Duration.ofMillis(200))
+            policy.cache().invalidateAll()
+            getUser(server, policy)
+            Thread.sleep(300)
+            getUser(server, policy)
+            assertEquals(2, server.requestCount)
+            assertEquals(1, policy.cache().invalidate(server.url("/api/get/user/random")))
+            getUser(server, policy)
+            assertEquals(3, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testUncacheableResponses() {
+        MockWebServer().use { server ->
+            server.enqueue(MockResponse().setBody("a").setHeader("Cache-Control", "no-store"))
+            server.enqueue(MockResponse().setResponseCode(500))
+            server.enqueue(MockResponse().setBody("b"))
+            server.enqueue(MockResponse().setBody("c"))
+            val policy = ResponseCachePolicy(maximumWeight = 4 * 1024 * 1024)
+            policy.cache().invalidateAll()
+            val url = server.url("/data").toString()
+            // no-store 与失败的响应不缓存
+            repeat(3) {
+                EasyHttpGet.Builder(String::class.java).setUrl(url).setResponseCache(policy).onSuccess { }.onResponseFailure { }.build().execute()
+            }
+            assertEquals(3, server.requestCount)
+            // 自定义了 onResponse 时不使用缓存
+            var body: String? = null
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(url)
+                .setResponseCache(policy)
+                .onResponse { body = it.body!!.string() }
+                .build()
+                .execute()
+            assertEquals("c", body)
+            assertEquals(4, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testNotModifiedServesCachedValue() {
+        MockWebServer().use { server ->
+            val dispatcher = VersionedDispatcher()
+            server.dispatcher = dispatcher
+            // ttl 为 0: 每次都重新验证
+            val policy = ResponseCachePolicy(maximumWeight = 5 * 1024 * 1024, ttl = Duration.ZERO)
+            policy.cache().invalidateAll()
+            val users = mutableListOf<ResponseBody<User>?>()
+            var failed = false
+            val get = {
+                EasyHttpGet.Builder(object : TypeReference<ResponseBody<User>>() {})
+                    .setUrl(server.url("/user").toString())
+                    .setResponseCache(policy)
+                    .onSuccess { users += it }
+                    .onResponseFailure { failed = true }
+                    .build()
+                    .execute()
+            }
+            get()
+            get()
+            assertNull(server.takeRequest().getHeader("If-None-Match"))
+            assertEquals("\"v1\"", server.takeRequest().getHeader("If-None-Match"))
+            // 304 交给 onSuccess 的是缓存的实例, 不当作失败
+            assertFalse(failed)
+            assertSame(users[0], users[1])
+            assertEquals(1, policy.cache().revalidationCount)
+            dispatcher.version = 2
+            get()
+            assertEquals(2L, users[2]!!.data.userId)
+            assertEquals(3, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testAsyncRevalidation() {
+        MockWebServer().use { server ->
+            server.dispatcher = VersionedDispatcher()
+            val policy = ResponseCachePolicy(maximumWeight = 6 * 1024 * 1024, ttl = Duration.ofMillis(100))
+            policy.cache().invalidateAll()
+            val builder = EasyHttpGet4j.Builder(object : TypeReference<ResponseBody<User>>() {})
+                .setUrl(server.url("/user").toString())
+                .setResponseCache(policy)
+            val first = builder.executeAsync().get()
+            Thread.sleep(200)
+            val call = builder.executeAsync()
+            assertSame(first, call.get())
+            assertEquals(1, call.attempts)
+            server.takeRequest()
+            val conditional = server.takeRequest()
+            assertEquals("\"v1\"", conditional.getHeader("If-None-Match"))
+            assertEquals("Wed, 09 Jul 2025 08:00:00 GMT", conditional.getHeader("If-Modified-Since"))
+            // 重新验证后条目恢复新鲜
+            assertTrue(builder.executeAsync().isDone)
+            assertEquals(2, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testStaleWhileRevalidate() {
+        MockWebServer().use { server ->
+            // 服务端的指令: 立即过期, 之后 60 秒内可以先使用旧结果
+            server.dispatcher = CountingDispatcher("max-age=0, stale-while-revalidate=60")
+            val policy = ResponseCachePolicy(maximumWeight = 7 * 1024 * 1024)
+            policy.cache().invalidateAll()
+            val handled = AtomicInteger()
+            assertEquals(1L, timedUserId(server, policy) { handled.incrementAndGet() }.first)
+            // 过期后立即得到旧结果, 多次请求只触发一次后台刷新
+            repeat(5) {
+                val (userId, millis) = timedUserId(server, policy) { handled.incrementAndGet() }
+                assertEquals(1L, userId)
+                assertTrue(millis < 250, "waited on refresh: $millis ms")
+            }
+            repeat(50) { if (policy.cache().refreshCount == 0L || server.requestCount < 2) Thread.sleep(20) }
+            Thread.sleep(500)
+            assertEquals(2, server.requestCount)
+            assertEquals(1, policy.cache().refreshCount)
+            // 后台刷新不回调处理器, 之后的请求得到刷新的结果
+            assertEquals(6, handled.get())
+            assertEquals(2L, timedUserId(server, policy).first)
+        }
+    }
+
+    @Test
+    fun testMustRevalidateDisablesStaleResults() {
+        MockWebServer().use { server ->
+            server.dispatcher = CountingDispatcher("max-age=0, must-revalidate")
+            val policy = ResponseCachePolicy(maximumWeight = 8 * 1024 * 1024, staleWhileRevalidate = Duration.ofMinutes(1))
+            policy.cache().invalidateAll()
+            assertEquals(1L, timedUserId(server, policy).first)
+            val (userId, millis) = timedUserId(server, policy)
+            assertEquals(2L, userId)
+            assertTrue(millis >= 250)
+            assertEquals(0, policy.cache().refreshCount)
+        }
+    }
+
+    @Test
+    fun testFrequentEntriesSurviveScan() {
+        val cache = ResponseCache(ResponseCachePolicy(maximumWeight = 1000))
+        fun key(name: String) = CacheKey("GET", "http://cache.test/$name", emptyList(), String::class.java)
+        fun read(name: String) = cache.get(key(name)) ?: name.also { cache.put(key(it), it, 100) }
+        val hot = (1..4).map { "hot-$it" }
+        repeat(5) { hot.forEach { read(it) } }
+        // 一次性的扫描请求远多于容量
+        (1..200).forEach { read("scan-$it") }
+        hot.forEach { assertNotNull(cache.get(key(it)), "$it evicted: $cache") }
+        assertTrue(cache.weightedSize <= 1000)
+        assertTrue(cache.evictionCount > 0)
+        // 超过容量的条目不缓存
+        cache.put(key("huge"), "huge", 2000)
+        assertNull(cache.get(key("huge")))
+    }
+
+    @Test
+    fun testAdmissionDecidedBeforeEviction() {
+        val cache = ResponseCache(ResponseCachePolicy(maximumWeight = 1000))
+        fun key(name: String) = CacheKey("GET", "http://cache.test/$name", emptyList(), String::class.java)
+        fun read(name: String, weight: Long = 100) = cache.get(key(name)) ?: name.also { cache.put(key(it), it, weight) }
+        read("cold")
+        val hot = (1..8).map { "hot-$it" }
+        repeat(5) { hot.forEach { read(it) } }
+        // 候选比最久未访问的 cold 更常用, 但腾出空间还要淘汰更常用的 hot, 因此不接纳候选, 也不淘汰 cold
+        repeat(2) { cache.get(key("big")) }
+        read("big", 300)
+        assertNull(cache.get(key("big")))
+        assertNotNull(cache.get(key("cold")), "cold evicted: $cache")
+        hot.forEach { assertNotNull(cache.get(key(it)), "$it evicted: $cache") }
+        // 不能缓存的新结果不替换原有条目
+        cache.put(key("cold"), "replacement", 2000)
+        assertEquals("cold", cache.get(key("cold"))?.value)
+    }
+
+    @Test
+    fun testKeyHoldsObjectMapperWeakly() {
+        val type = ResponseBody::class.java
+        var mapper: ObjectMapper? = ObjectMapper()
+        val key = CacheType(mapper!!, type)
+        assertEquals(key, CacheType(mapper, type))
+        assertNotEquals(key, CacheType(ObjectMapper(), type))
+        val reference = WeakReference(mapper)
+        mapper = null
+        repeat(50) {
+            if (reference.get() != null) {
+                System.gc()
+                Thread.sleep(20)
+            }
+        }
+        assertNull(reference.get())
+        assertNotEquals(key, CacheType(ObjectMapper(), type))
+    }
+
+    @Test
+    fun testCloseDropsSharedCache() {
+        StandInServer().start().use { server ->
+            val policy = ResponseCachePolicy(maximumWeight = 4096)
+            getUser(server, policy)
+            val cache = policy.cache()
+            assertEquals(1, cache.size)
+            policy.close()
+            assertEquals(0, cache.size)
+            assertTrue(policy.cache() !== cache)
+        }
+    }
+}
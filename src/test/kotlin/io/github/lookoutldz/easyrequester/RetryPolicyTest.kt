@@ -0,0 +1,144 @@
+package io.github.lookoutldz.easyrequester
+
+import io.github.lookoutldz.easyrequester.common.ClientProfile
+import io.github.lookoutldz.easyrequester.common.RetryBudget
+import io.github.lookoutldz.easyrequester.common.RetryPolicy
+import io.github.lookoutldz.easyrequester.entity.HttpMethod
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester.EasyHttpPost
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.requester4j.common.SuccessHandler
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import kotlinx.coroutines.runBlocking
+import okhttp3.Interceptor
+import org.junit.jupiter.api.Test
+import java.io.IOException
+import java.net.ServerSocket
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * 重试策略测试, 使用注入错误的替身服务
+ */
+class RetryPolicyTest {
+
+    private val fastRetry = RetryPolicy(
+        maxAttempts = 10,
+        baseDelay = Duration.ofMillis(1),
+        maxDelay = Duration.ofMillis(5),
+        budget = null,
+    )
+
+    @Test
+    fun testRetryUntilSuccess() {
+        StandInServer(StandInServer.Options(errorRate = 0.5, seed = 7)).start().use { server ->
+            var failures = 0
+            repeat(20) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setRetryPolicy(fastRetry)
+                    .onResponseFailure { failures++ }
+                    .onSuccess { }
+                    .build()
+                    .execute()
+            }
+            assertEquals(0, failures)
+            assertTrue(server.errorCount > 0)
+            assertEquals(20 + server.errorCount, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testAsyncRetry() {
+        StandInServer(StandInServer.Options(errorRate = 0.5, seed = 11)).start().use { server ->
+            val results = (1..10).map {
+                EasyHttpGet4j.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setRetryPolicy(fastRetry)
+                    .onSuccess(object : SuccessHandler<String?> { override fun onSuccess(result: String?) {} })
+                    .executeAsync()
+            }.map { it.get() }
+            assertTrue(results.all { it != null && it.contains("looko") })
+            val awaited = runBlocking {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setRetryPolicy(fastRetry)
+                    .onSuccess { }
+                    .await()
+            }
+            assertTrue(awaited!!.contains("looko"))
+            assertEquals(11 + server.errorCount, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testLastFailureDelivered() {
+        StandInServer(StandInServer.Options(errorRate = 1.0)).start().use { server ->
+            var code = 0
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(server.url("/api/get/user/random"))
+                .setRetryPolicy(fastRetry.copy(maxAttempts = 3))
+                .onResponseFailure { code = it.code }
+                .build()
+                .execute()
+            assertEquals(503, code)
+            assertEquals(3, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testPostNotRetriedByDefault() {
+        StandInServer(StandInServer.Options(errorRate = 1.0)).start().use { server ->
+            val post = {
+                EasyHttpPost.Builder(String::class.java)
+                    .setUrl(server.url("/api/post/json"))
+                    .setBody(User(1, "a"))
+                    .onResponseFailure { }
+            }
+            post().setRetryPolicy(fastRetry).build().execute()
+            assertEquals(1, server.requestCount)
+            post().setRetryPolicy(fastRetry.copy(maxAttempts = 2, retryMethods = setOf(HttpMethod.POST))).build().execute()
+            assertEquals(3, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testRetryOnConnectionFailure() {
+        val port = ServerSocket(0).use { it.localPort }
+        val attempts = AtomicInteger()
+        val counting = Interceptor { chain -> attempts.incrementAndGet(); chain.proceed(chain.request()) }
+        var error: Throwable? = null
+        EasyHttpGet.Builder(String::class.java)
+            .setUrl("http://127.0.0.1:$port/")
+            .setClientProfile(ClientProfile(interceptors = listOf(counting)))
+            .setRetryPolicy(fastRetry.copy(maxAttempts = 4))
+            .onException { e, _ -> error = e }
+            .build()
+            .execute()
+        assertTrue(error is IOException)
+        assertEquals(4, attempts.get())
+    }
+
+    @Test
+    fun testBudgetCapsRetries() {
+        StandInServer(StandInServer.Options(errorRate = 1.0)).start().use { server ->
+            val budget = RetryBudget(ratio = 0.1, minRetriesPerSecond = 0.0, maxTokens = 5.0)
+            val policy = fastRetry.copy(maxAttempts = 3, budget = budget)
+            repeat(200) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setRetryPolicy(policy)
+                    .onResponseFailure { }
+                    .build()
+                    .execute()
+            }
+            // 没有预算时为 600 次; 预算为初始的 5 次加上每个请求存入的 0.1 次
+            val retries = server.requestCount - 200
+            println("retries with budget: $retries")
+            assertTrue(retries in 20..25, "unexpected retries: $retries")
+            assertTrue(budget.available("127.0.0.1", server.port) < 1)
+        }
+    }
+}
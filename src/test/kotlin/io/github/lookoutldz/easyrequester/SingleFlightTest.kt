@@ -0,0 +1,125 @@
+package io.github.lookoutldz.easyrequester
+
+import com.fasterxml.jackson.core.type.TypeReference
+import io.github.lookoutldz.easyrequester.common.SingleFlightPolicy
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.requester4j.common.ResponseHandler
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import okhttp3.Response
+import org.junit.jupiter.api.Test
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+/**
+ * 请求合并测试, 替身服务的延迟保证并发请求在 leader 完成之前到达
+ */
+class SingleFlightTest {
+
+    private val singleFlight = SingleFlightPolicy()
+
+    private fun concurrently(times: Int, block: (Int) -> Unit) {
+        Executors.newVirtualThreadPerTaskExecutor().use { executor ->
+            repeat(times) { i -> executor.execute { block(i) } }
+        }
+    }
+
+    @Test
+    fun testConcurrentGetsShareOneCall() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(300))).start().use { server ->
+            val results = ConcurrentLinkedQueue<ResponseBody<User>>()
+            concurrently(50) {
+                EasyHttpGet.Builder(object : TypeReference<ResponseBody<User>>() {})
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setSingleFlight(singleFlight)
+                    .onSuccess { results += it!! }
+                    .build()
+                    .execute()
+            }
+            assertEquals(1, server.requestCount)
+            assertEquals(50, results.size)
+            // 同类型的等待者共享同一次反序列化的结果
+            assertTrue(results.all { it === results.first() })
+            assertEquals(0, SingleFlightPolicy.inFlight())
+        }
+    }
+
+    @Test
+    fun testResponseReplayedToAsyncHandlers() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(300))).start().use { server ->
+            val bodies = ConcurrentLinkedQueue<String>()
+            val futures = (1..10).map {
+                EasyHttpGet4j.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setSingleFlight(singleFlight)
+                    .onResponse(object : ResponseHandler {
+                        override fun onResponse(response: Response) {
+                            // 每个处理器都能完整读取自己的副本
+                            bodies += response.peekBody(Long.MAX_VALUE).string()
+                            bodies += response.body!!.string()
+                        }
+                    })
+                    .executeAsync()
+            }
+            futures.forEach { it.get() }
+            assertEquals(1, server.requestCount)
+            assertEquals(20, bodies.size)
+            assertEquals(1, bodies.toSet().size)
+            assertTrue(bodies.first().contains("looko"))
+        }
+    }
+
+    @Test
+    fun testDifferentRequestsNotCoalesced() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(200))).start().use { server ->
+            concurrently(6) { i ->
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setHeaders(mapOf("X-Tenant" to "${i % 3}"))
+                    .setSingleFlight(singleFlight)
+                    .onSuccess { }
+                    .build()
+                    .execute()
+            }
+            assertEquals(3, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testFailedResponseShared() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(300), errorRate = 1.0)).start().use { server ->
+            val failures = AtomicInteger()
+            concurrently(20) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setSingleFlight(singleFlight)
+                    .onResponseFailure { if (it.code == 503) failures.incrementAndGet() }
+                    .build()
+                    .execute()
+            }
+            assertEquals(1, server.requestCount)
+            assertEquals(20, failures.get())
+        }
+    }
+
+    @Test
+    fun testOversizedBodyNotShared() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(300))).start().use { server ->
+            val succeeded = AtomicInteger()
+            concurrently(5) {
+                EasyHttpGet.Builder(String::class.java)
+                    .setUrl(server.url("/api/get/user/random"))
+                    .setSingleFlight(SingleFlightPolicy(maxBodyBytes = 10))
+                    .onSuccess { if (it!!.contains("looko")) succeeded.incrementAndGet() }
+                    .build()
+                    .execute()
+            }
+            // 等待者在 leader 完成后各自请求
+            assertEquals(5, server.requestCount)
+            assertEquals(5, succeeded.get())
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.lookoutldz.easyrequester
+
+import com.fasterxml.jackson.core.type.TypeReference
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.standin.StandInServer
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import org.junit.jupiter.api.Test
+import kotlin.random.Random
+import kotlin.test.assertEquals
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * 替身服务本身的测试: 注入的延迟、响应体大小、编码与错误率
+ */
+class StandInServerTest {
+
+    private val client = OkHttpClient()
+
+    @Test
+    fun testEndpoints() {
+        StandInServer().start().use { server ->
+            EasyHttpGet.doRequest<ResponseBody<Int>>(server.url("/api/get/sleep/random"), params = mapOf("millis" to "20")) {
+                assertEquals(20, it?.data)
+            }
+            val user = runBlocking {
+                EasyHttpGet.Builder(object : TypeReference<ResponseBody<User>>() {})
+                    .setUrl(server.url("/api/get/user/random"))
+                    .await()
+            }
+            assertEquals("looko", user?.data?.name)
+            assertEquals(2, server.requestCount)
+        }
+    }
+
+    @Test
+    fun testPayloadChunkedAndGzip() {
+        StandInServer(StandInServer.Options(payloadBytes = 100_000, chunked = true, gzip = true)).start().use { server ->
+            client.newCall(Request.Builder().url(server.url("/api/get/user/random")).build()).execute().use { response ->
+                // OkHttp 自动添加 Accept-Encoding: gzip 并透明解压, 解压后不再有 Content-Encoding
+                assertNull(response.header("Content-Encoding"))
+                assertEquals("chunked", response.networkResponse?.header("Transfer-Encoding"))
+                assertEquals("gzip", response.networkResponse?.header("Content-Encoding"))
+                assertEquals(100_000, response.body!!.bytes().size)
+            }
+        }
+    }
+
+    @Test
+    fun testErrorRate() {
+        StandInServer(StandInServer.Options(errorRate = 0.3, seed = 42)).start().use { server ->
+            val codes = (1..200).map { client.newCall(Request.Builder().url(server.url("/")).build()).execute().use { it.code } }
+            val errors = codes.count { it == 503 }
+            assertEquals(server.errorCount.toInt(), errors)
+            assertTrue(errors in 30..90, "unexpected error count: $errors")
+        }
+    }
+
+    @Test
+    fun testLatency() {
+        StandInServer(StandInServer.Options(latency = StandInServer.Latency.fixed(50))).start().use { server ->
+            val start = System.nanoTime()
+            client.newCall(Request.Builder().url(server.url("/")).build()).execute().close()
+            assertTrue((System.nanoTime() - start) / 1_000_000 >= 50)
+        }
+        val random = Random(1)
+        val exponential = StandInServer.Latency.parse("exponential:10:40")
+        val samples = (1..10_000).map { exponential.nextMillis(random) }
+        assertTrue(samples.all { it in 0..40 })
+        assertTrue(samples.average() in 7.0..11.0, "unexpected mean: ${samples.average()}")
+        assertTrue(StandInServer.Latency.parse("uniform:5-6").nextMillis(random) in 5..6)
+    }
+}
@@ -0,0 +1,142 @@
+package io.github.lookoutldz.easyrequester
+
+import com.sun.net.httpserver.HttpServer
+import io.github.lookoutldz.easyrequester.requester.EasyHttpGet
+import io.github.lookoutldz.easyrequester.requester4j.EasyHttpGet4j
+import io.github.lookoutldz.easyrequester.requester4j.common.SuccessHandler
+import jdk.jfr.consumer.RecordedEvent
+import jdk.jfr.consumer.RecordingStream
+import org.junit.jupiter.api.AfterAll
+import org.junit.jupiter.api.BeforeAll
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.TestInstance
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+/**
+ * 虚拟线程模式压测: 用 JFR 记录 jdk.VirtualThreadPinned 事件, 确认大量并发的阻塞 execute() 不会饿死载体线程
+ * 阻塞压测的调用方本身就是虚拟线程, execute() 直接在其上运行; 平台线程上的调用转到虚拟线程执行器, 另有用例覆盖
+ * 并发数默认 1000, 可通过 -Deasyrequester.vt.calls=10000 调大 (注意客户端与服务端同进程, 需要 2 倍的文件句柄)
+ */
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class VirtualThreadPinningTest {
+
+    private val calls = System.getProperty("easyrequester.vt.calls", "1000").toInt()
+    private val latencyMillis = 50L
+
+    private lateinit var server: HttpServer
+    private lateinit var url: String
+
+    @BeforeAll
+    fun startServer() {
+        System.setProperty("sun.net.httpserver.nodelay", "true")
+        server = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), 0), calls)
+        server.createContext("/api/get/sleep/random") { exchange ->
+            Thread.sleep(latencyMillis)
+            val bytes = latencyMillis.toString().toByteArray()
+            exchange.sendResponseHeaders(200, bytes.size.toLong())
+            exchange.responseBody.use { it.write(bytes) }
+        }
+        server.executor = Executors.newVirtualThreadPerTaskExecutor()
+        server.start()
+        url = "http://127.0.0.1:${server.address.port}/api/get/sleep/random"
+    }
+
+    @AfterAll
+    fun stopServer() {
+        server.stop(0)
+    }
+
+    @Test
+    fun testBlockingExecuteOnVirtualThreads() {
+        val succeeded = AtomicInteger()
+        val report = recordPinning {
+            Executors.newVirtualThreadPerTaskExecutor().use { executor ->
+                repeat(calls) {
+                    executor.submit {
+                        EasyHttpGet.Builder(String::class.java)
+                            .setUrl(url)
+                            .setVirtualThreads(true)
+                            .onSuccess { succeeded.incrementAndGet() }
+                            .build()
+                            .execute()
+                    }
+                }
+            }
+        }
+        assertEquals(calls, succeeded.get())
+        assertNoStarvation(report)
+    }
+
+    @Test
+    fun testBlockingExecuteMovesToVirtualThread() {
+        // 平台线程上调用 execute(), 开启虚拟线程模式后处理器在虚拟线程上运行
+        fun handlerThreadIsVirtual(virtualThreads: Boolean): Boolean {
+            var virtual: Boolean? = null
+            EasyHttpGet.Builder(String::class.java)
+                .setUrl(url)
+                .setVirtualThreads(virtualThreads)
+                .onSuccess { virtual = Thread.currentThread().isVirtual }
+                .build()
+                .execute()
+            return virtual!!
+        }
+        assertTrue(handlerThreadIsVirtual(true))
+        assertFalse(handlerThreadIsVirtual(false))
+    }
+
+    @Test
+    fun testExecuteAsyncOnVirtualThreadDispatcher() {
+        val report = recordPinning {
+            val futures = (1..calls).map {
+                EasyHttpGet4j.Builder(String::class.java)
+                    .setUrl(url)
+                    .setVirtualThreads(true)
+                    .onSuccess(object : SuccessHandler<String?> {
+                        override fun onSuccess(result: String?) {}
+                    })
+                    .executeAsync()
+            }
+            CompletableFuture.allOf(*futures.toTypedArray()).join()
+            assertEquals(calls, futures.count { it.join() != null })
+        }
+        assertNoStarvation(report)
+    }
+
+    private class PinningReport(val elapsed: Duration, val events: List<RecordedEvent>)
+
+    private fun recordPinning(load: () -> Unit): PinningReport {
+        val events = ConcurrentLinkedQueue<RecordedEvent>()
+        RecordingStream().use { stream ->
+            stream.enable("jdk.VirtualThreadPinned").withThreshold(Duration.ZERO).withStackTrace()
+            stream.onEvent("jdk.VirtualThreadPinned") { events += it }
+            stream.startAsync()
+            val start = System.nanoTime()
+            load()
+            val elapsed = Duration.ofNanos(System.nanoTime() - start)
+            stream.stop()
+            return PinningReport(elapsed, events.toList())
+        }
+    }
+
+    private fun assertNoStarvation(report: PinningReport) {
+        val pinnedTime = report.events.fold(Duration.ZERO) { total, event -> total + event.duration }
+        println("calls=$calls elapsed=${report.elapsed.toMillis()}ms pinnedEvents=${report.events.size} pinnedTime=${pinnedTime.toMillis()}ms")
+        report.events
+            .groupingBy { event -> event.stackTrace?.frames?.firstOrNull { !it.method.type.name.startsWith("java.") }?.let { "${it.method.type.name}.${it.method.name}" } ?: "unknown" }
+            .eachCount()
+            .forEach { (frame, count) -> println("  pinned at $frame x$count") }
+        // 若载体线程被钉住, 请求会按服务端延迟串行执行, 总耗时接近 calls * latency
+        assertTrue(report.elapsed.toMillis() < calls * latencyMillis / 4, "virtual threads were serialized: ${report.elapsed}")
+        // 短暂的钉住 (例如进入 synchronized 块) 可以接受, 但不应长到覆盖一次网络往返
+        assertTrue(report.events.none { it.duration.toMillis() >= latencyMillis }, "virtual thread pinned across network I/O")
+    }
+}
@@ -0,0 +1,271 @@
+package io.github.lookoutldz.easyrequester.standin
+
+import com.sun.net.httpserver.HttpExchange
+import com.sun.net.httpserver.HttpServer
+import java.io.ByteArrayOutputStream
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPOutputStream
+import kotlin.math.ln
+import kotlin.random.Random
+import kotlin.random.asKotlinRandom
+
+/**
+ * 测试用的进程内替身服务, 复现测试依赖的 127.0.0.1:58080 接口, 测试不再需要外部服务:
+ *  - .../sleep/...?millis=N: 等待 N 毫秒后返回 {"data":N,...}
+ *  - /api/post/user/... 与 /api/put/user/...: 返回更新后的用户 {"userId":123,"name":"UpdatedUserName"}
+ *  - 其余路径含 user 的: 返回 {"data":{"userId":..,"name":"looko"},...}
+ *  - 其他路径: 返回 {"data":"ok",...}
+ * 可通过 Options 注入延迟分布、响应体大小、chunked/gzip 编码与错误率, 用于压测与容错测试
+ * @author looko
+ * @date 2025/6/30
+ */
+class StandInServer @JvmOverloads constructor(val options: Options = Options()) : AutoCloseable {
+
+    companion object {
+        const val DEFAULT_PORT = 58080
+
+        private const val SUCCESS = """"statusCode":0,"statusMessage":"SUCCESS""""
+        private val updatedUser = """{"userId":123,"name":"UpdatedUserName"}""".toByteArray()
+
+        init {
+            // 关闭 Nagle, 否则复用连接时会遇到 40ms 的延迟确认
+            System.setProperty("sun.net.httpserver.nodelay", "true")
+        }
+    }
+
+    /**
+     * @param latency 每个请求额外的延迟, 在 sleep 接口的 millis 之外叠加
+     * @param payloadBytes 响应体的目标大小, 不足时在 JSON 末尾以空白补齐, 0 表示不补齐
+     * @param chunked 是否以 chunked 编码返回, 否则带 Content-Length
+     * @param gzip 客户端声明 Accept-Encoding: gzip 时是否压缩响应体
+     * @param errorRate 以该概率返回 errorCode, 取值 0.0 ~ 1.0
+     * @param errorCode 注入错误时的状态码
+     * @param seed 随机数种子, 为 null 时每个请求使用 ThreadLocalRandom
+     */
+    data class Options @JvmOverloads constructor(
+        val latency: Latency = Latency.NONE,
+        val payloadBytes: Int = 0,
+        val chunked: Boolean = false,
+        val gzip: Boolean = false,
+        val errorRate: Double = 0.0,
+        val errorCode: Int = 503,
+        val seed: Long? = null,
+    ) {
+        init {
+            require(payloadBytes >= 0) { "payloadBytes must not be negative" }
+            require(errorRate in 0.0..1.0) { "errorRate must be in [0, 1]" }
+        }
+    }
+
+    /**
+     * 延迟分布, 返回本次请求的延迟毫秒数
+     */
+    fun interface Latency {
+
+        fun nextMillis(random: Random): Long
+
+        companion object {
+            @JvmField
+            val NONE = Latency { 0 }
+
+            @JvmStatic
+            fun fixed(millis: Long) = Latency { millis }
+
+            @JvmStatic
+            fun uniform(minMillis: Long, maxMillis: Long): Latency {
+                require(minMillis in 0..maxMillis) { "Invalid range: $minMillis..$maxMillis" }
+                return Latency { random -> random.nextLong(minMillis, maxMillis + 1) }
+            }
+
+            /**
+             * 指数分布, 模拟长尾; 以 maxMillis 截断
+             */
+            @JvmStatic
+            @JvmOverloads
+            fun exponential(meanMillis: Double, maxMillis: Long = Long.MAX_VALUE) = Latency { random ->
+                minOf((-meanMillis * ln(1.0 - random.nextDouble())).toLong(), maxMillis)
+            }
+
+            /**
+             * 以 slowRate 的概率返回 slow 的延迟, 否则返回 fast 的延迟, 模拟偶发的慢请求
+             */
+            @JvmStatic
+            fun bimodal(fast: Latency, slow: Latency, slowRate: Double) = Latency { random ->
+                if (random.nextDouble() < slowRate) slow.nextMillis(random) else fast.nextMillis(random)
+            }
+
+            /**
+             * 解析 none、fixed:5、uniform:1-20、exponential:10 或 exponential:10:200 形式的描述
+             */
+            @JvmStatic
+            fun parse(spec: String): Latency {
+                val parts = spec.trim().split(':')
+                return when (parts[0].lowercase()) {
+                    "", "none" -> NONE
+                    "fixed" -> fixed(parts[1].toLong())
+                    "uniform" -> parts[1].split('-').let { uniform(it[0].toLong(), it[1].toLong()) }
+                    "exponential", "exp" -> exponential(parts[1].toDouble(), parts.getOrNull(2)?.toLong() ?: Long.MAX_VALUE)
+                    else -> throw IllegalArgumentException("Unknown latency spec: $spec")
+                }
+            }
+        }
+    }
+
+    private var server: HttpServer? = null
+    private var executor: ExecutorService? = null
+    private val seededRandom = options.seed?.let { SynchronizedRandom(Random(it)) }
+
+    private val requests = AtomicLong()
+    private val injectedErrors = AtomicLong()
+    private val inFlight = AtomicInteger()
+    private val maxInFlight = AtomicInteger()
+
+    /**
+     * 已处理的请求数
+     */
+    val requestCount: Long get() = requests.get()
+
+    /**
+     * 注入的错误数
+     */
+    val errorCount: Long get() = injectedErrors.get()
+
+    /**
+     * 同时处理中的请求数的峰值, 可通过 [resetMaxInFlight] 重新统计
+     */
+    val maxConcurrentRequests: Int get() = maxInFlight.get()
+
+    fun resetMaxInFlight() = maxInFlight.set(inFlight.get())
+
+    val port: Int get() = checkNotNull(server) { "StandInServer is not started" }.address.port
+
+    /**
+     * 在回环地址上启动, 每个请求一个虚拟线程, 延迟不占用平台线程
+     * @param port 为 0 时使用随机端口
+     * @throws java.net.BindException 端口已被占用
+     */
+    @JvmOverloads
+    fun start(port: Int = 0, backlog: Int = 1024): StandInServer {
+        check(server == null) { "StandInServer is already started" }
+        val httpServer = HttpServer.create(InetSocketAddress(InetAddress.getLoopbackAddress(), port), backlog)
+        val virtualExecutor = Executors.newVirtualThreadPerTaskExecutor()
+        httpServer.createContext("/") { exchange ->
+            try {
+                handle(exchange)
+            } finally {
+                exchange.close()
+            }
+        }
+        httpServer.executor = virtualExecutor
+        httpServer.start()
+        server = httpServer
+        executor = virtualExecutor
+        return this
+    }
+
+    fun url(path: String): String = "http://127.0.0.1:$port$path"
+
+    override fun close() {
+        server?.stop(0)
+        executor?.shutdownNow()
+        server = null
+        executor = null
+    }
+
+    private fun random(): Random = seededRandom ?: ThreadLocalRandom.current().asKotlinRandom()
+
+    private fun handle(exchange: HttpExchange) {
+        requests.incrementAndGet()
+        exchange.requestBody.use { it.readAllBytes() }
+        val path = exchange.requestURI.path
+        val query = exchange.requestURI.rawQuery.orEmpty()
+        val random = random()
+
+        var delay = options.latency.nextMillis(random)
+        val sleepMillis = if ("sleep" in path) queryParam(query, "millis")?.toLongOrNull() ?: 10 else null
+        delay += sleepMillis ?: 0
+        // 在开始写响应之前结束计数, 客户端收到响应时该请求已不再计入
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), ::maxOf)
+        try {
+            if (delay > 0) {
+                Thread.sleep(delay)
+            }
+        } finally {
+            inFlight.decrementAndGet()
+        }
+
+        val (code, json) = if (options.errorRate > 0 && random.nextDouble() < options.errorRate) {
+            injectedErrors.incrementAndGet()
+            options.errorCode to """{"data":null,"statusCode":${options.errorCode},"statusMessage":"INJECTED"}""".toByteArray()
+        } else {
+            200 to responseJson(path, sleepMillis, random)
+        }
+        send(exchange, code, pad(json))
+    }
+
+    private fun responseJson(path: String, sleepMillis: Long?, random: Random): ByteArray = when {
+        sleepMillis != null -> """{"data":$sleepMillis,$SUCCESS}""".toByteArray()
+        path.startsWith("/api/put/user/") || path.startsWith("/api/post/user/") -> updatedUser
+        "user" in path -> """{"data":{"userId":${random.nextInt(1, 101)},"name":"looko"},$SUCCESS}""".toByteArray()
+        else -> """{"data":"ok",$SUCCESS}""".toByteArray()
+    }
+
+    /**
+     * 以 JSON 末尾的空白补齐到 payloadBytes, 解析器会忽略这些空白, 不影响严格的 ObjectMapper
+     */
+    private fun pad(json: ByteArray): ByteArray {
+        if (options.payloadBytes <= json.size) {
+            return json
+        }
+        val padded = json.copyOf(options.payloadBytes)
+        padded.fill(' '.code.toByte(), json.size)
+        return padded
+    }
+
+    private fun send(exchange: HttpExchange, code: Int, json: ByteArray) {
+        var body = json
+        val acceptGzip = exchange.requestHeaders["Accept-Encoding"].orEmpty().any { "gzip" in it }
+        if (options.gzip && acceptGzip) {
+            val out = ByteArrayOutputStream()
+            GZIPOutputStream(out).use { it.write(json) }
+            body = out.toByteArray()
+            exchange.responseHeaders["Content-Encoding"] = "gzip"
+        }
+        exchange.responseHeaders["Content-Type"] = "application/json"
+        // 长度为 0 时 HttpServer 使用 chunked 编码
+        exchange.sendResponseHeaders(code, if (options.chunked) 0 else body.size.toLong())
+        exchange.responseBody.use { out ->
+            if (options.chunked) {
+                // 分多次写出, 让客户端实际经历多个 chunk
+                var offset = 0
+                while (offset < body.size) {
+                    val length = minOf(8192, body.size - offset)
+                    out.write(body, offset, length)
+                    out.flush()
+                    offset += length
+                }
+            } else {
+                out.write(body)
+            }
+        }
+    }
+
+    /**
+     * 固定种子的随机数在多个请求线程间共享
+     */
+    private class SynchronizedRandom(private val delegate: Random) : Random() {
+        override fun nextBits(bitCount: Int): Int = synchronized(this) { delegate.nextBits(bitCount) }
+    }
+
+    private fun queryParam(query: String, name: String): String? =
+        query.split('&').firstNotNullOfOrNull { pair ->
+            val index = pair.indexOf('=')
+            if (index > 0 && pair.substring(0, index) == name) pair.substring(index + 1) else null
+        }
+}
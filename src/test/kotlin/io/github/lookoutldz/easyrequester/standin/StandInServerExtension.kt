@@ -0,0 +1,68 @@
+package io.github.lookoutldz.easyrequester.standin
+
+import org.junit.jupiter.api.extension.BeforeAllCallback
+import org.junit.jupiter.api.extension.ExtensionContext
+import java.net.BindException
+
+/**
+ * 在第一个测试类执行前于 127.0.0.1:58080 启动共享的 StandInServer, 整个测试运行结束后关闭
+ * 通过 META-INF/services 自动注册 (junit-platform.properties 中开启了 autodetection), 测试类无需任何注解
+ *
+ * 可用系统属性调整共享服务, 例如 mvn test -Deasyrequester.standin.latency=exponential:20:500:
+ *  - easyrequester.standin: false 时不启动, 改为使用外部服务
+ *  - easyrequester.standin.latency: 延迟分布, 见 StandInServer.Latency.parse
+ *  - easyrequester.standin.payloadBytes / chunked / gzip / errorRate / errorCode / seed: 见 StandInServer.Options
+ * 端口已被占用时 (例如本地已经启动了真实服务) 直接使用已有的服务
+ * @author looko
+ * @date 2025/6/30
+ */
+class StandInServerExtension : BeforeAllCallback {
+
+    companion object {
+        private const val PREFIX = "easyrequester.standin"
+
+        fun optionsFromSystemProperties(): StandInServer.Options {
+            fun property(name: String): String? = System.getProperty("$PREFIX.$name")?.takeIf { it.isNotBlank() }
+            val defaults = StandInServer.Options()
+            return StandInServer.Options(
+                latency = property("latency")?.let { StandInServer.Latency.parse(it) } ?: defaults.latency,
+                payloadBytes = property("payloadBytes")?.toInt() ?: defaults.payloadBytes,
+                chunked = property("chunked")?.toBoolean() ?: defaults.chunked,
+                gzip = property("gzip")?.toBoolean() ?: defaults.gzip,
+                errorRate = property("errorRate")?.toDouble() ?: defaults.errorRate,
+                errorCode = property("errorCode")?.toInt() ?: defaults.errorCode,
+                seed = property("seed")?.toLong() ?: defaults.seed,
+            )
+        }
+    }
+
+    override fun beforeAll(context: ExtensionContext) {
+        if (System.getProperty(PREFIX) == "false") {
+            return
+        }
+        context.root.getStore(ExtensionContext.Namespace.GLOBAL)
+            .getOrComputeIfAbsent(StandInServer::class.java.name) { SharedServer.start() }
+    }
+
+    /**
+     * 存放在根 ExtensionContext 中, 测试运行结束时由 JUnit 关闭
+     */
+    private class SharedServer(private val server: StandInServer?) : ExtensionContext.Store.CloseableResource {
+
+        companion object {
+            fun start(): SharedServer {
+                val server = StandInServer(optionsFromSystemProperties())
+                return try {
+                    SharedServer(server.start(StandInServer.DEFAULT_PORT))
+                } catch (e: BindException) {
+                    println("Port ${StandInServer.DEFAULT_PORT} is in use, tests will run against the existing server")
+                    SharedServer(null)
+                }
+            }
+        }
+
+        override fun close() {
+            server?.close()
+        }
+    }
+}